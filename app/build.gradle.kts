@@ -8,6 +8,14 @@ plugins {
     id("buildlogic.java-application")
 }
 
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
 dependencies {
     implementation(platform(libs.jackson.bom))
     implementation(libs.jackson.databind)
@@ -27,6 +35,18 @@ dependencies {
     testFunctionalImplementation(libs.assertj.json.unit)
     testFunctionalImplementation(libs.restAssured)
     testFunctionalImplementation(libs.awaitility)
+
+    "jmhImplementation"(libs.jmh.core)
+    "jmhAnnotationProcessor"(libs.jmh.generator.annprocess)
+}
+
+// Runs benchmarks, e.g. ./gradlew :app:jmh -PjmhArgs="MoneyMoverBenchmark -prof gc"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs JMH benchmarks from src/jmh"
+    classpath = jmh.runtimeClasspath
+    mainClass = "org.openjdk.jmh.Main"
+    args = (findProperty("jmhArgs") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: listOf()
 }
 
 application {
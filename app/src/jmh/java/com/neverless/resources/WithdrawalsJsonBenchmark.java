@@ -0,0 +1,45 @@
+package com.neverless.resources;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neverless.App;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of the withdrawal API payloads with the mapper the app registers in Javalin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WithdrawalsJsonBenchmark {
+    private final ObjectMapper mapper = App.objectMapper();
+    private final String request = """
+        {
+            "amount" : 12.345,
+            "fromAccount" : "%s",
+            "toAddress" : "bc1qxy2kgdygjrsqtzq2n0yrf2493p83kkfjhx0wlh"
+        }""".formatted(UUID.randomUUID());
+    private final Withdrawals.WithdrawalResponse response = new Withdrawals.WithdrawalResponse(UUID.randomUUID().toString());
+    private final Withdrawals.WithdrawalStateResponse stateResponse = new Withdrawals.WithdrawalStateResponse("PROCESSING");
+
+    @Benchmark
+    public Withdrawals.WithdrawalRequest readWithdrawalRequest() throws JsonProcessingException {
+        return mapper.readValue(request, Withdrawals.WithdrawalRequest.class);
+    }
+
+    @Benchmark
+    public String writeWithdrawalResponse() throws JsonProcessingException {
+        return mapper.writeValueAsString(response);
+    }
+
+    @Benchmark
+    public String writeWithdrawalStateResponse() throws JsonProcessingException {
+        return mapper.writeValueAsString(stateResponse);
+    }
+}
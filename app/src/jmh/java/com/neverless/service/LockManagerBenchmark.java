@@ -0,0 +1,60 @@
+package com.neverless.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link LockManager#withLock} and {@link LockManager#withLocks} with 8 threads locking random keys out of
+ * 10 000, by number of stripes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LockManagerBenchmark {
+    private static final int KEYS = 10_000;
+
+    @Param({ "1", "16", "128", "4096" })
+    public int stripes;
+
+    private LockManager lockManager;
+    private UUID[] keys;
+
+    @Setup
+    public void setup() {
+        lockManager = new LockManager(stripes, Duration.ofSeconds(10));
+        keys = new UUID[KEYS];
+        for (var i = 0; i < KEYS; i++) {
+            keys[i] = UUID.randomUUID();
+        }
+    }
+
+    @Benchmark
+    public Object withLock() {
+        final var key = keys[ThreadLocalRandom.current().nextInt(KEYS)];
+        return lockManager.withLock(key, () -> {
+            // a short critical section, comparable to a balance update
+            Blackhole.consumeCPU(20);
+            return key;
+        });
+    }
+
+    @Benchmark
+    public Object withLocks() {
+        final var random = ThreadLocalRandom.current();
+        final var first = keys[random.nextInt(KEYS)];
+        final var second = keys[random.nextInt(KEYS)];
+        return lockManager.withLocks(first, second, () -> {
+            Blackhole.consumeCPU(20);
+            return first;
+        });
+    }
+}
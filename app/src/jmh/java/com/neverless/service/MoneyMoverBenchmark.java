@@ -0,0 +1,125 @@
+package com.neverless.service;
+
+import com.neverless.AppConfig.LedgerMode;
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.storage.AccountRepositoryInMem;
+import com.neverless.storage.TransactionRepositoryInMem;
+import com.neverless.storage.journal.Journal;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+
+/**
+ * Throughput of {@link Ledger#moveMoney} between user accounts (UNIFORM) or from users to a handful of external
+ * accounts, which is what a burst of withdrawals to the same exchange looks like (SKEWED), for every ledger mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class MoneyMoverBenchmark {
+    private static final int ACCOUNTS = 10_000;
+    private static final int HOT_ACCOUNTS = 4;
+
+    @Param({ "UNIFORM", "SKEWED" })
+    public Access access;
+
+    @Param({ "LOCKING", "SEQUENCED", "SHARDED" })
+    public LedgerMode ledgerMode;
+
+    // only used by SHARDED, e.g. -p ledgerMode=SHARDED -p shards=1,2,4,8
+    @Param({ "4" })
+    public int shards;
+
+    private final Money amount = new Money(BigDecimal.ONE);
+    private AccountId[] users;
+    private AccountId[] hot;
+    private Ledger ledger;
+
+    public enum Access {
+        UNIFORM, SKEWED
+    }
+
+    // transactions are never removed, start every iteration from a fresh ledger to keep heap usage flat
+    @Setup(Level.Iteration)
+    public void setup() {
+        final var accountRepository = new AccountRepositoryInMem();
+        final var transactionRepository = new TransactionRepositoryInMem();
+        users = new AccountId[ACCOUNTS];
+        for (var i = 0; i < ACCOUNTS; i++) {
+            users[i] = accountRepository.add(userAccount().balance(new Money(new BigDecimal("1000000000"))).build()).id;
+        }
+        hot = new AccountId[HOT_ACCOUNTS];
+        for (var i = 0; i < HOT_ACCOUNTS; i++) {
+            hot[i] = accountRepository.add(externalAccount().externalAddress(new ExternalAddress("exchange-" + i)).build()).id;
+        }
+        ledger = switch (ledgerMode) {
+            case LOCKING -> {
+                final var lockManager = new LockManager(LockManager.DEFAULT_STRIPES, Duration.ofSeconds(10));
+                final var moneyMover = new MoneyMover(transactionRepository, accountRepository, lockManager);
+                yield new LockingLedger(moneyMover, new TransactionFinalizer(transactionRepository, accountRepository, lockManager));
+            }
+            case SEQUENCED -> new SequencedLedger(transactionRepository, accountRepository, Journal.NONE, SequencedLedger.DEFAULT_CAPACITY);
+            case SHARDED -> new ShardedLedger(transactionRepository, accountRepository, Journal.NONE, shards, SequencedLedger.DEFAULT_CAPACITY);
+        };
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        if (ledger instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public TransactionId threads_1() {
+        return move();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public TransactionId threads_4() {
+        return move();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public TransactionId threads_16() {
+        return move();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public TransactionId threads_64() {
+        return move();
+    }
+
+    private TransactionId move() {
+        final var random = ThreadLocalRandom.current();
+        final var from = users[random.nextInt(ACCOUNTS)];
+        final var to = switch (access) {
+            case UNIFORM -> {
+                var candidate = users[random.nextInt(ACCOUNTS)];
+                while (candidate.equals(from)) {
+                    candidate = users[random.nextInt(ACCOUNTS)];
+                }
+                yield candidate;
+            }
+            case SKEWED -> hot[random.nextInt(HOT_ACCOUNTS)];
+        };
+        return ledger.moveMoney(from, to, amount, Optional.empty());
+    }
+}
@@ -0,0 +1,53 @@
+package com.neverless.storage;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+
+/**
+ * Balance change of a random account, the way {@code MoneyMover} does it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountRepositoryBenchmark {
+    private static final int ACCOUNTS = 100_000;
+
+    private final Money amount = new Money(BigDecimal.ONE);
+    private AccountRepositoryInMem repository;
+    private AccountId[] ids;
+
+    @Setup
+    public void setup() {
+        repository = new AccountRepositoryInMem();
+        ids = new AccountId[ACCOUNTS];
+        for (var i = 0; i < ACCOUNTS; i++) {
+            ids[i] = repository.add(userAccount().build()).id;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void credit_threads_1() {
+        credit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void credit_threads_8() {
+        credit();
+    }
+
+    private void credit() {
+        repository.credit(ids[ThreadLocalRandom.current().nextInt(ACCOUNTS)], amount);
+    }
+}
@@ -0,0 +1,58 @@
+package com.neverless.storage;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static com.neverless.domain.transaction.TransactionState.COMPLETED;
+import static com.neverless.domain.transaction.TransactionState.PENDING;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static com.neverless.domain.transaction.TransactionType.INTERNAL;
+
+/**
+ * The finalize sweep query: a few pending withdrawals among many finished transactions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class TransactionRepositoryBenchmark {
+    private static final int PENDING_EXTERNAL = 1_000;
+
+    @Param({ "10000", "100000", "1000000", "10000000" })
+    public int rows;
+
+    private TransactionRepositoryInMem repository;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        repository = new TransactionRepositoryInMem();
+        final var amount = new Money(BigDecimal.ONE);
+        final var from = AccountId.random();
+        final var to = AccountId.random();
+        for (var i = 0; i < rows; i++) {
+            final var pending = i < PENDING_EXTERNAL;
+            final var transaction = transaction()
+                .from(from)
+                .to(to)
+                .amount(amount)
+                .type(i % 2 == 0 || pending ? EXTERNAL : INTERNAL)
+                .state(pending ? PENDING : COMPLETED)
+                .build();
+            repository.add(transaction);
+        }
+    }
+
+    @Benchmark
+    public Collection<Transaction> findPendingExternal() {
+        return repository.find(EXTERNAL, PENDING);
+    }
+}
@@ -8,70 +8,225 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountRepository;
-import com.neverless.storage.AccountRepositoryInMem;
+import com.neverless.domain.transaction.IdempotencyKeyRepository;
+import com.neverless.domain.transaction.Transaction;
 import com.neverless.domain.transaction.TransactionRepository;
-import com.neverless.storage.TransactionRepositoryInMem;
+import com.neverless.storage.IdempotencyKeyRepositoryInMem;
+import com.neverless.storage.Storage;
+import com.neverless.storage.journal.Journal;
+import com.neverless.integration.Bulkhead;
+import com.neverless.integration.CircuitBreaker;
+import com.neverless.integration.ResilientWithdrawalService;
+import com.neverless.integration.TimedWithdrawalService;
 import com.neverless.integration.WithdrawalService;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.PinnedThreadMonitor;
 import com.neverless.resources.Resources;
 import com.neverless.service.*;
 import io.javalin.Javalin;
 import io.javalin.json.JavalinJackson;
 
-import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.neverless.domain.transaction.TransactionState.PENDING;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
 
 
 public class App {
     private final Javalin javalin;
     private final ScheduledJobRunner transactionProcessor;
+    private final ExecutorService checkWorkers;
+    private final ExecutorService providerCallers;
+    private final WithdrawalOutbox outbox;
+    private final Ledger ledger;
+    private final Optional<PinnedThreadMonitor> pinnedThreadMonitor;
 
     public App(WithdrawalService<Money> withdrawalService,
                AccountRepository accountRepository,
                TransactionRepository transactionRepository) {
-        final var withdrawalStatusChecker = new WithdrawalStateChecker(withdrawalService, transactionRepository);
-        final var lockManager = new LockManager(100);
-        final var moneyMover = new MoneyMover(transactionRepository, accountRepository, lockManager);
-        final var withdrawalHandler = new WithdrawalHandler(withdrawalService, accountRepository, moneyMover);
-        final var transactionFinalizer = new TransactionFinalizer(transactionRepository, moneyMover, lockManager);
+        this(withdrawalService, accountRepository, transactionRepository, new MetricsRegistry());
+    }
+
+    public App(WithdrawalService<Money> withdrawalService,
+               AccountRepository accountRepository,
+               TransactionRepository transactionRepository,
+               MetricsRegistry metrics) {
+        this(withdrawalService, accountRepository, transactionRepository, new IdempotencyKeyRepositoryInMem(), metrics, new MemoryCensus(), AppConfig.defaults(), Journal.NONE);
+    }
 
+    /**
+     * @param memoryCensus the one repositories are registered with, the app adds its caches
+     * @param journal      the one repositories write to, lets the sequenced ledger wait for durability once per batch
+     */
+    public App(WithdrawalService<Money> withdrawalService,
+               AccountRepository accountRepository,
+               TransactionRepository transactionRepository,
+               IdempotencyKeyRepository idempotencyKeyRepository,
+               MetricsRegistry metrics,
+               MemoryCensus memoryCensus,
+               AppConfig appConfig,
+               Journal journal) {
+        // bulkheads bound the provider calls, and hedged calls wait on calls made on the same executor, so platform
+        // threads are pooled and reused rather than capped
+        this.providerCallers = appConfig.virtualThreads()
+            ? Executors.newThreadPerTaskExecutor(threads(appConfig, "withdrawal-provider-"))
+            : Executors.newCachedThreadPool(threads(appConfig, "withdrawal-provider-"));
+        final var provider = new ResilientWithdrawalService<>(
+            new TimedWithdrawalService<>(withdrawalService, metrics),
+            new Bulkhead("submit", appConfig.providerSubmitConcurrency()),
+            new Bulkhead("read", appConfig.providerReadConcurrency()),
+            new Bulkhead("poll", appConfig.providerPollConcurrency()),
+            CircuitBreaker.Builder.circuitBreaker().build(),
+            appConfig.providerTimeout(),
+            providerCallers);
+        for (final var bulkhead : provider.bulkheads()) {
+            metrics.gauge("neverless_provider_%s_in_flight".formatted(bulkhead.name()), "Calls to the withdrawal provider in flight", bulkhead::inFlight);
+            metrics.gauge("neverless_provider_%s_rejected_total".formatted(bulkhead.name()), "Calls to the withdrawal provider turned away for lack of capacity", bulkhead::rejected);
+        }
+        metrics.gauge("neverless_provider_circuit_open", "1 while calls to the withdrawal provider are suspended, 0.5 while probing", () -> switch (provider.circuitBreaker().state()) {
+            case CLOSED -> 0;
+            case HALF_OPEN -> 0.5;
+            case OPEN -> 1;
+        });
+        metrics.gauge("neverless_provider_circuit_rejected_total", "Calls to the withdrawal provider turned away while suspended", provider.circuitBreaker()::rejected);
+        final var lockManager = new LockManager(LockManager.DEFAULT_STRIPES);
+        final var moneyMover = new MoneyMover(transactionRepository, accountRepository, lockManager, journal);
+        final var transactionFinalizer = new TransactionFinalizer(transactionRepository, accountRepository, lockManager, journal);
+        this.ledger = switch (appConfig.ledgerMode()) {
+            case LOCKING -> new LockingLedger(moneyMover, transactionFinalizer);
+            case SEQUENCED -> new SequencedLedger(transactionRepository, accountRepository, journal, SequencedLedger.DEFAULT_CAPACITY);
+            case SHARDED -> new ShardedLedger(transactionRepository, accountRepository, journal, appConfig.ledgerShards(), SequencedLedger.DEFAULT_CAPACITY);
+        };
+        // commands are timed and withdrawals tracked until finalized, the ledger itself is kept to be closed
+        final var trackedLedger = new LagTrackingLedger(new TimedLedger(ledger, metrics), metrics);
+        trackedLedger.recover(transactionRepository.find(EXTERNAL, PENDING).stream()
+            .filter(transaction -> transaction.externalRef().isPresent())
+            .map(Transaction::id)
+            .toList());
+        final var pollScheduler = new WithdrawalPollScheduler(appConfig.pollMinDelay(), appConfig.pollMaxDelay(), appConfig.pollPriorityAmount());
+        this.outbox = new WithdrawalOutbox(
+            provider,
+            transactionRepository,
+            accountRepository,
+            trackedLedger,
+            pollScheduler,
+            appConfig.outboxWindow(),
+            WithdrawalOutbox.DEFAULT_MIN_BACKOFF,
+            WithdrawalOutbox.DEFAULT_MAX_BACKOFF,
+            appConfig.nettingWindow());
+        metrics.gauge("neverless_outbox_pending", "Withdrawals recorded but not yet acknowledged by the provider", outbox::size);
+        metrics.gauge("neverless_outbox_send_failures_total", "Withdrawal requests that failed to reach the provider", outbox::failedSends);
+        metrics.gauge("neverless_outbox_abandoned_total", "Withdrawal requests given up on until the next start", outbox::abandoned);
+        final var withdrawalHandler = new WithdrawalHandler(accountRepository, trackedLedger, outbox, idempotencyKeyRepository);
+
+        final var hedger = new Hedger(appConfig.hedgePercentile(), appConfig.hedgeBudget(), providerCallers);
+        metrics.gauge("neverless_withdrawal_state_hedge_rate", "Share of provider state requests made a second time", hedger::hedgeRate);
+        metrics.gauge("neverless_withdrawal_state_unhedged_p99_seconds", "p99 provider state request latency as it'd be without hedging", () -> hedger.unhedgedP99Nanos() / 1e9);
+        metrics.gauge("neverless_withdrawal_state_answered_p99_seconds", "p99 provider state request latency with hedging", () -> hedger.answeredP99Nanos() / 1e9);
+        metrics.gauge("neverless_withdrawal_state_hedge_p99_saved_seconds", "How much hedging cuts p99 provider state request latency", () -> (hedger.unhedgedP99Nanos() - hedger.answeredP99Nanos()) / 1e9);
+        final var withdrawalStatusChecker = new WithdrawalStateChecker(provider, transactionRepository, outbox::pending, hedger);
+        metrics.gauge("neverless_withdrawal_state_cache_hit_ratio", "Share of pending withdrawal state requests answered from cache", () -> withdrawalStatusChecker.cacheStats().hitRate());
+        metrics.gauge("neverless_withdrawal_state_cache_misses_total", "Pending withdrawal state requests not answered from cache", () -> withdrawalStatusChecker.cacheStats().missCount());
+        metrics.gauge("neverless_withdrawal_state_provider_calls_total", "Withdrawal state requests made to the provider", withdrawalStatusChecker::providerCalls);
+        metrics.gauge("neverless_withdrawal_state_coalesced_total", "Withdrawal state requests that shared a provider call in flight", withdrawalStatusChecker::coalescedCalls);
+        withdrawalStatusChecker.registerCensus(memoryCensus);
+
+        this.checkWorkers = appConfig.virtualThreads()
+            ? Executors.newThreadPerTaskExecutor(threads(appConfig, "withdrawal-check-"))
+            : Executors.newFixedThreadPool(appConfig.finalizeConcurrency(), threads(appConfig, "withdrawal-check-"));
+        // the job only triggers on the scheduler's thread, with virtual threads it runs its blocking calls on one too
+        final var jobThreads = threads(appConfig, "withdrawal-finalize-");
+        final var finalizeJob = new WithdrawalFinalizeJob(withdrawalStatusChecker, trackedLedger, pollScheduler, checkWorkers, appConfig.finalizeConcurrency());
+        final var finalizeCycles = metrics.timer("neverless_finalize_cycle_seconds", "Time taken by a run of the withdrawal finalize job");
         this.transactionProcessor = new ScheduledJobRunner(
-            Executors.newScheduledThreadPool(1),
-            Duration.ofSeconds(1),
-            new WithdrawalFinalizeJob(withdrawalStatusChecker, transactionRepository, transactionFinalizer)
+            Executors.newScheduledThreadPool(1, jobThreads),
+            WithdrawalPollScheduler.TICK,
+            () -> {
+                final var started = System.nanoTime();
+                try {
+                    finalizeJob.run();
+                } finally {
+                    finalizeCycles.recordSince(started);
+                    trackedLedger.cycleFinished();
+                }
+            }
         );
 
-        final var resources = new Resources(accountRepository, withdrawalStatusChecker, withdrawalHandler);
+        final var resources = new Resources(accountRepository, withdrawalStatusChecker, withdrawalHandler, metrics, memoryCensus, lockManager,
+            appConfig.providerReadTimeout(), appConfig.serverTimingLogSampleRate(),
+            trackedLedger, appConfig.readinessMaxPendingAge(), appConfig.readinessMaxPending());
 
 
         this.javalin = Javalin.create(config -> {
-            config.jsonMapper(new JavalinJackson(
-                new ObjectMapper()
-                    .registerModule(new Jdk8Module())
-                    .registerModule(new JavaTimeModule()),
-                false
-            ));
+            config.jsonMapper(new JavalinJackson(objectMapper(), false));
             config.bundledPlugins.enableDevLogging();
             config.router.mount(resources::register);
+            config.useVirtualThreads = appConfig.virtualThreads();
         });
+        this.pinnedThreadMonitor = appConfig.virtualThreads()
+            ? Optional.of(new PinnedThreadMonitor(metrics, PinnedThreadMonitor.DEFAULT_THRESHOLD))
+            : Optional.empty();
+    }
+
+    public static ObjectMapper objectMapper() {
+        return new ObjectMapper()
+            .registerModule(new Jdk8Module())
+            .registerModule(new JavaTimeModule());
     }
 
     public void start(int port) {
+        pinnedThreadMonitor.ifPresent(PinnedThreadMonitor::start);
+        outbox.start();
         transactionProcessor.start();
         javalin.start(port);
     }
 
     public void stop() {
         javalin.stop();
+        transactionProcessor.stop();
+        checkWorkers.close();
+        outbox.close();
+        providerCallers.shutdownNow();
+        pinnedThreadMonitor.ifPresent(PinnedThreadMonitor::close);
+        if (ledger instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to close ledger", e);
+            }
+        }
     }
 
     public int port() {
         return javalin.port();
     }
 
+    // every thread making blocking calls to the provider is virtual in virtual thread mode, platform otherwise
+    private static ThreadFactory threads(AppConfig appConfig, String prefix) {
+        return appConfig.virtualThreads()
+            ? Thread.ofVirtual().name(prefix, 0).factory()
+            : Thread.ofPlatform().name(prefix, 0).factory();
+    }
+
     public static void main(String[] args) {
+        final var config = AppConfig.fromSystemProperties();
+        final var metrics = new MetricsRegistry();
+        final var storage = config.journalDirectory()
+            .map(directory -> Storage.journaled(directory, config.fsyncPolicy(), config.snapshotInterval(), config.idempotencyKeyTtl(), config.maxIdempotencyKeys()))
+            .orElseGet(() -> Storage.inMemory(config.idempotencyKeyTtl(), config.maxIdempotencyKeys()));
+        storage.registerMetrics(metrics);
+        final var memoryCensus = new MemoryCensus();
+        storage.registerCensus(memoryCensus);
         // Provide actual implementation of withdrawal service
-        final var app = new App(null, new AccountRepositoryInMem(), new TransactionRepositoryInMem());
-        Runtime.getRuntime().addShutdownHook(new Thread(app::stop));
+        final var app = new App(null, storage.accounts, storage.transactions, storage.idempotencyKeys, metrics, memoryCensus, config, storage.journal());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            app.stop();
+            storage.close();
+        }));
         app.start(8080);
     }
 }
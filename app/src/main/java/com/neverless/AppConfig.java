@@ -0,0 +1,386 @@
+package com.neverless;
+
+import com.neverless.domain.Money;
+import com.neverless.storage.journal.FsyncPolicy;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+public record AppConfig(Optional<Path> journalDirectory,
+                        FsyncPolicy fsyncPolicy,
+                        Duration snapshotInterval,
+                        LedgerMode ledgerMode,
+                        int ledgerShards,
+                        boolean virtualThreads,
+                        Duration pollMinDelay,
+                        Duration pollMaxDelay,
+                        Optional<Money> pollPriorityAmount,
+                        int finalizeConcurrency,
+                        int providerSubmitConcurrency,
+                        int providerReadConcurrency,
+                        int providerPollConcurrency,
+                        Duration providerTimeout,
+                        Duration providerReadTimeout,
+                        double hedgePercentile,
+                        double hedgeBudget,
+                        int outboxWindow,
+                        Optional<Duration> nettingWindow,
+                        Duration idempotencyKeyTtl,
+                        long maxIdempotencyKeys,
+                        double serverTimingLogSampleRate,
+                        Duration readinessMaxPendingAge,
+                        int readinessMaxPending) {
+    public AppConfig {
+        requireNonNull(journalDirectory, "journalDirectory can't be null");
+        requireNonNull(fsyncPolicy, "fsyncPolicy can't be null");
+        requireNonNull(snapshotInterval, "snapshotInterval can't be null");
+        requireNonNull(ledgerMode, "ledgerMode can't be null");
+        requireNonNull(pollMinDelay, "pollMinDelay can't be null");
+        requireNonNull(pollMaxDelay, "pollMaxDelay can't be null");
+        requireNonNull(pollPriorityAmount, "pollPriorityAmount can't be null");
+        requireNonNull(nettingWindow, "nettingWindow can't be null");
+        if (finalizeConcurrency < 1) {
+            throw new IllegalArgumentException("finalizeConcurrency must be positive");
+        }
+        if (providerSubmitConcurrency < 1 || providerReadConcurrency < 1 || providerPollConcurrency < 1) {
+            throw new IllegalArgumentException("provider concurrency must be positive");
+        }
+        requireNonNull(providerTimeout, "providerTimeout can't be null");
+        requireNonNull(providerReadTimeout, "providerReadTimeout can't be null");
+        if (outboxWindow < 1) {
+            throw new IllegalArgumentException("outboxWindow must be positive");
+        }
+        requireNonNull(idempotencyKeyTtl, "idempotencyKeyTtl can't be null");
+        if (!idempotencyKeyTtl.isPositive() || maxIdempotencyKeys < 1) {
+            throw new IllegalArgumentException("idempotencyKeyTtl and maxIdempotencyKeys must be positive");
+        }
+        if (serverTimingLogSampleRate < 0 || serverTimingLogSampleRate > 1) {
+            throw new IllegalArgumentException("serverTimingLogSampleRate must be between 0 and 1");
+        }
+        requireNonNull(readinessMaxPendingAge, "readinessMaxPendingAge can't be null");
+        if (!readinessMaxPendingAge.isPositive() || readinessMaxPending < 1) {
+            throw new IllegalArgumentException("readinessMaxPendingAge and readinessMaxPending must be positive");
+        }
+        if (ledgerShards < 1) {
+            throw new IllegalArgumentException("ledgerShards must be positive");
+        }
+    }
+
+    private AppConfig(Builder builder) {
+        this(builder.journalDirectory, builder.fsyncPolicy, builder.snapshotInterval, builder.ledgerMode, builder.ledgerShards, builder.virtualThreads,
+            builder.pollMinDelay, builder.pollMaxDelay, builder.pollPriorityAmount,
+            builder.finalizeConcurrency,
+            builder.providerSubmitConcurrency, builder.providerReadConcurrency, builder.providerPollConcurrency, builder.providerTimeout, builder.providerReadTimeout,
+            builder.hedgePercentile, builder.hedgeBudget,
+            builder.outboxWindow, builder.nettingWindow,
+            builder.idempotencyKeyTtl, builder.maxIdempotencyKeys,
+            builder.serverTimingLogSampleRate,
+            builder.readinessMaxPendingAge, builder.readinessMaxPending);
+    }
+
+    public enum LedgerMode {
+        /**
+         * Commands run on the calling thread under account locks, see {@link com.neverless.service.LockingLedger}.
+         */
+        LOCKING,
+        /**
+         * Commands run in order on a single writer thread, see {@link com.neverless.service.SequencedLedger}.
+         */
+        SEQUENCED,
+        /**
+         * Commands run on one writer thread per shard of accounts, see {@link com.neverless.service.ShardedLedger}.
+         */
+        SHARDED
+    }
+
+    public static AppConfig defaults() {
+        return Builder.appConfig().build();
+    }
+
+    /**
+     * Reads overrides from {@code -Dneverless.*} system properties, anything not set keeps its default.
+     */
+    public static AppConfig fromSystemProperties() {
+        final var builder = Builder.appConfig();
+        property("neverless.journal.dir").map(Path::of).ifPresent(builder::journalDirectory);
+        property("neverless.journal.fsync").ifPresent(mode -> builder.fsyncPolicy(switch (mode) {
+            case "per-write" -> FsyncPolicy.perWrite();
+            case "group-commit" -> FsyncPolicy.groupCommit(Duration.ofNanos(
+                1000 * Long.parseLong(property("neverless.journal.group-commit-micros").orElse("500"))));
+            case "os" -> FsyncPolicy.osManaged();
+            default -> throw new IllegalArgumentException("Unknown fsync policy %s".formatted(mode));
+        }));
+        property("neverless.snapshot.interval-seconds").map(Long::parseLong).map(Duration::ofSeconds).ifPresent(builder::snapshotInterval);
+        property("neverless.ledger").ifPresent(mode -> builder.ledgerMode(switch (mode) {
+            case "locking" -> LedgerMode.LOCKING;
+            case "sequenced" -> LedgerMode.SEQUENCED;
+            case "sharded" -> LedgerMode.SHARDED;
+            default -> throw new IllegalArgumentException("Unknown ledger mode %s".formatted(mode));
+        }));
+        property("neverless.ledger.shards").map(Integer::parseInt).ifPresent(builder::ledgerShards);
+        property("neverless.virtual-threads").map(Boolean::parseBoolean).ifPresent(builder::virtualThreads);
+        property("neverless.poll.min-delay-millis").map(Long::parseLong).map(Duration::ofMillis).ifPresent(builder::pollMinDelay);
+        property("neverless.poll.max-delay-seconds").map(Long::parseLong).map(Duration::ofSeconds).ifPresent(builder::pollMaxDelay);
+        property("neverless.poll.priority-amount").map(BigDecimal::new).map(Money::new).ifPresent(builder::pollPriorityAmount);
+        property("neverless.finalize.concurrency").map(Integer::parseInt).ifPresent(builder::finalizeConcurrency);
+        property("neverless.provider.submit-concurrency").map(Integer::parseInt).ifPresent(builder::providerSubmitConcurrency);
+        property("neverless.provider.read-concurrency").map(Integer::parseInt).ifPresent(builder::providerReadConcurrency);
+        property("neverless.provider.poll-concurrency").map(Integer::parseInt).ifPresent(builder::providerPollConcurrency);
+        property("neverless.provider.timeout-millis").map(Long::parseLong).map(Duration::ofMillis).ifPresent(builder::providerTimeout);
+        property("neverless.provider.read-timeout-millis").map(Long::parseLong).map(Duration::ofMillis).ifPresent(builder::providerReadTimeout);
+        property("neverless.hedge.percentile").map(Double::parseDouble).ifPresent(builder::hedgePercentile);
+        property("neverless.hedge.budget").map(Double::parseDouble).ifPresent(builder::hedgeBudget);
+        property("neverless.outbox.window").map(Integer::parseInt).ifPresent(builder::outboxWindow);
+        property("neverless.netting.window-millis").map(Long::parseLong).map(Duration::ofMillis).ifPresent(builder::nettingWindow);
+        property("neverless.idempotency.ttl-seconds").map(Long::parseLong).map(Duration::ofSeconds).ifPresent(builder::idempotencyKeyTtl);
+        property("neverless.idempotency.max-keys").map(Long::parseLong).ifPresent(builder::maxIdempotencyKeys);
+        property("neverless.server-timing.log-sample-rate").map(Double::parseDouble).ifPresent(builder::serverTimingLogSampleRate);
+        property("neverless.readiness.max-pending-age-seconds").map(Long::parseLong).map(Duration::ofSeconds).ifPresent(builder::readinessMaxPendingAge);
+        property("neverless.readiness.max-pending").map(Integer::parseInt).ifPresent(builder::readinessMaxPending);
+        return builder.build();
+    }
+
+    private static Optional<String> property(String name) {
+        return Optional.ofNullable(System.getProperty(name)).filter(value -> !value.isBlank());
+    }
+
+    public static class Builder {
+        private Optional<Path> journalDirectory = Optional.empty();
+        private FsyncPolicy fsyncPolicy;
+        private Duration snapshotInterval;
+        private LedgerMode ledgerMode;
+        private int ledgerShards;
+        private boolean virtualThreads;
+        private Duration pollMinDelay;
+        private Duration pollMaxDelay;
+        private Optional<Money> pollPriorityAmount = Optional.empty();
+        private int finalizeConcurrency;
+        private int providerSubmitConcurrency;
+        private int providerReadConcurrency;
+        private int providerPollConcurrency;
+        private Duration providerTimeout;
+        private Duration providerReadTimeout;
+        private double hedgePercentile;
+        private double hedgeBudget;
+        private int outboxWindow;
+        private Optional<Duration> nettingWindow = Optional.empty();
+        private Duration idempotencyKeyTtl;
+        private long maxIdempotencyKeys;
+        private double serverTimingLogSampleRate;
+        private Duration readinessMaxPendingAge;
+        private int readinessMaxPending;
+
+        public static Builder appConfig() {
+            return new Builder()
+                .fsyncPolicy(FsyncPolicy.groupCommit(Duration.ofNanos(500_000)))
+                .snapshotInterval(Duration.ofMinutes(5))
+                .ledgerMode(LedgerMode.LOCKING)
+                .ledgerShards(Runtime.getRuntime().availableProcessors())
+                .pollMinDelay(Duration.ofSeconds(1))
+                .pollMaxDelay(Duration.ofMinutes(5))
+                .finalizeConcurrency(1)
+                .providerSubmitConcurrency(128)
+                .providerReadConcurrency(64)
+                .providerPollConcurrency(64)
+                .providerTimeout(Duration.ofSeconds(10))
+                .providerReadTimeout(Duration.ofSeconds(2))
+                .hedgePercentile(0.95)
+                .hedgeBudget(0.05)
+                .outboxWindow(64)
+                .idempotencyKeyTtl(Duration.ofHours(24))
+                .maxIdempotencyKeys(1_000_000)
+                .readinessMaxPendingAge(Duration.ofMinutes(5))
+                .readinessMaxPending(100_000);
+        }
+
+        public Builder journalDirectory(Path journalDirectory) {
+            this.journalDirectory = Optional.of(journalDirectory);
+            return this;
+        }
+
+        public Builder fsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        /**
+         * Zero disables periodic snapshots.
+         */
+        public Builder snapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+            return this;
+        }
+
+        public Builder ledgerMode(LedgerMode ledgerMode) {
+            this.ledgerMode = ledgerMode;
+            return this;
+        }
+
+        /**
+         * Only used by {@link LedgerMode#SHARDED}.
+         */
+        public Builder ledgerShards(int ledgerShards) {
+            this.ledgerShards = ledgerShards;
+            return this;
+        }
+
+        /**
+         * Runs HTTP handlers and the finalize job, and with them every call into the withdrawal service, on virtual
+         * threads, and reports virtual threads pinned to their carrier.
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        /**
+         * Delay before the first check of a withdrawal with the provider until completion times are observed, and the
+         * least delay between checks after that.
+         */
+        public Builder pollMinDelay(Duration pollMinDelay) {
+            this.pollMinDelay = pollMinDelay;
+            return this;
+        }
+
+        public Builder pollMaxDelay(Duration pollMaxDelay) {
+            this.pollMaxDelay = pollMaxDelay;
+            return this;
+        }
+
+        /**
+         * Withdrawals of at least this amount are checked with the provider twice as often.
+         */
+        public Builder pollPriorityAmount(Money pollPriorityAmount) {
+            this.pollPriorityAmount = Optional.of(pollPriorityAmount);
+            return this;
+        }
+
+        /**
+         * Withdrawal status checks one run of the finalize job makes at a time, one keeps them sequential.
+         */
+        public Builder finalizeConcurrency(int finalizeConcurrency) {
+            this.finalizeConcurrency = finalizeConcurrency;
+            return this;
+        }
+
+        /**
+         * Withdrawal requests in flight to the provider at a time.
+         */
+        public Builder providerSubmitConcurrency(int providerSubmitConcurrency) {
+            this.providerSubmitConcurrency = providerSubmitConcurrency;
+            return this;
+        }
+
+        /**
+         * State requests in flight to the provider at a time on behalf of clients.
+         */
+        public Builder providerReadConcurrency(int providerReadConcurrency) {
+            this.providerReadConcurrency = providerReadConcurrency;
+            return this;
+        }
+
+        /**
+         * State requests in flight to the provider at a time for the finalize job.
+         */
+        public Builder providerPollConcurrency(int providerPollConcurrency) {
+            this.providerPollConcurrency = providerPollConcurrency;
+            return this;
+        }
+
+        /**
+         * How long a background call to the provider may take.
+         */
+        public Builder providerTimeout(Duration providerTimeout) {
+            this.providerTimeout = providerTimeout;
+            return this;
+        }
+
+        /**
+         * How long a client request may wait for the provider, clients can ask for less.
+         */
+        public Builder providerReadTimeout(Duration providerReadTimeout) {
+            this.providerReadTimeout = providerReadTimeout;
+            return this;
+        }
+
+        /**
+         * Provider state requests not answered within this percentile of recent latencies are made a second time.
+         */
+        public Builder hedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        /**
+         * Largest share of provider state requests made a second time, zero disables hedging.
+         */
+        public Builder hedgeBudget(double hedgeBudget) {
+            this.hedgeBudget = hedgeBudget;
+            return this;
+        }
+
+        /**
+         * Withdrawal requests the outbox sends to the provider at a time.
+         */
+        public Builder outboxWindow(int outboxWindow) {
+            this.outboxWindow = outboxWindow;
+            return this;
+        }
+
+        /**
+         * Withdrawals to the same external account recorded within this window go to the provider as one request.
+         */
+        public Builder nettingWindow(Duration nettingWindow) {
+            this.nettingWindow = Optional.of(nettingWindow);
+            return this;
+        }
+
+        /**
+         * How long a withdrawal's idempotency key is remembered.
+         */
+        public Builder idempotencyKeyTtl(Duration idempotencyKeyTtl) {
+            this.idempotencyKeyTtl = idempotencyKeyTtl;
+            return this;
+        }
+
+        /**
+         * Idempotency keys remembered at most, least recently used ones are forgotten first.
+         */
+        public Builder maxIdempotencyKeys(long maxIdempotencyKeys) {
+            this.maxIdempotencyKeys = maxIdempotencyKeys;
+            return this;
+        }
+
+        /**
+         * Share of requests whose Server-Timing breakdown is also logged, zero logs none.
+         */
+        public Builder serverTimingLogSampleRate(double serverTimingLogSampleRate) {
+            this.serverTimingLogSampleRate = serverTimingLogSampleRate;
+            return this;
+        }
+
+        /**
+         * Readiness reports degraded once the oldest withdrawal not yet finalized is older than this.
+         */
+        public Builder readinessMaxPendingAge(Duration readinessMaxPendingAge) {
+            this.readinessMaxPendingAge = readinessMaxPendingAge;
+            return this;
+        }
+
+        /**
+         * Readiness reports degraded once more withdrawals than this wait to be finalized.
+         */
+        public Builder readinessMaxPending(int readinessMaxPending) {
+            this.readinessMaxPending = readinessMaxPending;
+            return this;
+        }
+
+        public AppConfig build() {
+            return new AppConfig(this);
+        }
+    }
+}
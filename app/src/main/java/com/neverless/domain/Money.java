@@ -4,20 +4,71 @@ import java.math.BigDecimal;
 
 import static java.util.Objects.requireNonNull;
 
-public record Money(BigDecimal value) {
-    public Money {
-        requireNonNull(value, "Value can't be null");
+/**
+ * Fixed-point amount kept as a count of minor units, {@code units / 10^SCALE}. Arithmetic is plain overflow-checked
+ * {@code long} math, {@link BigDecimal} is only used to cross the API and journal boundaries.
+ */
+public record Money(long units) implements Comparable<Money> {
+    /**
+     * Decimal places of the only currency the ledger holds.
+     */
+    public static final int SCALE = 8;
+
+    private static final Money ZERO = new Money(0L);
+    // Long.MAX_VALUE has 19 digits, anything longer can't fit regardless of the scale
+    private static final int MAX_PRECISION = 19;
+
+    /**
+     * @throws IllegalArgumentException when the value has more than {@link #SCALE} decimal places or doesn't fit
+     */
+    public Money(BigDecimal value) {
+        this(toUnits(value));
     }
 
     public static Money zero() {
-        return new Money(BigDecimal.ZERO);
+        return ZERO;
     }
 
     public Money subtract(Money amount) {
-        return new Money(value.subtract(amount.value));
+        return new Money(Math.subtractExact(units, amount.units));
     }
 
     public Money add(Money amount) {
-        return new Money(value.add(amount.value));
+        return new Money(Math.addExact(units, amount.units));
+    }
+
+    public int signum() {
+        return Long.signum(units);
+    }
+
+    public BigDecimal value() {
+        return BigDecimal.valueOf(units, SCALE);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(units, other.units);
+    }
+
+    @Override
+    public String toString() {
+        return value().toPlainString();
+    }
+
+    private static long toUnits(BigDecimal value) {
+        requireNonNull(value, "Value can't be null");
+        // checked before any scaling, so absurd exponents are rejected without materializing them
+        final var stripped = value.stripTrailingZeros();
+        if (stripped.scale() > SCALE) {
+            throw new IllegalArgumentException("Amount %s has more than %s decimal places".formatted(value, SCALE));
+        }
+        if (stripped.precision() - stripped.scale() > MAX_PRECISION) {
+            throw new IllegalArgumentException("Amount %s is out of range".formatted(value));
+        }
+        try {
+            return stripped.movePointRight(SCALE).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Amount %s is out of range".formatted(value), e);
+        }
     }
 }
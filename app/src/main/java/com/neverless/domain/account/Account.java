@@ -19,14 +19,16 @@ public abstract class Account<T extends Account<T>> {
     }
 
     public T deduct(Money amount) {
-        return copy()
-            .balance(balance.subtract(amount))
-            .build();
+        return withBalance(balance.subtract(amount));
     }
 
     public T add(Money amount) {
+        return withBalance(balance.add(amount));
+    }
+
+    public T withBalance(Money balance) {
         return copy()
-            .balance(balance.add(amount))
+            .balance(balance)
             .build();
     }
 
@@ -1,11 +1,25 @@
 package com.neverless.domain.account;
 
+import com.neverless.domain.Money;
+
 import java.util.Optional;
 
 public interface AccountRepository {
     Optional<Account> find(AccountId id);
     Account get(AccountId id);
-    Account update(Account account);
+    AccountType type(AccountId id);
     Optional<ExternalAccount> find(ExternalAddress externalAddress);
     Account add(Account account);
+
+    /**
+     * Atomically subtracts amount from the balance unless that would make it negative.
+     *
+     * @return false when the balance is insufficient, it's left unchanged then
+     */
+    boolean debit(AccountId id, Money amount);
+
+    /**
+     * Atomically adds amount to the balance.
+     */
+    void credit(AccountId id, Money amount);
 }
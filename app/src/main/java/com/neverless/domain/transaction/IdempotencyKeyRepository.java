@@ -0,0 +1,18 @@
+package com.neverless.domain.transaction;
+
+import com.neverless.domain.account.AccountId;
+
+import java.util.function.Function;
+
+/**
+ * Transactions clients created under idempotency keys, each key is scoped to the account that used it.
+ */
+public interface IdempotencyKeyRepository {
+    /**
+     * @param create creates the transaction under the id it's given and returns that id, the key may be recorded with
+     *               the id ahead of the transaction
+     * @return transaction recorded under the key, or the one {@code create} made, recorded under it. Calls for a key
+     * whose transaction is being created wait for it; when creation fails the key is left free.
+     */
+    TransactionId computeIfAbsent(AccountId account, String key, Function<TransactionId, TransactionId> create);
+}
@@ -27,7 +27,7 @@ public record Transaction(TransactionId id,
             throw new IllegalArgumentException("Transaction accounts must be different");
         }
 
-        if (amount.value().signum() < 1) {
+        if (amount.signum() < 1) {
             throw new IllegalArgumentException("Transaction value must be greater than zero");
         }
     }
@@ -7,6 +7,7 @@ public interface TransactionRepository {
     Optional<Transaction> find(TransactionId id);
     Transaction get(TransactionId id);
     Collection<Transaction> find(TransactionType type, TransactionState... states);
+    Collection<Transaction> find(ExternalRef externalRef);
     Transaction add(Transaction transaction);
     Transaction update(Transaction transaction);
 }
@@ -0,0 +1,7 @@
+package com.neverless.exceptions;
+
+public class LockTimeoutException extends RuntimeException {
+    public LockTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.neverless.exceptions;
+
+public class ProviderUnavailableException extends RuntimeException {
+    public ProviderUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,79 @@
+package com.neverless.integration;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caps the calls in flight of one kind, callers wait for a free permit in arrival order but no later than their
+ * deadline. Giving each kind of call its own bulkhead keeps one of them from taking every call the provider gets.
+ */
+public class Bulkhead {
+    private final String name;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(String name, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight calls must be positive, got %s".formatted(maxInFlight));
+        }
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * @param deadline in {@link System#nanoTime()} terms
+     * @throws ProviderUnavailableException when no permit frees up by the deadline
+     */
+    public <R> R call(long deadline, Supplier<R> call) {
+        acquire(deadline);
+        try {
+            return call.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Takes a permit for a call that may outlive its caller, e.g. one running on another thread, which must
+     * {@link #release()} it once done.
+     *
+     * @param deadline in {@link System#nanoTime()} terms
+     * @throws ProviderUnavailableException when no permit frees up by the deadline
+     */
+    public void acquire(long deadline) {
+        try {
+            if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                rejected.increment();
+                throw new ProviderUnavailableException("No capacity left for %s calls to the withdrawal provider".formatted(name));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProviderUnavailableException("Interrupted waiting to call the withdrawal provider");
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int inFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * @return calls turned away for lack of a permit
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
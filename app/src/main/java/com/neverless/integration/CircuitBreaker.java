@@ -0,0 +1,249 @@
+package com.neverless.integration;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stops calling the provider while it's failing or slow, so callers fail right away instead of waiting out their
+ * deadlines on it.
+ * <p>
+ * Outcomes of the last {@code window} calls are kept. Once at least {@code minimumCalls} of them are in and the share
+ * of failed ones, or of ones slower than {@code slowCall}, reaches its threshold, the breaker opens and rejects every
+ * call for {@code openDuration}. After that it lets {@code probes} calls through: if they all succeed, it closes with
+ * a clean window, if any one fails it opens again.
+ */
+public class CircuitBreaker {
+    private static final byte SUCCEEDED = 0;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int probes;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final byte[] outcomes;
+    private int recorded;
+    private int next;
+    private int failed;
+    private int slow;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int probesLeft;
+    private int probesSucceeded;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private CircuitBreaker(Builder builder) {
+        if (builder.window < 1 || builder.minimumCalls < 1 || builder.minimumCalls > builder.window || builder.probes < 1) {
+            throw new IllegalArgumentException("Circuit breaker needs 1 <= minimumCalls <= window and probes >= 1");
+        }
+        this.outcomes = new byte[builder.window];
+        this.minimumCalls = builder.minimumCalls;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallNanos = builder.slowCall.toNanos();
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.openNanos = builder.openDuration.toNanos();
+        this.probes = builder.probes;
+        this.nanoClock = requireNonNull(builder.nanoClock);
+    }
+
+    /**
+     * Admits a call, to be followed by {@link #record}.
+     *
+     * @throws ProviderUnavailableException while the breaker is open, or half open with its probes already out
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            if (state == State.OPEN && nanoClock.getAsLong() - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+                probesLeft = probes;
+                probesSucceeded = 0;
+            }
+            switch (state) {
+                case CLOSED -> {
+                    return;
+                }
+                case HALF_OPEN -> {
+                    if (probesLeft > 0) {
+                        probesLeft--;
+                        return;
+                    }
+                }
+                case OPEN -> {
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        rejected.increment();
+        throw new ProviderUnavailableException("Withdrawal provider is unavailable, calls are suspended");
+    }
+
+    /**
+     * @param nanos how long the call took
+     * @param succeeded whether the provider answered, an answer rejecting the request counts as one
+     */
+    public void record(long nanos, boolean succeeded) {
+        final var outcome = !succeeded ? FAILED : nanos >= slowCallNanos ? SLOW : SUCCEEDED;
+        lock.lock();
+        try {
+            switch (state) {
+                case CLOSED -> {
+                    add(outcome);
+                    if (recorded >= minimumCalls
+                        && (failed >= failureRateThreshold * recorded || slow >= slowCallRateThreshold * recorded)) {
+                        open();
+                    }
+                }
+                case HALF_OPEN -> {
+                    if (outcome != SUCCEEDED) {
+                        open();
+                    } else if (++probesSucceeded == probes) {
+                        state = State.CLOSED;
+                        reset();
+                    }
+                }
+                case OPEN -> {
+                    // a call admitted before the breaker opened
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return calls turned away while open
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    private void add(byte outcome) {
+        if (recorded == outcomes.length) {
+            remove(outcomes[next]);
+        } else {
+            recorded++;
+        }
+        outcomes[next] = outcome;
+        next = (next + 1) % outcomes.length;
+        if (outcome == FAILED) {
+            failed++;
+        } else if (outcome == SLOW) {
+            slow++;
+        }
+    }
+
+    private void remove(byte outcome) {
+        if (outcome == FAILED) {
+            failed--;
+        } else if (outcome == SLOW) {
+            slow--;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = nanoClock.getAsLong();
+    }
+
+    private void reset() {
+        recorded = 0;
+        next = 0;
+        failed = 0;
+        slow = 0;
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static class Builder {
+        private int window;
+        private int minimumCalls;
+        private double failureRateThreshold;
+        private Duration slowCall;
+        private double slowCallRateThreshold;
+        private Duration openDuration;
+        private int probes;
+        private LongSupplier nanoClock;
+
+        public static Builder circuitBreaker() {
+            return new Builder()
+                .window(100)
+                .minimumCalls(20)
+                .failureRateThreshold(0.5)
+                .slowCall(Duration.ofSeconds(2))
+                .slowCallRateThreshold(0.5)
+                .openDuration(Duration.ofSeconds(5))
+                .probes(3)
+                .nanoClock(System::nanoTime);
+        }
+
+        public Builder window(int window) {
+            this.window = window;
+            return this;
+        }
+
+        public Builder minimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder failureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        public Builder slowCall(Duration slowCall) {
+            this.slowCall = slowCall;
+            return this;
+        }
+
+        public Builder slowCallRateThreshold(double slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        public Builder probes(int probes) {
+            this.probes = probes;
+            return this;
+        }
+
+        public Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
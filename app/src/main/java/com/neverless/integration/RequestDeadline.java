@@ -0,0 +1,65 @@
+package com.neverless.integration;
+
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+/**
+ * Deadline of the client request being served on the current thread. Provider calls made while serving it count as
+ * user facing, see {@link ResilientWithdrawalService}, and give up once it passes.
+ */
+public final class RequestDeadline {
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Runs {@code work} with a deadline {@code timeout} from now, or the one already set if that's sooner.
+     */
+    public static <T> T within(Duration timeout, Supplier<T> work) {
+        final var outer = DEADLINE.get();
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        DEADLINE.set(outer == null || deadline - outer < 0 ? deadline : outer);
+        try {
+            return work.get();
+        } finally {
+            if (outer == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Carries the current deadline, if any, over to whichever thread runs the returned supplier.
+     */
+    public static <T> Supplier<T> propagated(Supplier<T> work) {
+        final var deadline = DEADLINE.get();
+        if (deadline == null) {
+            return work;
+        }
+        return () -> {
+            final var outer = DEADLINE.get();
+            DEADLINE.set(deadline);
+            try {
+                return work.get();
+            } finally {
+                if (outer == null) {
+                    DEADLINE.remove();
+                } else {
+                    DEADLINE.set(outer);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return deadline in {@link System#nanoTime()} terms, empty outside of a client request
+     */
+    public static OptionalLong current() {
+        final var deadline = DEADLINE.get();
+        return deadline == null ? OptionalLong.empty() : OptionalLong.of(deadline);
+    }
+}
@@ -0,0 +1,136 @@
+package com.neverless.integration;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Guards calls to a withdrawal service that might hang or fail, so a degraded provider slows down only what needs it.
+ * <p>
+ * Withdrawal requests, state requests made while serving a client ({@link RequestDeadline}) and background state
+ * requests each have their own {@link Bulkhead}, a burst of one kind can't starve the others. Every call gives up at
+ * its deadline: the client request's, or the default timeout for background calls. The call itself runs on one of
+ * {@code callers} and is interrupted at the deadline, so a provider that doesn't return can't hold the caller. It holds
+ * its bulkhead permit until it actually returns, so a hung provider fills the bulkhead rather than piling up calls.
+ * <p>
+ * All of them share one {@link CircuitBreaker}. An {@link IllegalArgumentException} is the provider's answer to a bad
+ * request, not a failure. Calls turned away, by a bulkhead, the breaker or their deadline, throw
+ * {@link ProviderUnavailableException}.
+ */
+public class ResilientWithdrawalService<T> implements WithdrawalService<T> {
+    private final WithdrawalService<T> delegate;
+    private final Bulkhead submissions;
+    private final Bulkhead reads;
+    private final Bulkhead polling;
+    private final CircuitBreaker circuitBreaker;
+    private final long timeoutNanos;
+    private final ExecutorService callers;
+
+    /**
+     * @param timeout how long background calls may take
+     */
+    public ResilientWithdrawalService(WithdrawalService<T> delegate,
+                                      Bulkhead submissions,
+                                      Bulkhead reads,
+                                      Bulkhead polling,
+                                      CircuitBreaker circuitBreaker,
+                                      Duration timeout,
+                                      ExecutorService callers) {
+        this.delegate = delegate;
+        this.submissions = requireNonNull(submissions);
+        this.reads = requireNonNull(reads);
+        this.polling = requireNonNull(polling);
+        this.circuitBreaker = requireNonNull(circuitBreaker);
+        this.timeoutNanos = timeout.toNanos();
+        this.callers = requireNonNull(callers);
+    }
+
+    @Override
+    public void requestWithdrawal(WithdrawalId id, Address address, T amount) {
+        guarded(submissions, () -> {
+            delegate.requestWithdrawal(id, address, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public WithdrawalState getRequestState(WithdrawalId id) {
+        return guarded(RequestDeadline.current().isPresent() ? reads : polling, () -> delegate.getRequestState(id));
+    }
+
+    public List<Bulkhead> bulkheads() {
+        return List.of(submissions, reads, polling);
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    private <R> R guarded(Bulkhead bulkhead, Supplier<R> call) {
+        final var deadline = RequestDeadline.current().orElseGet(() -> System.nanoTime() + timeoutNanos);
+        bulkhead.acquire(deadline);
+        // the permit goes back when the call is done, not when we stop waiting for it: one ignoring the interrupt at
+        // the deadline keeps running against the provider and keeps counting as in flight. Whoever claims the call
+        // first, the call starting or us giving up before it did, is the one releasing
+        final var claimed = new AtomicBoolean();
+        try {
+            circuitBreaker.acquire();
+            final var started = System.nanoTime();
+            var succeeded = false;
+            try {
+                final var result = await(callers.submit(() -> {
+                    if (!claimed.compareAndSet(false, true)) {
+                        throw new CancellationException("Withdrawal provider call given up before it started");
+                    }
+                    try {
+                        return call.get();
+                    } finally {
+                        bulkhead.release();
+                    }
+                }), deadline);
+                succeeded = true;
+                return result;
+            } catch (IllegalArgumentException e) {
+                succeeded = true;
+                throw e;
+            } finally {
+                circuitBreaker.record(System.nanoTime() - started, succeeded);
+            }
+        } finally {
+            if (claimed.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private static <R> R await(Future<R> result, long deadline) {
+        try {
+            return result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            throw new ProviderUnavailableException("Withdrawal provider didn't answer in time");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ProviderUnavailableException("Interrupted waiting for the withdrawal provider");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Withdrawal provider call failed", e.getCause());
+        } catch (CancellationException e) {
+            throw new ProviderUnavailableException("Withdrawal provider call was cancelled");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.neverless.integration;
+
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.Timer;
+import com.neverless.metrics.jfr.ProviderCallEvent;
+
+import java.util.Map;
+
+/**
+ * Times calls to the withdrawal provider as it answers them, so it sits inside {@link ResilientWithdrawalService}
+ * and doesn't see calls turned away or given up on. Every call is also a {@link ProviderCallEvent} while recording.
+ */
+public class TimedWithdrawalService<T> implements WithdrawalService<T> {
+    private final WithdrawalService<T> delegate;
+    private final Timer requestWithdrawal;
+    private final Timer getRequestState;
+
+    public TimedWithdrawalService(WithdrawalService<T> delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.requestWithdrawal = timer(metrics, "request_withdrawal");
+        this.getRequestState = timer(metrics, "get_request_state");
+    }
+
+    @Override
+    public void requestWithdrawal(WithdrawalId id, Address address, T amount) {
+        final var event = new ProviderCallEvent();
+        event.begin();
+        final var started = System.nanoTime();
+        var result = "FAILED";
+        try {
+            delegate.requestWithdrawal(id, address, amount);
+            result = "ACCEPTED";
+        } catch (IllegalArgumentException e) {
+            result = "REJECTED";
+            throw e;
+        } finally {
+            requestWithdrawal.recordSince(started);
+            commit(event, "request_withdrawal", id, result);
+        }
+    }
+
+    @Override
+    public WithdrawalState getRequestState(WithdrawalId id) {
+        final var event = new ProviderCallEvent();
+        event.begin();
+        final var started = System.nanoTime();
+        var result = "FAILED";
+        try {
+            final var state = delegate.getRequestState(id);
+            result = state.name();
+            return state;
+        } catch (IllegalArgumentException e) {
+            result = "REJECTED";
+            throw e;
+        } finally {
+            getRequestState.recordSince(started);
+            commit(event, "get_request_state", id, result);
+        }
+    }
+
+    private static void commit(ProviderCallEvent event, String operation, WithdrawalId id, String result) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.withdrawal = id.value().toString();
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    private static Timer timer(MetricsRegistry metrics, String operation) {
+        return metrics.timer("neverless_provider_call_seconds", "Time taken by the withdrawal provider to answer calls", Map.of("operation", operation));
+    }
+}
@@ -0,0 +1,71 @@
+package com.neverless.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with power of two buckets: bucket {@code i} counts durations below
+ * {@code 2^i} ns and at least {@code 2^(i-1)} ns. Recording is one atomic increment, percentiles are reported as the
+ * upper bound of their bucket, so they overestimate by at most a factor of two.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        buckets.getAndIncrement(BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+    }
+
+    public Summary summary() {
+        final var counts = counts();
+        final var total = counts[BUCKETS];
+        return new Summary(total, percentile(counts, total, 0.5), percentile(counts, total, 0.99), percentile(counts, total, 1.0));
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound of the bucket holding it, 0 when nothing was recorded
+     */
+    public long percentile(double percentile) {
+        final var counts = counts();
+        return percentile(counts, counts[BUCKETS], percentile);
+    }
+
+    public long count() {
+        return counts()[BUCKETS];
+    }
+
+    /**
+     * Bucket counts followed by their total.
+     */
+    private long[] counts() {
+        final var counts = new long[BUCKETS + 1];
+        for (var i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            counts[BUCKETS] += counts[i];
+        }
+        return counts;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        final var rank = (long) Math.ceil(total * percentile);
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @param p50Nanos upper bound of the bucket holding the median
+     * @param maxNanos upper bound of the highest non empty bucket
+     */
+    public record Summary(long count, long p50Nanos, long p99Nanos, long maxNanos) {
+    }
+}
@@ -0,0 +1,165 @@
+package com.neverless.metrics;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Estimates how much heap the in-memory repositories, caches and indexes retain, without a heap dump. Every
+ * population reports how many entries it holds and hands over a sample of them; the sample is walked by
+ * {@link ObjectSizer} and scaled up to the whole population, together with a fixed per entry cost of the structure
+ * holding it. A census of a few hundred entries per population takes well under a millisecond.
+ * <p>
+ * Entries are expected to hand over only what they alone keep alive, e.g. an index of ids already held by the
+ * repository hands over nothing and costs its per entry overhead.
+ */
+public class MemoryCensus {
+    public static final int DEFAULT_SAMPLE_SIZE = 256;
+    public static final int MAX_SAMPLE_SIZE = 10_000;
+
+    private static final ObjectSizer SIZER = ObjectSizer.forCurrentVm();
+    /**
+     * Node of a {@link java.util.concurrent.ConcurrentHashMap} or a set backed by one, and its share of the table,
+     * which is between a third and two thirds full.
+     */
+    public static final long HASH_MAP_ENTRY_BYTES = SIZER.shallowSize("java.util.concurrent.ConcurrentHashMap$Node", 32) + 2L * SIZER.reference();
+    /**
+     * Entry of a Guava cache with expiry and a size bound, and its share of the table.
+     */
+    public static final long CACHE_ENTRY_BYTES = SIZER.shallowSize("com.google.common.cache.LocalCache$StrongAccessWriteEntry", 56) + 2L * SIZER.reference();
+    public static final long REFERENCE_BYTES = SIZER.reference();
+
+    private final List<Registration> populations = new CopyOnWriteArrayList<>();
+    private final LongSupplier maxHeap;
+    private final LongSupplier usedHeap;
+
+    public MemoryCensus() {
+        this(Runtime.getRuntime()::maxMemory, () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    }
+
+    public MemoryCensus(LongSupplier maxHeap, LongSupplier usedHeap) {
+        this.maxHeap = requireNonNull(maxHeap);
+        this.usedHeap = requireNonNull(usedHeap);
+    }
+
+    public enum Entity {
+        ACCOUNT,
+        TRANSACTION,
+        /**
+         * Not counted towards the cost of an account or a transaction.
+         */
+        OTHER
+    }
+
+    public interface Population {
+        long size();
+
+        /**
+         * Hands over up to {@code limit} entries, best spread over the population, without blocking its writers.
+         */
+        void sample(int limit, Sample sample);
+    }
+
+    @FunctionalInterface
+    public interface Sample {
+        /**
+         * @param retained objects the entry alone keeps alive, along with everything reachable from them
+         */
+        void entry(Object... retained);
+    }
+
+    /**
+     * @param overheadBytes per entry cost of the structure holding the population, beyond what its entries retain
+     */
+    public void register(String name, Entity entity, long overheadBytes, Population population) {
+        populations.add(new Registration(requireNonNull(name), requireNonNull(entity), overheadBytes, requireNonNull(population)));
+    }
+
+    /**
+     * Cost of an account or a transaction is the sum over its populations divided by the largest of them, that being
+     * the repository itself. Transactions that fit are a forecast of the live set alone, the collector needs headroom
+     * on top of that.
+     */
+    public Report take(int sampleSize) {
+        if (sampleSize < 1 || sampleSize > MAX_SAMPLE_SIZE) {
+            throw new IllegalArgumentException("Sample size must be 1 to %s, got %s".formatted(MAX_SAMPLE_SIZE, sampleSize));
+        }
+        final var started = System.nanoTime();
+        final var reports = new ArrayList<PopulationReport>();
+        final var bytesByEntity = new EnumMap<Entity, Long>(Entity.class);
+        final var entriesByEntity = new EnumMap<Entity, Long>(Entity.class);
+        var total = 0L;
+        for (final var population : populations) {
+            final var report = population.census(sampleSize);
+            reports.add(report);
+            total += report.estimatedBytes();
+            bytesByEntity.merge(population.entity(), report.estimatedBytes(), Long::sum);
+            entriesByEntity.merge(population.entity(), report.entries(), Math::max);
+        }
+
+        final var bytesPerAccount = perEntry(bytesByEntity, entriesByEntity, Entity.ACCOUNT);
+        final var bytesPerTransaction = perEntry(bytesByEntity, entriesByEntity, Entity.TRANSACTION);
+        final var max = maxHeap.getAsLong();
+        final var estimatedBytes = total;
+        final var transactionCapacity = bytesPerTransaction
+            .filter(_ -> max != Long.MAX_VALUE && max > estimatedBytes)
+            .map(bytes -> entriesByEntity.get(Entity.TRANSACTION) + (max - estimatedBytes) / bytes);
+        return new Report(
+            List.copyOf(reports),
+            estimatedBytes,
+            bytesPerAccount,
+            bytesPerTransaction,
+            max,
+            usedHeap.getAsLong(),
+            transactionCapacity,
+            (System.nanoTime() - started) / 1000);
+    }
+
+    private static Optional<Long> perEntry(EnumMap<Entity, Long> bytes, EnumMap<Entity, Long> entries, Entity entity) {
+        final var count = entries.getOrDefault(entity, 0L);
+        return count == 0 ? Optional.empty() : Optional.of(Math.max(1, bytes.get(entity) / count));
+    }
+
+    /**
+     * @param transactionCapacity transactions the configured heap holds with everything else staying as it is, absent
+     *                            until there are transactions to measure
+     */
+    public record Report(List<PopulationReport> populations,
+                         long estimatedBytes,
+                         Optional<Long> bytesPerAccount,
+                         Optional<Long> bytesPerTransaction,
+                         long maxHeapBytes,
+                         long usedHeapBytes,
+                         Optional<Long> transactionCapacity,
+                         long tookMicros) {
+    }
+
+    public record PopulationReport(String name,
+                                   Entity entity,
+                                   long entries,
+                                   int sampled,
+                                   long bytesPerEntry,
+                                   long estimatedBytes) {
+    }
+
+    private record Registration(String name, Entity entity, long overheadBytes, Population population) {
+        PopulationReport census(int sampleSize) {
+            final var entries = population.size();
+            final var sampled = new int[1];
+            final var retained = new long[1];
+            population.sample(sampleSize, objects -> {
+                if (sampled[0] < sampleSize) {
+                    sampled[0]++;
+                    retained[0] += SIZER.deepSize(objects);
+                }
+            });
+            final var bytesPerEntry = overheadBytes + (sampled[0] == 0 ? 0 : retained[0] / sampled[0]);
+            return new PopulationReport(name, entity, entries, sampled[0], bytesPerEntry, entries * bytesPerEntry);
+        }
+    }
+}
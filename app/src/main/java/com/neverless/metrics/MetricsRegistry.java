@@ -0,0 +1,190 @@
+package com.neverless.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Process wide set of named metrics. Names follow Prometheus conventions, e.g. {@code neverless_snapshot_size_bytes}.
+ * Metrics of the same name may be registered under different labels, all of them then share the same kind and help.
+ */
+public class MetricsRegistry {
+    // timers are exposed as histograms with buckets at powers of two from about a microsecond to about a minute
+    private static final int MIN_BUCKET_EXPONENT = 10;
+    private static final int MAX_BUCKET_EXPONENT = 36;
+
+    // keyed by name followed by labels, so series of a metric sort next to each other
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public void gauge(String name, String help, DoubleSupplier value) {
+        register(new Gauge(name, help, "", requireNonNull(value)));
+    }
+
+    public Counter counter(String name, String help) {
+        final var counter = new Counter(name, help, "", new LongAdder());
+        register(counter);
+        return counter;
+    }
+
+    public Timer timer(String name, String help) {
+        return timer(name, help, Map.of());
+    }
+
+    /**
+     * @return timer reported as a histogram in seconds, name is expected to end with {@code _seconds}
+     */
+    public Timer timer(String name, String help, Map<String, String> labels) {
+        final var timer = new Timer(name, help, labels(labels));
+        register(timer);
+        return timer;
+    }
+
+    /**
+     * @return current value of every metric by name, timers are reported by count and percentiles in seconds
+     */
+    public Map<String, Double> values() {
+        final var result = new LinkedHashMap<String, Double>();
+        metrics.forEach((key, metric) -> {
+            if (metric instanceof Timer timer) {
+                final var snapshot = timer.snapshot();
+                result.put(timer.name() + "_count" + timer.labels(), (double) snapshot.count());
+                result.put(timer.name() + "_p50" + timer.labels(), seconds(snapshot.percentile(0.5)));
+                result.put(timer.name() + "_p99" + timer.labels(), seconds(snapshot.percentile(0.99)));
+                result.put(timer.name() + "_max" + timer.labels(), seconds(snapshot.percentile(1.0)));
+            } else {
+                result.put(key, metric.value());
+            }
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return every metric in Prometheus text exposition format, version 0.0.4
+     */
+    public String prometheusText() {
+        final var text = new StringBuilder();
+        String previous = null;
+        for (final var metric : metrics.values()) {
+            if (!metric.name().equals(previous)) {
+                previous = metric.name();
+                text.append("# HELP ").append(metric.name()).append(' ').append(escape(metric.help(), false)).append('\n');
+                text.append("# TYPE ").append(metric.name()).append(' ').append(switch (metric) {
+                    case Gauge _ -> "gauge";
+                    case Counter _ -> "counter";
+                    case Timer _ -> "histogram";
+                }).append('\n');
+            }
+            if (metric instanceof Timer timer) {
+                appendHistogram(timer, text);
+            } else {
+                text.append(metric.name()).append(metric.labels()).append(' ').append(number(metric.value())).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private void register(Metric metric) {
+        final var key = metric.name() + metric.labels();
+        if (metrics.putIfAbsent(key, metric) != null) {
+            throw new IllegalStateException("Metric %s is already registered".formatted(key));
+        }
+    }
+
+    private static void appendHistogram(Timer timer, StringBuilder text) {
+        final var snapshot = timer.snapshot();
+        for (var exponent = MIN_BUCKET_EXPONENT; exponent <= MAX_BUCKET_EXPONENT; exponent++) {
+            appendSample(text, timer.name() + "_bucket", withLabel(timer.labels(), "le", number(seconds(1L << exponent))),
+                snapshot.countBelowPowerOfTwo(exponent));
+        }
+        appendSample(text, timer.name() + "_bucket", withLabel(timer.labels(), "le", "+Inf"), snapshot.count());
+        text.append(timer.name()).append("_sum").append(timer.labels()).append(' ').append(number(seconds(snapshot.sumNanos()))).append('\n');
+        appendSample(text, timer.name() + "_count", timer.labels(), snapshot.count());
+    }
+
+    private static void appendSample(StringBuilder text, String name, String labels, long value) {
+        text.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(Map<String, String> labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        final var text = new StringBuilder("{");
+        new TreeMap<>(labels).forEach((name, value) -> {
+            if (text.length() > 1) {
+                text.append(',');
+            }
+            text.append(name).append("=\"").append(escape(value, true)).append('"');
+        });
+        return text.append('}').toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        final var label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value, boolean quoted) {
+        final var escaped = value.replace("\\", "\\\\").replace("\n", "\\n");
+        return quoted ? escaped.replace("\"", "\\\"") : escaped;
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    sealed interface Metric permits Gauge, Counter, Timer {
+        String name();
+
+        String help();
+
+        /**
+         * @return labels as written after the name in Prometheus format, empty when there are none
+         */
+        String labels();
+
+        double value();
+    }
+
+    record Gauge(String name, String help, String labels, DoubleSupplier supplier) implements Metric {
+        @Override
+        public double value() {
+            return supplier.getAsDouble();
+        }
+    }
+
+    public record Counter(String name, String help, String labels, LongAdder adder) implements Metric {
+        public void increment() {
+            adder.increment();
+        }
+
+        public void add(long delta) {
+            adder.add(delta);
+        }
+
+        public long count() {
+            return adder.sum();
+        }
+
+        @Override
+        public double value() {
+            return adder.sum();
+        }
+    }
+}
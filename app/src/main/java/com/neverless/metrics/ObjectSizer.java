@@ -0,0 +1,194 @@
+package com.neverless.metrics;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Estimates heap taken by object graphs from the HotSpot layout: a header, fields, padding to 8 bytes. Field packing
+ * is taken to leave no gaps, so sizes may come out a little low.
+ * <p>
+ * Graphs are walked through the fields of application classes. JDK classes don't open their fields to reflection, so
+ * they count as their shallow size, except for the few value types entities are made of, whose contents are derived
+ * from their public API: strings are taken to be Latin-1, as identifiers and addresses are.
+ */
+final class ObjectSizer {
+    private static final int ALIGNMENT = 8;
+
+    private final int header;
+    private final int reference;
+    private final ClassValue<Long> shallowSizes = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            return shallowSizeOf(type);
+        }
+    };
+    private final ClassValue<List<Field>> references = new ClassValue<>() {
+        @Override
+        protected List<Field> computeValue(Class<?> type) {
+            return referencesOf(type);
+        }
+    };
+
+    ObjectSizer(boolean compressedOops) {
+        // compressed class pointers are on by default wherever compressed oops are
+        this.header = compressedOops ? 12 : 16;
+        this.reference = compressedOops ? 4 : 8;
+    }
+
+    static ObjectSizer forCurrentVm() {
+        try {
+            final var option = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption("UseCompressedOops");
+            return new ObjectSizer(Boolean.parseBoolean(option.getValue()));
+        } catch (RuntimeException e) {
+            return new ObjectSizer(true);
+        }
+    }
+
+    int reference() {
+        return reference;
+    }
+
+    long shallowSize(Class<?> type) {
+        return shallowSizes.get(type);
+    }
+
+    /**
+     * @return shallow size of the named class, {@code fallback} when it isn't there
+     */
+    long shallowSize(String className, long fallback) {
+        try {
+            return shallowSize(Class.forName(className, false, ObjectSizer.class.getClassLoader()));
+        } catch (ClassNotFoundException | LinkageError e) {
+            return fallback;
+        }
+    }
+
+    long arraySize(int elementSize, long length) {
+        return align(header + Integer.BYTES + elementSize * length);
+    }
+
+    /**
+     * @return size of everything reachable from the roots, each object counted once; enums and classes are shared by
+     * everyone and count as nothing
+     */
+    long deepSize(Object... roots) {
+        final var seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final var pending = new ArrayDeque<>();
+        for (final var root : roots) {
+            if (root != null) {
+                pending.push(root);
+            }
+        }
+        var size = 0L;
+        while (!pending.isEmpty()) {
+            final var object = pending.pop();
+            if (object instanceof Enum<?> || object instanceof Class<?> || object == Optional.empty() || !seen.add(object)) {
+                continue;
+            }
+            final var type = object.getClass();
+            if (type.isArray()) {
+                size += arraySize(type.getComponentType(), object);
+                if (object instanceof Object[] elements) {
+                    for (final var element : elements) {
+                        if (element != null) {
+                            pending.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+            size += shallowSize(type);
+            size += contentsOf(object, pending);
+            for (final var field : references.get(type)) {
+                try {
+                    final var value = field.get(object);
+                    if (value != null) {
+                        pending.push(value);
+                    }
+                } catch (IllegalAccessException e) {
+                    // opened when the field was listed
+                }
+            }
+        }
+        return size;
+    }
+
+    private long arraySize(Class<?> component, Object array) {
+        return arraySize(component.isPrimitive() ? primitiveSize(component) : reference, Array.getLength(array));
+    }
+
+    /**
+     * @return size of what JDK value types hold beyond their own fields, pushing what should be walked further
+     */
+    private long contentsOf(Object object, ArrayDeque<Object> pending) {
+        return switch (object) {
+            case String string -> arraySize(Byte.BYTES, string.length());
+            case BigInteger integer -> arraySize(Integer.BYTES, integer.bitLength() / Integer.SIZE + 1);
+            case BigDecimal decimal -> {
+                // small ones keep the unscaled value in a long field
+                if (decimal.unscaledValue().bitLength() >= Long.SIZE - 1) {
+                    pending.push(decimal.unscaledValue());
+                }
+                yield 0;
+            }
+            case Optional<?> optional -> {
+                optional.ifPresent(pending::push);
+                yield 0;
+            }
+            default -> 0;
+        };
+    }
+
+    private long shallowSizeOf(Class<?> type) {
+        long size = header;
+        for (var current = type; current != null; current = current.getSuperclass()) {
+            for (final var field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += field.getType().isPrimitive() ? primitiveSize(field.getType()) : reference;
+                }
+            }
+        }
+        return align(size);
+    }
+
+    private static List<Field> referencesOf(Class<?> type) {
+        final var result = new ArrayList<Field>();
+        for (var current = type; current != null && !current.getModule().isNamed(); current = current.getSuperclass()) {
+            for (final var field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive() && field.trySetAccessible()) {
+                    result.add(field);
+                }
+            }
+        }
+        return List.copyOf(result);
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
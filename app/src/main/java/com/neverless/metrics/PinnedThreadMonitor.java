@@ -0,0 +1,58 @@
+package com.neverless.metrics;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Watches JFR for virtual threads that blocked while pinned to their carrier, typically inside {@code synchronized}
+ * or a native frame, for longer than the threshold. Each one is counted and logged with the stack that pinned it.
+ * <p>
+ * A pinned virtual thread holds a carrier for as long as it blocks, with only as many carriers as cores a handful of
+ * them is enough to stall every other virtual thread.
+ */
+public class PinnedThreadMonitor implements AutoCloseable {
+    public static final Duration DEFAULT_THRESHOLD = Duration.ofMillis(20);
+
+    private static final Logger log = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final RecordingStream stream;
+    private final MetricsRegistry.Counter pinned;
+
+    public PinnedThreadMonitor(MetricsRegistry metrics, Duration threshold) {
+        this.pinned = metrics.counter("neverless_virtual_thread_pinned_total", "Virtual threads blocked while pinned to their carrier");
+        this.stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(requireNonNull(threshold)).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+    }
+
+    public void start() {
+        stream.startAsync();
+    }
+
+    public long pinned() {
+        return pinned.count();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.increment();
+        log.warn("Virtual thread {} was pinned for {} ms at {}",
+            event.getThread() == null ? "unknown" : event.getThread().getJavaName(),
+            event.getDuration().toMillis(),
+            event.getStackTrace() == null ? "unknown stack" : event.getStackTrace().getFrames().stream()
+                .limit(10)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                .toList());
+    }
+}
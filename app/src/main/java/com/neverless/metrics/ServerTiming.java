@@ -0,0 +1,111 @@
+package com.neverless.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Where the time of the request being served on the current thread went, by stage, as reported in the
+ * {@code Server-Timing} response header. Stages are recorded from wherever the work happens; outside of a request, or
+ * on other threads, recording does nothing. Stages may nest, e.g. a lock wait is also part of the ledger command
+ * waiting for it, and a stage recorded more than once adds up.
+ */
+public final class ServerTiming {
+    private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+    private static final int MAX_STAGES = 16;
+
+    private final LongSupplier nanoClock;
+    private final long started;
+    private final String[] stages = new String[MAX_STAGES];
+    private final long[] nanos = new long[MAX_STAGES];
+    private int size;
+
+    ServerTiming(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.started = nanoClock.getAsLong();
+    }
+
+    /**
+     * Starts timing a request on the current thread, replacing whatever was left over from a previous one.
+     */
+    public static ServerTiming start() {
+        final var timing = new ServerTiming(System::nanoTime);
+        CURRENT.set(timing);
+        return timing;
+    }
+
+    /**
+     * @return whether the current thread is timing a request, lets callers skip reading the clock when not
+     */
+    public static boolean active() {
+        return CURRENT.get() != null;
+    }
+
+    public static void record(String stage, long nanos) {
+        final var timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(stage, nanos);
+        }
+    }
+
+    /**
+     * Stops timing on the current thread.
+     *
+     * @return nanos since the start
+     */
+    public long finish() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        return elapsed();
+    }
+
+    public long elapsed() {
+        return nanoClock.getAsLong() - started;
+    }
+
+    /**
+     * @return stages followed by {@code total}, durations in milliseconds, e.g.
+     * {@code parse;dur=0.041, ledger;dur=1.203, total;dur=1.754}
+     */
+    public String header(long totalNanos) {
+        final var header = new StringBuilder();
+        stages().forEach((stage, millis) -> header.append(stage).append(";dur=").append(millis).append(", "));
+        return header.append("total;dur=").append(millis(totalNanos)).toString();
+    }
+
+    /**
+     * @return milliseconds spent in every stage, in the order stages were first recorded
+     */
+    public Map<String, String> stages() {
+        final var result = new LinkedHashMap<String, String>();
+        for (var i = 0; i < size; i++) {
+            result.put(stages[i], millis(nanos[i]));
+        }
+        return result;
+    }
+
+    void add(String stage, long duration) {
+        for (var i = 0; i < size; i++) {
+            if (stages[i].equals(stage)) {
+                nanos[i] += duration;
+                return;
+            }
+        }
+        // a request going through more stages than that is a bug, the rest is left out rather than grown into
+        if (size < MAX_STAGES) {
+            stages[size] = stage;
+            nanos[size++] = duration;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServerTiming" + Arrays.toString(Arrays.copyOf(stages, size));
+    }
+
+    private static String millis(long nanos) {
+        return "%.3f".formatted(nanos / 1e6);
+    }
+}
@@ -0,0 +1,150 @@
+package com.neverless.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets, HDR style with two significant bits: every power of
+ * two is split into four buckets, so percentiles, reported as the upper bound of their bucket, overestimate by at most
+ * a quarter.
+ * <p>
+ * Recording is an atomic increment and an atomic add, with no locks and no allocation. Writers are spread over stripes
+ * by thread id so that threads recording at once rarely share a cache line, and stripes are only summed up when the
+ * timer is read. Stripes rather than thread locals, as request threads are virtual and live for one request each.
+ */
+public final class Timer implements MetricsRegistry.Metric {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    // bucket counts, then the sum of durations, then padding keeping the next stripe off this one's cache lines
+    private static final int SUM = BUCKETS;
+    private static final int STRIDE = BUCKETS + 16;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+
+    private final String name;
+    private final String help;
+    private final String labels;
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * STRIDE);
+
+    Timer(String name, String help, String labels) {
+        this.name = requireNonNull(name);
+        this.help = requireNonNull(help);
+        this.labels = requireNonNull(labels);
+    }
+
+    public void record(long nanos) {
+        final var duration = Math.max(nanos, 0);
+        final var stripe = stripe() * STRIDE;
+        stripes.getAndIncrement(stripe + bucket(duration));
+        stripes.getAndAdd(stripe + SUM, duration);
+    }
+
+    /**
+     * Records the time since {@code startedNanos}, taken from {@link System#nanoTime()}.
+     */
+    public void recordSince(long startedNanos) {
+        record(System.nanoTime() - startedNanos);
+    }
+
+    public Snapshot snapshot() {
+        final var counts = new long[BUCKETS];
+        var count = 0L;
+        var sum = 0L;
+        for (var stripe = 0; stripe < STRIPES; stripe++) {
+            final var offset = stripe * STRIDE;
+            for (var i = 0; i < BUCKETS; i++) {
+                final var bucketCount = stripes.get(offset + i);
+                counts[i] += bucketCount;
+                count += bucketCount;
+            }
+            sum += stripes.get(offset + SUM);
+        }
+        return new Snapshot(counts, count, sum);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String help() {
+        return help;
+    }
+
+    @Override
+    public String labels() {
+        return labels;
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    @Override
+    public double value() {
+        return snapshot().count();
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        final var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return least duration above the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        final var shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift;
+    }
+
+    private static int stripe() {
+        return (int) ((Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * Counts at the time of reading, stripes written meanwhile may be only partly seen.
+     */
+    public record Snapshot(long[] counts, long count, long sumNanos) {
+        /**
+         * @param percentile between 0 and 1
+         * @return upper bound of the bucket holding it, 0 when nothing was recorded
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final var rank = Math.max(1, (long) Math.ceil(count * percentile));
+            var seen = 0L;
+            for (var i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return durations recorded below {@code 2^exponent} ns
+         */
+        public long countBelowPowerOfTwo(int exponent) {
+            final var end = Math.min(bucket(1L << exponent), BUCKETS);
+            var result = 0L;
+            for (var i = 0; i < end; i++) {
+                result += counts[i];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Pending transaction completed or failed by {@link com.neverless.service.TransactionFinalizer}.
+ */
+@Name("com.neverless.Finalization")
+@Label("Finalization")
+@Category({"Neverless", "Ledger"})
+@StackTrace(false)
+public class FinalizationEvent extends Event {
+    @Label("Transaction")
+    public String transaction;
+
+    @Label("Outcome")
+    public String outcome;
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lockWait;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
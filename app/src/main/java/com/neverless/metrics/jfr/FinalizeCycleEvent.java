@@ -0,0 +1,19 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Run of {@link com.neverless.service.WithdrawalFinalizeJob} over the withdrawals due for a check.
+ */
+@Name("com.neverless.FinalizeCycle")
+@Label("Finalize Cycle")
+@Category({"Neverless", "Ledger"})
+@StackTrace(false)
+public class FinalizeCycleEvent extends Event {
+    @Label("Withdrawals Checked")
+    public int checked;
+}
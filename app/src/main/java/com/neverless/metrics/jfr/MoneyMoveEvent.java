@@ -0,0 +1,36 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Money moved between two accounts by {@link com.neverless.service.MoneyMover}, lasting from the call until its
+ * transaction is recorded or the move is refused.
+ */
+@Name("com.neverless.MoneyMove")
+@Label("Money Move")
+@Category({"Neverless", "Ledger"})
+@StackTrace(false)
+public class MoneyMoveEvent extends Event {
+    @Label("From Account")
+    public String fromAccount;
+
+    @Label("To Account")
+    public String toAccount;
+
+    @Label("Amount")
+    @Description("In minor units")
+    public long amount;
+
+    @Label("Lock Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long lockWait;
+
+    @Label("Succeeded")
+    public boolean succeeded;
+}
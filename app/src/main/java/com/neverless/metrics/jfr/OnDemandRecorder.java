@@ -0,0 +1,73 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Takes flight recordings of the application's events together with the JDK's CPU, allocation and lock profiling,
+ * one at a time and bounded in length and size. Outside of a recording the application's events are disabled and cost
+ * next to nothing.
+ */
+public class OnDemandRecorder {
+    public static final Duration MAX_DURATION = Duration.ofMinutes(5);
+    public static final long MAX_SIZE_BYTES = 256L << 20;
+
+    private static final List<Class<? extends Event>> EVENTS = List.of(
+        MoneyMoveEvent.class,
+        FinalizationEvent.class,
+        ProviderCallEvent.class,
+        FinalizeCycleEvent.class);
+
+    private final AtomicBoolean recording = new AtomicBoolean();
+
+    /**
+     * Records for the given duration on the calling thread.
+     *
+     * @return the recording, its file is deleted once the stream is closed; empty while another recording is taken
+     */
+    public Optional<InputStream> record(Duration duration) {
+        if (!duration.isPositive() || duration.compareTo(MAX_DURATION) > 0) {
+            throw new IllegalArgumentException("Recording must last more than zero and at most %s, got %s".formatted(MAX_DURATION, duration));
+        }
+        if (!recording.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+        try (var jfr = new Recording()) {
+            jfr.setName("neverless-on-demand");
+            jfr.setMaxSize(MAX_SIZE_BYTES);
+            EVENTS.forEach(jfr::enable);
+            jfr.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(20));
+            jfr.enable("jdk.ObjectAllocationSample").with("throttle", "150/s").withStackTrace();
+            jfr.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ofMillis(10)).withStackTrace();
+            jfr.enable("jdk.JavaMonitorWait").withThreshold(Duration.ofMillis(10)).withStackTrace();
+            jfr.enable("jdk.ThreadPark").withThreshold(Duration.ofMillis(10)).withStackTrace();
+            jfr.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(20)).withStackTrace();
+            jfr.enable("jdk.GarbageCollection");
+
+            jfr.start();
+            Thread.sleep(duration);
+            jfr.stop();
+
+            final var file = Files.createTempFile("neverless-", ".jfr");
+            jfr.dump(file);
+            return Optional.of(Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while recording", e);
+        } finally {
+            recording.set(false);
+        }
+    }
+}
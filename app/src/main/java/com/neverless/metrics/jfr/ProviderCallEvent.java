@@ -0,0 +1,25 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Call answered by the withdrawal provider, or failed by it.
+ */
+@Name("com.neverless.ProviderCall")
+@Label("Provider Call")
+@Category({"Neverless", "Provider"})
+@StackTrace(false)
+public class ProviderCallEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Withdrawal")
+    public String withdrawal;
+
+    @Label("Result")
+    public String result;
+}
@@ -0,0 +1,19 @@
+package com.neverless.resources;
+
+import com.neverless.service.LockManager;
+import io.javalin.http.Context;
+
+public class Locks {
+    private static final int DEFAULT_TOP = 20;
+
+    private final LockManager lockManager;
+
+    public Locks(LockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+    public void get(Context context) {
+        final var top = context.queryParamAsClass("top", Integer.class).getOrDefault(DEFAULT_TOP);
+        context.json(lockManager.report(top));
+    }
+}
@@ -0,0 +1,20 @@
+package com.neverless.resources;
+
+import com.neverless.metrics.MemoryCensus;
+import io.javalin.http.Context;
+
+public class Memory {
+    private final MemoryCensus census;
+
+    public Memory(MemoryCensus census) {
+        this.census = census;
+    }
+
+    /**
+     * Cheap enough to poll every minute, {@code sample} trades cost for accuracy.
+     */
+    public void get(Context context) {
+        final var sample = context.queryParamAsClass("sample", Integer.class).getOrDefault(MemoryCensus.DEFAULT_SAMPLE_SIZE);
+        context.json(census.take(sample));
+    }
+}
@@ -0,0 +1,16 @@
+package com.neverless.resources;
+
+import com.neverless.metrics.MetricsRegistry;
+import io.javalin.http.Context;
+
+public class Metrics {
+    private final MetricsRegistry metricsRegistry;
+
+    public Metrics(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void get(Context context) {
+        context.json(metricsRegistry.values());
+    }
+}
@@ -0,0 +1,19 @@
+package com.neverless.resources;
+
+import com.neverless.metrics.MetricsRegistry;
+import io.javalin.http.Context;
+
+public class PrometheusMetrics {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metricsRegistry;
+
+    public PrometheusMetrics(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void get(Context context) {
+        context.contentType(CONTENT_TYPE);
+        context.result(metricsRegistry.prometheusText());
+    }
+}
@@ -0,0 +1,49 @@
+package com.neverless.resources;
+
+import com.neverless.service.LagTrackingLedger;
+import io.javalin.http.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells the load balancer whether to keep sending traffic: unlike {@link Healthcheck}, which only says the process is
+ * up, this one reports degraded with 503 once finalization of withdrawals falls behind, before users see delays grow.
+ */
+public class Readiness {
+    private final LagTrackingLedger finalizationLag;
+    private final Duration maxPendingAge;
+    private final int maxPending;
+
+    public Readiness(LagTrackingLedger finalizationLag, Duration maxPendingAge, int maxPending) {
+        this.finalizationLag = finalizationLag;
+        this.maxPendingAge = maxPendingAge;
+        this.maxPending = maxPending;
+    }
+
+    public void check(Context context) {
+        final var lag = finalizationLag.lag();
+        final var reasons = new ArrayList<String>();
+        if (lag.oldestPending().compareTo(maxPendingAge) > 0) {
+            reasons.add("Oldest pending withdrawal is %s s old, more than %s s".formatted(lag.oldestPending().toSeconds(), maxPendingAge.toSeconds()));
+        }
+        if (lag.pending() > maxPending) {
+            reasons.add("%s withdrawals pending, more than %s".formatted(lag.pending(), maxPending));
+        }
+        context.status(reasons.isEmpty() ? 200 : 503);
+        context.json(new ReadinessResponse(
+            reasons.isEmpty() ? "READY" : "DEGRADED",
+            lag.oldestPending().toMillis(),
+            lag.pending(),
+            lag.finalizedLastCycle(),
+            reasons));
+    }
+
+    record ReadinessResponse(String status,
+                             long oldestPendingMillis,
+                             int pending,
+                             long finalizedLastCycle,
+                             List<String> reasons) {
+    }
+}
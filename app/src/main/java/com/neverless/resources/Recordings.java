@@ -0,0 +1,33 @@
+package com.neverless.resources;
+
+import com.neverless.metrics.jfr.OnDemandRecorder;
+import io.javalin.http.Context;
+
+import java.time.Duration;
+import java.time.Instant;
+
+public class Recordings {
+    private static final long DEFAULT_SECONDS = 30;
+
+    private final OnDemandRecorder recorder;
+
+    public Recordings(OnDemandRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Answers once the recording is over, with the {@code .jfr} file to open in JDK Mission Control or {@code jfr}.
+     */
+    public void record(Context context) {
+        final var seconds = context.queryParamAsClass("seconds", Long.class).getOrDefault(DEFAULT_SECONDS);
+        final var recording = recorder.record(Duration.ofSeconds(seconds));
+        if (recording.isEmpty()) {
+            context.status(409);
+            context.json(new ErrorResponse("Another recording is in progress"));
+            return;
+        }
+        context.contentType("application/octet-stream");
+        context.header("Content-Disposition", "attachment; filename=\"neverless-%s.jfr\"".formatted(Instant.now().getEpochSecond()));
+        context.result(recording.get());
+    }
+}
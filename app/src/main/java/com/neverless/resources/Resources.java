@@ -3,38 +3,79 @@ package com.neverless.resources;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.neverless.domain.account.AccountRepository;
 import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.exceptions.LockTimeoutException;
 import com.neverless.exceptions.NotFoundException;
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.jfr.OnDemandRecorder;
+import com.neverless.service.LagTrackingLedger;
+import com.neverless.service.LockManager;
 import com.neverless.service.WithdrawalHandler;
 import com.neverless.service.WithdrawalStateChecker;
 import io.javalin.http.Context;
 import io.javalin.router.JavalinDefaultRouting;
 
+import java.time.Duration;
 import java.util.UUID;
 
 public class Resources {
     private final Healthcheck healthcheck;
+    private final Readiness readiness;
     private final Accounts accounts;
     private final Withdrawals withdrawals;
+    private final Metrics metrics;
+    private final PrometheusMetrics prometheusMetrics;
+    private final RouteTimings routeTimings;
+    private final Locks locks;
+    private final Recordings recordings;
+    private final Memory memory;
 
     public Resources(AccountRepository accountRepo,
                      WithdrawalStateChecker withdrawalStateChecker,
-                     WithdrawalHandler withdrawalHandler) {
+                     WithdrawalHandler withdrawalHandler,
+                     MetricsRegistry metricsRegistry,
+                     MemoryCensus memoryCensus,
+                     LockManager lockManager,
+                     Duration providerTimeout,
+                     double serverTimingLogSampleRate,
+                     LagTrackingLedger finalizationLag,
+                     Duration maxPendingAge,
+                     int maxPending) {
         healthcheck = new Healthcheck();
+        readiness = new Readiness(finalizationLag, maxPendingAge, maxPending);
         accounts = new Accounts(accountRepo);
-        withdrawals = new Withdrawals(withdrawalStateChecker, withdrawalHandler);
+        withdrawals = new Withdrawals(withdrawalStateChecker, withdrawalHandler, providerTimeout);
+        metrics = new Metrics(metricsRegistry);
+        prometheusMetrics = new PrometheusMetrics(metricsRegistry);
+        routeTimings = new RouteTimings(metricsRegistry, serverTimingLogSampleRate);
+        locks = new Locks(lockManager);
+        recordings = new Recordings(new OnDemandRecorder());
+        memory = new Memory(memoryCensus);
     }
 
     public void register(JavalinDefaultRouting router) {
+        router.before(routeTimings::start);
+        router.after(routeTimings::record);
+
         router.exception(NotFoundException.class, (ex, ctx) -> handleError(404, ex, ctx));
         router.exception(InsufficientBalanceException.class, (ex, ctx) -> handleError(400, ex, ctx));
         router.exception(IllegalArgumentException.class, (ex, ctx) -> handleError(400, ex, ctx));
         router.exception(JsonParseException.class, (ex, ctx) -> handleError(400, ex, ctx));
+        router.exception(LockTimeoutException.class, (ex, ctx) -> handleError(503, ex, ctx));
+        router.exception(ProviderUnavailableException.class, (ex, ctx) -> handleError(503, ex, ctx));
 
         router.get("/accounts/{id}", accounts::get);
         router.post("/withdrawal", withdrawals::withdrawMoney);
         router.get("/withdrawal/{id}/state", withdrawals::getState);
 
         router.get("/healthcheck", healthcheck::check);
+        router.get("/readiness", readiness::check);
+        router.get("/metrics", prometheusMetrics::get);
+        router.get("/admin/metrics", metrics::get);
+        router.get("/admin/locks", locks::get);
+        router.post("/admin/jfr", recordings::record);
+        router.get("/admin/memory", memory::get);
     }
 
     private void handleError(int status, Exception e, Context context) {
@@ -0,0 +1,100 @@
+package com.neverless.resources;
+
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.ServerTiming;
+import com.neverless.metrics.Timer;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Times every request by method, route and status. Routes are the registered paths, e.g. {@code /withdrawal/{id}/state},
+ * and requests matching none of them share one, so the number of timers stays bounded.
+ * <p>
+ * Every response also tells where its time went in a {@value #SERVER_TIMING_HEADER} header, by the stages recorded into
+ * the request's {@link ServerTiming}, and a sampled share of requests logs the same breakdown as one line.
+ */
+public class RouteTimings {
+    static final String METRIC = "neverless_http_request_seconds";
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+    private static final Logger log = LoggerFactory.getLogger(RouteTimings.class);
+    private static final String TIMING = RouteTimings.class.getName() + ".timing";
+    private static final String UNMATCHED = "unmatched";
+    private static final int STATUSES = 600;
+
+    private final MetricsRegistry metricsRegistry;
+    private final double logSampleRate;
+    private final Map<HandlerType, ConcurrentMap<String, AtomicReferenceArray<Timer>>> timers = new EnumMap<>(HandlerType.class);
+
+    public RouteTimings(MetricsRegistry metricsRegistry) {
+        this(metricsRegistry, 0);
+    }
+
+    /**
+     * @param logSampleRate share of requests whose timing breakdown is logged, between 0 and 1
+     */
+    public RouteTimings(MetricsRegistry metricsRegistry, double logSampleRate) {
+        this.metricsRegistry = metricsRegistry;
+        this.logSampleRate = logSampleRate;
+        for (final var method : HandlerType.values()) {
+            timers.put(method, new ConcurrentHashMap<>());
+        }
+    }
+
+    public void start(Context context) {
+        context.attribute(TIMING, ServerTiming.start());
+    }
+
+    public void record(Context context) {
+        final ServerTiming timing = context.attribute(TIMING);
+        if (timing == null) {
+            return;
+        }
+        final var elapsed = timing.finish();
+        final var route = route(context);
+        timer(context.method(), route, context.statusCode()).record(elapsed);
+        context.header(SERVER_TIMING_HEADER, timing.header(elapsed));
+        if (logSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < logSampleRate) {
+            log(context, route, timing, elapsed);
+        }
+    }
+
+    private static void log(Context context, String route, ServerTiming timing, long elapsed) {
+        final var line = new StringBuilder()
+            .append("method=").append(context.method().name())
+            .append(" route=").append(route)
+            .append(" status=").append(context.statusCode());
+        timing.stages().forEach((stage, millis) -> line.append(' ').append(stage).append("_ms=").append(millis));
+        log.info("server_timing {} total_ms={}", line, "%.3f".formatted(elapsed / 1e6));
+    }
+
+    private Timer timer(HandlerType method, String route, int status) {
+        final var byStatus = timers.get(method).computeIfAbsent(route, _ -> new AtomicReferenceArray<>(STATUSES));
+        final var index = status >= 0 && status < STATUSES ? status : 0;
+        final var timer = byStatus.get(index);
+        if (timer != null) {
+            return timer;
+        }
+        synchronized (byStatus) {
+            if (byStatus.get(index) == null) {
+                byStatus.set(index, metricsRegistry.timer(METRIC, "Time taken to serve HTTP requests",
+                    Map.of("method", method.name(), "route", route, "status", Integer.toString(status))));
+            }
+            return byStatus.get(index);
+        }
+    }
+
+    private static String route(Context context) {
+        // without a match Javalin reports a description in place of the path
+        final var route = context.endpointHandlerPath();
+        return route.startsWith("/") ? route : UNMATCHED;
+    }
+}
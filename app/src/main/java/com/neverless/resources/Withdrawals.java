@@ -4,36 +4,57 @@ import com.neverless.domain.account.ExternalAddress;
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.transaction.TransactionId;
+import com.neverless.integration.RequestDeadline;
+import com.neverless.metrics.ServerTiming;
 import com.neverless.service.WithdrawalHandler;
 import com.neverless.service.WithdrawalStateChecker;
 import io.javalin.http.Context;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 
 public class Withdrawals {
+    /**
+     * Milliseconds the client is willing to wait, capped at the configured timeout.
+     */
+    static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+    /**
+     * Makes retries of a withdrawal with the same key return the original one instead of withdrawing again.
+     */
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     private final WithdrawalStateChecker withdrawalStateChecker;
     private final WithdrawalHandler withdrawalHandler;
+    private final Duration providerTimeout;
 
+    /**
+     * @param providerTimeout how long a request waits for the withdrawal provider at most
+     */
     public Withdrawals(WithdrawalStateChecker withdrawalStateChecker,
-                       WithdrawalHandler withdrawalHandler) {
+                       WithdrawalHandler withdrawalHandler,
+                       Duration providerTimeout) {
         this.withdrawalStateChecker = withdrawalStateChecker;
         this.withdrawalHandler = withdrawalHandler;
+        this.providerTimeout = providerTimeout;
     }
 
     public void withdrawMoney(Context context) {
+        final var parseStarted = System.nanoTime();
         final var body = context.bodyAsClass(WithdrawalRequest.class);
+        ServerTiming.record("parse", System.nanoTime() - parseStarted);
+        final var idempotencyKey = context.header(IDEMPOTENCY_KEY_HEADER);
 
-        final var result = withdrawalHandler.withdraw(
-            new Money(body.amount),
-            body.fromAccount,
-            body.toAddress);
+        final var result = idempotencyKey == null
+            ? withdrawalHandler.withdraw(new Money(body.amount), body.fromAccount, body.toAddress)
+            : withdrawalHandler.withdraw(validIdempotencyKey(idempotencyKey), new Money(body.amount), body.fromAccount, body.toAddress);
         context.status(201);
         context.json(new WithdrawalResponse(result.value().toString()));
     }
 
     public void getState(Context context) {
         final var id = parseTransactionId(context);
-        final var state = withdrawalStateChecker.checkWithdrawState(id);
+        final var state = RequestDeadline.within(timeout(context), () -> withdrawalStateChecker.withdrawalState(id));
 
         if (state.isEmpty()) {
             context.status(404);
@@ -44,21 +65,40 @@ public class Withdrawals {
         context.status(200);
     }
 
+    private Duration timeout(Context context) {
+        final var requested = context.header(TIMEOUT_HEADER);
+        if (requested == null) {
+            return providerTimeout;
+        }
+        final var timeout = Duration.ofMillis(Long.parseLong(requested));
+        if (!timeout.isPositive()) {
+            throw new IllegalArgumentException("%s must be positive".formatted(TIMEOUT_HEADER));
+        }
+        return timeout.compareTo(providerTimeout) < 0 ? timeout : providerTimeout;
+    }
+
+    private static String validIdempotencyKey(String key) {
+        if (key.isBlank() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new IllegalArgumentException("%s must be 1 to %s characters long".formatted(IDEMPOTENCY_KEY_HEADER, MAX_IDEMPOTENCY_KEY_LENGTH));
+        }
+        return key;
+    }
+
     private TransactionId parseTransactionId(Context context) {
         return TransactionId.fromString(context.pathParam("id"));
     }
 
-    private record WithdrawalRequest(BigDecimal amount,
-                                     AccountId fromAccount,
-                                     ExternalAddress toAddress) {
+    record WithdrawalRequest(BigDecimal amount,
+                             AccountId fromAccount,
+                             ExternalAddress toAddress) {
 
     }
 
-    private record WithdrawalResponse(String id) {
+    record WithdrawalResponse(String id) {
 
     }
 
-    private record WithdrawalStateResponse(String state) {
+    record WithdrawalStateResponse(String state) {
 
     }
 }
@@ -0,0 +1,225 @@
+package com.neverless.service;
+
+import com.neverless.integration.RequestDeadline;
+import com.neverless.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hedges idempotent calls against a slow tail: a call that hasn't returned after the given percentile of recent
+ * latencies is made a second time, and whichever answers first wins. The other one is left to finish on its own.
+ * <p>
+ * The hedge delay is taken from the latencies of the previous {@code window}, and there's none until a window has seen
+ * {@value #MIN_SAMPLES} calls. Hedges are paid for from a budget: every call earns {@code budget} of a hedge, so no
+ * more than that share of calls is ever hedged, bursts included beyond {@value #MAX_SAVED_HEDGES} saved up hedges.
+ * <p>
+ * Latencies are recorded twice: as they'd have been without hedging, i.e. of the first call, and as answered, the gap
+ * between their p99s is what hedging saves.
+ */
+public class Hedger {
+    static final int MIN_SAMPLES = 100;
+    private static final long MAX_SAVED_HEDGES = 10;
+    // budget is kept in millionths of a hedge
+    private static final long HEDGE = 1_000_000;
+
+    private final double percentile;
+    private final long earnedPerCall;
+    private final long windowNanos;
+    private final Executor executor;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong budget = new AtomicLong();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LatencyHistogram unhedged = new LatencyHistogram();
+    private final LatencyHistogram answered = new LatencyHistogram();
+    private final AtomicReference<Window> window;
+    private volatile long delayNanos = Long.MAX_VALUE;
+
+    public Hedger(double percentile, double budget, Executor executor) {
+        this(percentile, budget, Duration.ofMinutes(1), executor, System::nanoTime);
+    }
+
+    /**
+     * @param percentile of recent latencies after which a call is hedged, between 0 and 1
+     * @param budget     largest share of calls hedged, zero disables hedging and calls run on the caller's thread
+     */
+    public Hedger(double percentile, double budget, Duration window, Executor executor, LongSupplier nanoClock) {
+        if (percentile <= 0 || percentile >= 1 || budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("Hedging needs 0 < percentile < 1 and 0 <= budget <= 1, got %s and %s".formatted(percentile, budget));
+        }
+        this.percentile = percentile;
+        this.earnedPerCall = (long) (budget * HEDGE);
+        this.windowNanos = window.toNanos();
+        this.executor = requireNonNull(executor);
+        this.nanoClock = requireNonNull(nanoClock);
+        this.window = new AtomicReference<>(new Window(nanoClock.getAsLong()));
+    }
+
+    /**
+     * Never hedges, calls run on the caller's thread.
+     */
+    public static Hedger none() {
+        return new Hedger(0.5, 0, Runnable::run);
+    }
+
+    public <T> T call(Supplier<T> call) {
+        calls.increment();
+        final var started = nanoClock.getAsLong();
+        if (earnedPerCall == 0) {
+            try {
+                return call.get();
+            } finally {
+                final var finished = nanoClock.getAsLong();
+                record(started, finished);
+                answered.record(finished - started);
+            }
+        }
+        earn();
+
+        final var first = CompletableFuture.supplyAsync(RequestDeadline.propagated(call), executor);
+        first.whenComplete((_, _) -> record(started, nanoClock.getAsLong()));
+        final var delay = delayNanos;
+        try {
+            if (delay == Long.MAX_VALUE) {
+                return await(first);
+            }
+            try {
+                return first.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (!spend()) {
+                    return await(first);
+                }
+            } catch (ExecutionException e) {
+                throw unwrap(e.getCause());
+            }
+
+            hedges.increment();
+            final var second = CompletableFuture.supplyAsync(RequestDeadline.propagated(call), executor);
+            return await(firstSuccessful(first, second));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for hedged call", e);
+        } finally {
+            answered.record(nanoClock.getAsLong() - started);
+        }
+    }
+
+    /**
+     * @return hedged share of calls
+     */
+    public double hedgeRate() {
+        final var total = calls.sum();
+        return total == 0 ? 0 : (double) hedges.sum() / total;
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return p99 latency the calls would have had without hedging, in nanos
+     */
+    public long unhedgedP99Nanos() {
+        return unhedged.percentile(0.99);
+    }
+
+    /**
+     * @return p99 latency the calls were answered in, in nanos
+     */
+    public long answeredP99Nanos() {
+        return answered.percentile(0.99);
+    }
+
+    /**
+     * @return current hedge delay, zero until enough latencies are seen
+     */
+    public Duration delay() {
+        final var delay = delayNanos;
+        return delay == Long.MAX_VALUE ? Duration.ZERO : Duration.ofNanos(delay);
+    }
+
+    private void record(long started, long finished) {
+        final var latency = finished - started;
+        unhedged.record(latency);
+        var current = window.get();
+        if (finished - current.started >= windowNanos) {
+            if (window.compareAndSet(current, new Window(finished))) {
+                delayNanos = current.latencies.count() >= MIN_SAMPLES ? current.latencies.percentile(percentile) : Long.MAX_VALUE;
+            }
+            current = window.get();
+        }
+        current.latencies.record(latency);
+    }
+
+    private void earn() {
+        budget.getAndUpdate(saved -> Math.min(saved + earnedPerCall, MAX_SAVED_HEDGES * HEDGE));
+    }
+
+    private boolean spend() {
+        var saved = budget.get();
+        while (saved >= HEDGE) {
+            if (budget.compareAndSet(saved, saved - HEDGE)) {
+                return true;
+            }
+            saved = budget.get();
+        }
+        return false;
+    }
+
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        final var result = new CompletableFuture<T>();
+        final var failures = new AtomicLong();
+        final BiConsumer<T, Throwable> settle = (value, failure) -> {
+            if (failure == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(failure);
+            }
+        };
+        first.whenComplete(settle);
+        second.whenComplete(settle);
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException("Hedged call failed", cause);
+    }
+
+    /**
+     * Latencies of calls that finished since {@code started}.
+     */
+    private record Window(long started, LatencyHistogram latencies) {
+        private Window(long started) {
+            this(started, new LatencyHistogram());
+        }
+    }
+}
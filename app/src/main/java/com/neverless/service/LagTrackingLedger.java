@@ -0,0 +1,142 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.Timer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps track of how far finalization of withdrawals lags behind, from the commands of the ledger it wraps: a
+ * withdrawal is pending from the moment its transaction is recorded until it's completed or failed. Pending ones are
+ * kept ordered by age, so the oldest is always at hand without looking at the repository.
+ * <p>
+ * Withdrawals found pending on startup are of unknown age, they count as requested on startup and are left out of
+ * the request to finalization times.
+ */
+public class LagTrackingLedger implements Ledger {
+    private final Ledger ledger;
+    private final LongSupplier nanoClock;
+    private final Timer finalizationTimes;
+
+    private final Map<TransactionId, Pending> pending = new ConcurrentHashMap<>();
+    private final NavigableSet<Pending> byAge = new ConcurrentSkipListSet<>(
+        Comparator.comparingLong(Pending::requestedAt).thenComparingLong(Pending::sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder finalized = new LongAdder();
+    private volatile long finalizedBeforeCycle;
+    private volatile long finalizedLastCycle;
+
+    public LagTrackingLedger(Ledger ledger, MetricsRegistry metrics) {
+        this(ledger, metrics, System::nanoTime);
+    }
+
+    public LagTrackingLedger(Ledger ledger, MetricsRegistry metrics, LongSupplier nanoClock) {
+        this.ledger = requireNonNull(ledger);
+        this.nanoClock = requireNonNull(nanoClock);
+        this.finalizationTimes = metrics.timer("neverless_withdrawal_finalization_seconds", "Time from recording a withdrawal to completing or failing it");
+        metrics.gauge("neverless_withdrawals_pending", "Withdrawals recorded but not yet finalized", pending::size);
+        metrics.gauge("neverless_withdrawal_oldest_pending_seconds", "Age of the oldest withdrawal not yet finalized", () -> lag().oldestPending().toNanos() / 1e9);
+        metrics.gauge("neverless_withdrawals_finalized_total", "Withdrawals completed or failed", finalized::sum);
+        metrics.gauge("neverless_finalize_last_cycle_finalized", "Withdrawals finalized between the last two runs of the finalize job", () -> finalizedLastCycle);
+    }
+
+    /**
+     * Starts tracking withdrawals found pending on startup.
+     */
+    public void recover(Collection<TransactionId> ids) {
+        final var now = nanoClock.getAsLong();
+        ids.forEach(id -> track(id, now, false));
+    }
+
+    @Override
+    public TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        final var requestedAt = nanoClock.getAsLong();
+        final var moved = ledger.moveMoney(id, from, to, amount, externalRef);
+        if (externalRef.isPresent()) {
+            track(moved, requestedAt, true);
+        }
+        return moved;
+    }
+
+    @Override
+    public void addMoney(AccountId id, Money amount) {
+        ledger.addMoney(id, amount);
+    }
+
+    @Override
+    public void complete(TransactionId id) {
+        ledger.complete(id);
+        finalized(id);
+    }
+
+    @Override
+    public void fail(TransactionId id) {
+        ledger.fail(id);
+        finalized(id);
+    }
+
+    /**
+     * Closes a run of the finalize job, withdrawals finalized since the previous call count towards it.
+     */
+    public void cycleFinished() {
+        final var total = finalized.sum();
+        finalizedLastCycle = total - finalizedBeforeCycle;
+        finalizedBeforeCycle = total;
+    }
+
+    public Lag lag() {
+        final var now = nanoClock.getAsLong();
+        final var age = byAge.stream().findFirst().map(oldest -> Math.max(0, now - oldest.requestedAt())).orElse(0L);
+        return new Lag(Duration.ofNanos(age), pending.size(), finalizedLastCycle);
+    }
+
+    private void track(TransactionId id, long requestedAt, boolean observed) {
+        final var entry = new Pending(id, requestedAt, sequence.incrementAndGet(), observed);
+        if (pending.putIfAbsent(id, entry) == null) {
+            byAge.add(entry);
+        }
+    }
+
+    private void finalized(TransactionId id) {
+        final var entry = pending.remove(id);
+        if (entry == null) {
+            return;
+        }
+        byAge.remove(entry);
+        finalized.increment();
+        if (entry.observed()) {
+            finalizationTimes.record(nanoClock.getAsLong() - entry.requestedAt());
+        }
+    }
+
+    /**
+     * @param oldestPending      age of the oldest withdrawal not yet finalized, zero when there's none
+     * @param pending            withdrawals not yet finalized
+     * @param finalizedLastCycle withdrawals finalized between the last two runs of the finalize job
+     */
+    public record Lag(Duration oldestPending, int pending, long finalizedLastCycle) {
+    }
+
+    /**
+     * @param sequence keeps withdrawals requested at the same nano apart
+     * @param observed whether it was recorded while tracking, so its request time is known
+     */
+    private record Pending(TransactionId id, long requestedAt, long sequence, boolean observed) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+
+import java.util.Optional;
+
+/**
+ * Commands that change balances. Implementations differ only in how they keep concurrent commands apart.
+ */
+public interface Ledger {
+    /**
+     * Takes amount from the source account and records a pending transaction to the target one.
+     */
+    default TransactionId moveMoney(AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        return moveMoney(TransactionId.random(), from, to, amount, externalRef);
+    }
+
+    /**
+     * Same as {@link #moveMoney(AccountId, AccountId, Money, Optional)}, recording the transaction under given id, e.g.
+     * one journaled ahead of it.
+     */
+    TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef);
+
+    void addMoney(AccountId id, Money amount);
+
+    /**
+     * Credits the target account of a pending transaction and marks it completed.
+     */
+    void complete(TransactionId id);
+
+    /**
+     * Returns the amount of a pending transaction to its source account and marks it failed.
+     */
+    void fail(TransactionId id);
+}
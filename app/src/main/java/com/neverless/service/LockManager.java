@@ -1,25 +1,278 @@
 package com.neverless.service;
 
-import com.google.common.util.concurrent.Striped;
+import com.neverless.exceptions.LockTimeoutException;
+import com.neverless.metrics.LatencyHistogram;
 
-import java.util.concurrent.locks.Lock;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Striped locks keyed by UUID. A key maps to its stripe by mixing its bits, so taking a lock allocates nothing, and
+ * the stripe count is rounded up to a power of two large enough that keys held at the same time rarely share one.
+ * <p>
+ * Several keys are always locked in stripe order, a stripe shared by two of them is locked once, so callers never
+ * deadlock on each other regardless of the order they pass keys in. A caller that can't get its locks within the
+ * timeout gives up with {@link LockTimeoutException} instead of queueing behind an overloaded key.
+ * <p>
+ * Locks are reentrant, but nesting calls takes stripes out of order, prefer one call with every key.
+ * <p>
+ * Every stripe counts its acquisitions while holding the lock, with no atomic instruction, and times one hold in
+ * {@value #HOLD_SAMPLE} so an uncontended acquisition stays clear of {@link System#nanoTime()}. Only contended
+ * acquisitions are timed, along with the key they waited for, see {@link #report(int)}.
+ */
 public class LockManager {
-    private final Striped<Lock> locks;
+    public static final int DEFAULT_STRIPES = 4096;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(1);
+
+    private static final int HOLD_SAMPLE = 64;
+
+    private final Stripe[] locks;
+    private final int mask;
+    private final long timeoutNanos;
+
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+
+    public LockManager(int stripes) {
+        this(stripes, DEFAULT_TIMEOUT);
+    }
+
+    public LockManager(int stripes, Duration timeout) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive, got %s".formatted(stripes));
+        }
+        if (requireNonNull(timeout).isNegative()) {
+            throw new IllegalArgumentException("Lock timeout can't be negative, got %s".formatted(timeout));
+        }
+        final var size = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.locks = new Stripe[size];
+        for (var i = 0; i < size; i++) {
+            locks[i] = new Stripe();
+        }
+        this.mask = size - 1;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public <T> T withLock(UUID key, Supplier<T> executable) {
+        final var stripe = stripe(key);
+        acquire(stripe, System.nanoTime() + timeoutNanos, key);
+        try {
+            return executable.get();
+        } finally {
+            release(stripe);
+        }
+    }
 
-    public LockManager(int lockSize) {
-        this.locks = Striped.lock(lockSize);
+    public <T> T withLocks(UUID first, UUID second, Supplier<T> executable) {
+        final var firstStripe = stripe(first);
+        final var secondStripe = stripe(second);
+        if (firstStripe == secondStripe) {
+            return withLock(first, executable);
+        }
+
+        final var lower = Math.min(firstStripe, secondStripe);
+        final var upper = Math.max(firstStripe, secondStripe);
+        final var deadline = System.nanoTime() + timeoutNanos;
+        acquire(lower, deadline, firstStripe < secondStripe ? first : second);
+        try {
+            acquire(upper, deadline, firstStripe < secondStripe ? second : first);
+            try {
+                return executable.get();
+            } finally {
+                release(upper);
+            }
+        } finally {
+            release(lower);
+        }
     }
 
-    public <T> T withLockBy(String id, Supplier<T> executable) {
-        final var lock = locks.get(id);
-        lock.lock();
+    public <T> T withLocks(Supplier<T> executable, UUID... keys) {
+        // stripe in the high half, position of its key in the low one, sorting orders by stripe
+        final var order = new long[keys.length];
+        for (var i = 0; i < keys.length; i++) {
+            order[i] = (long) stripe(keys[i]) << 32 | i;
+        }
+        Arrays.sort(order);
 
+        final var deadline = System.nanoTime() + timeoutNanos;
+        var held = 0;
         try {
+            for (var i = 0; i < order.length; i++) {
+                final var stripe = (int) (order[i] >>> 32);
+                if (held > 0 && stripe == (int) (order[held - 1] >>> 32)) {
+                    continue;
+                }
+                acquire(stripe, deadline, keys[(int) order[i]]);
+                order[held++] = order[i];
+            }
             return executable.get();
         } finally {
-            lock.unlock();
+            while (held > 0) {
+                release((int) (order[--held] >>> 32));
+            }
+        }
+    }
+
+    public int stripes() {
+        return locks.length;
+    }
+
+    /**
+     * Counters are read without locking, each one is exact but they may be mutually off by the acquisitions in
+     * flight.
+     *
+     * @param top how many of the most contended stripes to list
+     */
+    public LockReport report(int top) {
+        var acquisitions = 0L;
+        var contended = 0L;
+        final var hottest = new ArrayList<StripeReport>();
+        for (var stripe = 0; stripe < locks.length; stripe++) {
+            final var lock = locks[stripe];
+            final var stripeContended = (long) Stripe.CONTENDED.getOpaque(lock);
+            acquisitions += (long) Stripe.ACQUISITIONS.getOpaque(lock);
+            contended += stripeContended;
+            if (stripeContended > 0) {
+                hottest.add(new StripeReport(
+                    stripe,
+                    (long) Stripe.ACQUISITIONS.getOpaque(lock),
+                    stripeContended,
+                    (long) Stripe.WAIT_NANOS.getOpaque(lock),
+                    (long) Stripe.HOLD_SAMPLES.getOpaque(lock),
+                    (long) Stripe.HOLD_NANOS.getOpaque(lock),
+                    Optional.ofNullable((UUID) Stripe.LAST_CONTENDED_KEY.getOpaque(lock))
+                ));
+            }
+        }
+        hottest.sort(Comparator.comparingLong(StripeReport::contended).reversed());
+        return new LockReport(
+            locks.length,
+            acquisitions,
+            contended,
+            timeouts.sum(),
+            waitTimes.summary(),
+            holdTimes.summary(),
+            List.copyOf(hottest.subList(0, Math.min(Math.max(top, 0), hottest.size())))
+        );
+    }
+
+    private void acquire(int stripe, long deadline, UUID key) {
+        final var lock = locks[stripe];
+        if (!lock.tryLock()) {
+            awaitContended(lock, deadline, key);
+        }
+
+        final var acquisitions = lock.acquisitions + 1;
+        Stripe.ACQUISITIONS.setOpaque(lock, acquisitions);
+        if (acquisitions % HOLD_SAMPLE == 0) {
+            lock.holdStarted = System.nanoTime();
+        }
+    }
+
+    private void awaitContended(Stripe lock, long deadline, UUID key) {
+        final var started = System.nanoTime();
+        try {
+            if (lock.tryLock(deadline - started, TimeUnit.NANOSECONDS)) {
+                final var waited = System.nanoTime() - started;
+                Stripe.CONTENDED.setOpaque(lock, lock.contended + 1);
+                Stripe.WAIT_NANOS.setOpaque(lock, lock.waitNanos + waited);
+                Stripe.LAST_CONTENDED_KEY.setOpaque(lock, key);
+                waitTimes.record(waited);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        timeouts.increment();
+        throw new LockTimeoutException("Timed out waiting for lock on %s".formatted(key));
+    }
+
+    private void release(int stripe) {
+        final var lock = locks[stripe];
+        if (lock.holdStarted != 0) {
+            final var held = System.nanoTime() - lock.holdStarted;
+            lock.holdStarted = 0;
+            Stripe.HOLD_SAMPLES.setOpaque(lock, lock.holdSamples + 1);
+            Stripe.HOLD_NANOS.setOpaque(lock, lock.holdNanos + held);
+            holdTimes.record(held);
+        }
+        lock.unlock();
+    }
+
+    private int stripe(UUID key) {
+        final var bits = key.getMostSignificantBits() ^ key.getLeastSignificantBits();
+        final var hash = (int) (bits ^ (bits >>> 32));
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * @param contended acquisitions that had to wait, over every stripe
+     * @param hottest   stripes that were ever contended, most contended first
+     */
+    public record LockReport(int stripes,
+                             long acquisitions,
+                             long contended,
+                             long timeouts,
+                             LatencyHistogram.Summary waitTimes,
+                             LatencyHistogram.Summary holdTimes,
+                             List<StripeReport> hottest) {
+    }
+
+    /**
+     * @param holdSamples     acquisitions whose hold time was measured, {@code holdNanos} is their total
+     * @param lastContendedKey key the last contended acquisition of this stripe waited for
+     */
+    public record StripeReport(int stripe,
+                               long acquisitions,
+                               long contended,
+                               long waitNanos,
+                               long holdSamples,
+                               long holdNanos,
+                               Optional<UUID> lastContendedKey) {
+    }
+
+    /**
+     * Lock with its counters in the same object, so counting touches no memory the lock itself doesn't. Counters are
+     * written only by the holder and read by {@link #report(int)} without the lock, opaque access keeps those reads
+     * from tearing.
+     */
+    @SuppressWarnings("unused")
+    private static final class Stripe extends ReentrantLock {
+        private static final VarHandle ACQUISITIONS = field("acquisitions", long.class);
+        private static final VarHandle CONTENDED = field("contended", long.class);
+        private static final VarHandle WAIT_NANOS = field("waitNanos", long.class);
+        private static final VarHandle HOLD_SAMPLES = field("holdSamples", long.class);
+        private static final VarHandle HOLD_NANOS = field("holdNanos", long.class);
+        private static final VarHandle LAST_CONTENDED_KEY = field("lastContendedKey", UUID.class);
+
+        private long acquisitions;
+        private long contended;
+        private long waitNanos;
+        private long holdStarted;
+        private long holdSamples;
+        private long holdNanos;
+        private UUID lastContendedKey;
+
+        private static VarHandle field(String name, Class<?> type) {
+            try {
+                return MethodHandles.lookup().findVarHandle(Stripe.class, name, type);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
         }
     }
 }
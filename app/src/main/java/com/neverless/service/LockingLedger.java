@@ -0,0 +1,43 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Ledger} that applies commands on the calling thread, serializing them by locks on accounts and transactions.
+ */
+public class LockingLedger implements Ledger {
+    private final MoneyMover moneyMover;
+    private final TransactionFinalizer transactionFinalizer;
+
+    public LockingLedger(MoneyMover moneyMover, TransactionFinalizer transactionFinalizer) {
+        this.moneyMover = requireNonNull(moneyMover);
+        this.transactionFinalizer = requireNonNull(transactionFinalizer);
+    }
+
+    @Override
+    public TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        return moneyMover.moveMoney(id, from, to, amount, externalRef);
+    }
+
+    @Override
+    public void addMoney(AccountId id, Money amount) {
+        moneyMover.addMoney(id, amount);
+    }
+
+    @Override
+    public void complete(TransactionId id) {
+        transactionFinalizer.complete(id);
+    }
+
+    @Override
+    public void fail(TransactionId id) {
+        transactionFinalizer.fail(id);
+    }
+}
@@ -1,32 +1,47 @@
 package com.neverless.service;
 
 import com.neverless.domain.Money;
-import com.neverless.domain.account.Account;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.account.AccountRepository;
 import com.neverless.domain.account.AccountType;
 import com.neverless.domain.transaction.*;
 import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.metrics.ServerTiming;
+import com.neverless.metrics.jfr.MoneyMoveEvent;
+import com.neverless.storage.journal.Journal;
 
 import java.util.Optional;
-import java.util.function.Supplier;
 
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.empty;
 
+/**
+ * Moves money under the locks of both accounts. The debit and the transaction are journaled as one record while the
+ * locks are held, so a crash can't keep one without the other; waiting for the journal to make them durable is
+ * deferred until the locks are released.
+ */
 public class MoneyMover {
     private final LockManager lockManager;
 
     private final TransactionRepository transactionRepository;
     private final AccountRepository accountRepository;
+    private final Journal journal;
 
     public MoneyMover(TransactionRepository transactionRepository,
                       AccountRepository accountRepository,
                       LockManager lockManager) {
+        this(transactionRepository, accountRepository, lockManager, Journal.NONE);
+    }
+
+    public MoneyMover(TransactionRepository transactionRepository,
+                      AccountRepository accountRepository,
+                      LockManager lockManager,
+                      Journal journal) {
         this.transactionRepository = requireNonNull(transactionRepository);
         this.accountRepository = requireNonNull(accountRepository);
         this.lockManager = requireNonNull(lockManager);
+        this.journal = requireNonNull(journal);
     }
 
     public TransactionId moveMoney(AccountId from, AccountId to, Money amount) {
@@ -37,60 +52,96 @@ public class MoneyMover {
                                    AccountId to,
                                    Money amount,
                                    Optional<ExternalRef> externalRef) {
-        if (amount.value().signum() != 1) {
+        return moveMoney(TransactionId.random(), from, to, amount, externalRef);
+    }
+
+    public TransactionId moveMoney(TransactionId id,
+                                   AccountId from,
+                                   AccountId to,
+                                   Money amount,
+                                   Optional<ExternalRef> externalRef) {
+        if (amount.signum() != 1) {
             throw new IllegalArgumentException("Transfer amount should be greater than zero");
         }
-        return withLockByAccounts(from, to, () -> {
-            final var fromAccount = accountRepository.get(from);
-            final var toAccount = accountRepository.get(to);
-
-            if (fromAccount.type.equals(AccountType.EXTERNAL) && toAccount.type.equals(AccountType.EXTERNAL)) {
-                throw new IllegalArgumentException("Transfer between external accounts %s -> %s is not allowed".formatted(from.value(), to.value()));
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Can't process transaction when accounts are the same. Account id %s".formatted(from));
+        }
+        final var event = new MoneyMoveEvent();
+        event.begin();
+        // stages are only measured while recording or serving a request, so otherwise they cost next to nothing
+        final var recording = event.isEnabled();
+        final var timing = recording || ServerTiming.active();
+        final var started = timing ? System.nanoTime() : 0;
+        try {
+            final var transactionId = new TransactionId[1];
+            final var durable = journal.deferDurability(() -> transactionId[0] = lockManager.withLocks(from.value(), to.value(), () -> {
+                if (!timing) {
+                    return move(id, from, to, amount, externalRef);
+                }
+                final var locked = System.nanoTime();
+                event.lockWait = locked - started;
+                ServerTiming.record("lock", locked - started);
+                try {
+                    return move(id, from, to, amount, externalRef);
+                } finally {
+                    ServerTiming.record("store", System.nanoTime() - locked);
+                }
+            }));
+            journal.awaitDurable(durable);
+            event.succeeded = true;
+            return transactionId[0];
+        } finally {
+            if (event.shouldCommit()) {
+                event.fromAccount = from.value().toString();
+                event.toAccount = to.value().toString();
+                event.amount = amount.units();
+                event.commit();
             }
+        }
+    }
 
-            if (fromAccount.balance.value().compareTo(amount.value()) < 0) {
-                throw new InsufficientBalanceException("Account %s doesn't have enough balance".formatted(from.value()));
-            }
+    private TransactionId move(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        journal.awaitDurable(journal.atomically(() -> debitAndRecord(id, from, to, amount, externalRef)));
+        return id;
+    }
+
+    private void debitAndRecord(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        final var fromType = accountRepository.type(from);
+        final var toType = accountRepository.type(to);
+
+        if (fromType.equals(AccountType.EXTERNAL) && toType.equals(AccountType.EXTERNAL)) {
+            throw new IllegalArgumentException("Transfer between external accounts %s -> %s is not allowed".formatted(from.value(), to.value()));
+        }
+
+        if (!accountRepository.debit(from, amount)) {
+            throw new InsufficientBalanceException("Account %s doesn't have enough balance".formatted(from.value()));
+        }
 
-            accountRepository.update(fromAccount.deduct(amount));
-
-            final var transaction = transaction()
-                .from(from)
-                .to(to)
-                .amount(amount)
-                .type(determineType(fromAccount, toAccount))
-                .externalRef(externalRef)
-                .build();
-            transactionRepository.add(transaction);
-            return transaction.id();
-        });
+        final var transaction = transaction()
+            .id(id)
+            .from(from)
+            .to(to)
+            .amount(amount)
+            .type(determineType(fromType, toType))
+            .externalRef(externalRef)
+            .build();
+        transactionRepository.add(transaction);
     }
 
     public void addMoney(AccountId id, Money amount) {
-        if (amount.value().signum() < 1) {
+        if (amount.signum() < 1) {
             throw new IllegalArgumentException("Amount should be greater than zero");
         }
-        lockManager.withLockBy(id.value().toString(), () -> {
-            final var acc = accountRepository.get(id);
-            accountRepository.update(acc.add(amount));
+        journal.awaitDurable(journal.deferDurability(() -> lockManager.withLock(id.value(), () -> {
+            accountRepository.credit(id, amount);
 
             return null;
-        });
+        })));
     }
 
-    private TransactionType determineType(Account<?> from, Account<?> to) {
-        return from.type.equals(AccountType.EXTERNAL) || to.type.equals(AccountType.EXTERNAL) ?
+    private TransactionType determineType(AccountType from, AccountType to) {
+        return from.equals(AccountType.EXTERNAL) || to.equals(AccountType.EXTERNAL) ?
             TransactionType.EXTERNAL :
             TransactionType.INTERNAL;
     }
-
-    private <T> T withLockByAccounts(AccountId from, AccountId to, Supplier<T> executable) {
-        if (from.equals(to)) {
-            throw new IllegalArgumentException("Can't process transaction when accounts are the same. Account id %s".formatted(from));
-        }
-        final var firstToLock = from.value().compareTo(to.value()) > 0 ? from : to;
-        final var secondToLock = from.value().compareTo(to.value()) > 0 ? to : from;
-
-        return lockManager.withLockBy(firstToLock.value().toString(), () -> lockManager.withLockBy(secondToLock.value().toString(), executable));
-    }
 }
@@ -31,4 +31,11 @@ public class ScheduledJobRunner {
             TimeUnit.MILLISECONDS);
         Runtime.getRuntime().addShutdownHook(new Thread(scheduler::close));
     }
+
+    /**
+     * Stops scheduling, waiting for a run in progress to finish.
+     */
+    public void stop() {
+        scheduler.close();
+    }
 }
@@ -0,0 +1,379 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.account.AccountType;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.domain.transaction.TransactionState;
+import com.neverless.domain.transaction.TransactionType;
+import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.storage.journal.Journal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Ledger} that applies every command on a single writer thread, in the order callers published them, so
+ * repositories are never mutated concurrently and no locks are taken.
+ * <p>
+ * Commands travel through a pre-allocated ring of slots the way LMAX Disruptor does it: a caller claims the next
+ * sequence, fills the slot, publishes it and waits on its future. The writer takes every published slot at once,
+ * applies the batch with journal durability deferred, waits for the whole batch to become durable and only then
+ * completes the futures, so a batch costs one fsync rather than one per command.
+ * <p>
+ * Callers must stop submitting before {@link #close()}, commands published afterwards are never applied. Callers
+ * finding the ring full spin briefly and then park until the writer frees a slot.
+ * <p>
+ * An {@link Error} thrown while applying a command may leave the repositories half written, so the writer fails the
+ * rest of its batch and every command published after it, and the ledger rejects new ones.
+ * <p>
+ * {@link ShardedLedger} runs one of these per shard and finalizes transactions across shards with the package private
+ * {@link #reserve} and {@link #release} commands.
+ */
+public class SequencedLedger implements Ledger, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(SequencedLedger.class);
+
+    private static final int IDLE_SPINS = 1_000;
+    private static final long IDLE_PARK_NANOS = 100_000;
+    private static final int FULL_SPINS = 100;
+    private static final long FULL_PARK_NANOS = 10_000;
+
+    private final TransactionRepository transactionRepository;
+    private final AccountRepository accountRepository;
+    private final Journal journal;
+
+    private final Command[] ring;
+    private final int mask;
+    // sequence last published into each slot
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long applied = -1;
+
+    // transactions being finalized across shards, only touched by the writer
+    private final Set<TransactionId> reserved = new HashSet<>();
+
+    private final Thread writer;
+    private volatile boolean idle;
+    private volatile boolean running = true;
+    // error the writer stopped applying commands on, set once
+    private volatile Throwable fatal;
+
+    public SequencedLedger(TransactionRepository transactionRepository,
+                           AccountRepository accountRepository,
+                           Journal journal,
+                           int capacity) {
+        this(transactionRepository, accountRepository, journal, capacity, "ledger-writer");
+    }
+
+    public SequencedLedger(TransactionRepository transactionRepository,
+                           AccountRepository accountRepository,
+                           Journal journal,
+                           int capacity,
+                           String writerName) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two, got %s".formatted(capacity));
+        }
+        this.transactionRepository = requireNonNull(transactionRepository);
+        this.accountRepository = requireNonNull(accountRepository);
+        this.journal = requireNonNull(journal);
+
+        this.ring = new Command[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (var i = 0; i < capacity; i++) {
+            ring[i] = new Command();
+            published.set(i, -1);
+        }
+        this.mask = capacity - 1;
+
+        this.writer = Thread.ofPlatform()
+            .name(writerName)
+            .daemon()
+            .start(this::runWriter);
+    }
+
+    @Override
+    public TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        if (amount.signum() != 1) {
+            throw new IllegalArgumentException("Transfer amount should be greater than zero");
+        }
+        if (from.equals(to)) {
+            throw new IllegalArgumentException("Can't process transaction when accounts are the same. Account id %s".formatted(from));
+        }
+        return (TransactionId) submit(Kind.MOVE, from, to, amount, requireNonNull(externalRef), requireNonNull(id));
+    }
+
+    @Override
+    public void addMoney(AccountId id, Money amount) {
+        if (amount.signum() < 1) {
+            throw new IllegalArgumentException("Amount should be greater than zero");
+        }
+        submit(Kind.ADD, id, null, amount, Optional.empty(), null);
+    }
+
+    @Override
+    public void complete(TransactionId id) {
+        submit(Kind.COMPLETE, null, null, null, Optional.empty(), requireNonNull(id));
+    }
+
+    @Override
+    public void fail(TransactionId id) {
+        submit(Kind.FAIL, null, null, null, Optional.empty(), requireNonNull(id));
+    }
+
+    /**
+     * Marks a pending transaction as being finalized elsewhere, so this ledger can't complete or fail it until
+     * {@link #release}.
+     */
+    void reserve(TransactionId id) {
+        submit(Kind.RESERVE, null, null, null, Optional.empty(), requireNonNull(id));
+    }
+
+    void release(TransactionId id) {
+        submit(Kind.RELEASE, null, null, null, Optional.empty(), requireNonNull(id));
+    }
+
+    /**
+     * Lets the writer apply everything already published and stops it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Object submit(Kind kind,
+                          AccountId from,
+                          AccountId to,
+                          Money amount,
+                          Optional<ExternalRef> externalRef,
+                          TransactionId transactionId) {
+        if (!running) {
+            throw new IllegalStateException("Ledger is closed");
+        }
+        if (fatal != null) {
+            throw new IllegalStateException("Ledger writer failed", fatal);
+        }
+        final var sequence = claimed.incrementAndGet();
+        // the slot is free once the command published into it a lap ago is applied
+        for (var spins = 0; sequence - ring.length > applied; spins++) {
+            if (spins < FULL_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+
+        final var index = (int) sequence & mask;
+        final var command = ring[index];
+        final var future = new CompletableFuture<>();
+        command.kind = kind;
+        command.from = from;
+        command.to = to;
+        command.amount = amount;
+        command.externalRef = externalRef;
+        command.transactionId = transactionId;
+        command.future = future;
+        published.set(index, sequence);
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void runWriter() {
+        var next = 0L;
+        while (true) {
+            var end = next;
+            while (end - next < ring.length && published.get((int) end & mask) == end) {
+                end++;
+            }
+            if (end == next) {
+                if (!running) {
+                    return;
+                }
+                awaitPublished(next);
+                continue;
+            }
+            applyBatch(next, end);
+            next = end;
+        }
+    }
+
+    private void awaitPublished(long sequence) {
+        for (var i = 0; i < IDLE_SPINS; i++) {
+            if (published.get((int) sequence & mask) == sequence) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        idle = true;
+        // re-checked after raising the flag, a caller publishing now is guaranteed to see it and unpark us
+        if (running && published.get((int) sequence & mask) != sequence) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        idle = false;
+    }
+
+    private void applyBatch(long from, long to) {
+        RuntimeException batchFailure = null;
+        if (fatal != null) {
+            batchFailure = new IllegalStateException("Ledger writer failed", fatal);
+        } else {
+            try {
+                final var durable = journal.deferDurability(() -> {
+                    for (var sequence = from; sequence < to; sequence++) {
+                        apply(ring[(int) sequence & mask]);
+                    }
+                });
+                journal.awaitDurable(durable);
+            } catch (RuntimeException e) {
+                batchFailure = e;
+            } catch (Throwable e) {
+                log.error("Ledger writer failed, rejecting every command from now on", e);
+                fatal = e;
+                batchFailure = new IllegalStateException("Ledger writer failed", e);
+            }
+        }
+
+        for (var sequence = from; sequence < to; sequence++) {
+            final var command = ring[(int) sequence & mask];
+            final var failure = batchFailure != null ? batchFailure : command.failure;
+            if (failure != null) {
+                command.future.completeExceptionally(failure);
+            } else {
+                command.future.complete(command.result);
+            }
+            command.clear();
+        }
+        applied = to - 1;
+    }
+
+    private void apply(Command command) {
+        try {
+            // whatever a command writes, e.g. a debit and its transaction, survives a crash together or not at all
+            journal.awaitDurable(journal.atomically(() -> command.result = switch (command.kind) {
+                case MOVE -> move(command.transactionId, command.from, command.to, command.amount, command.externalRef);
+                case ADD -> {
+                    accountRepository.credit(command.from, command.amount);
+                    yield null;
+                }
+                case COMPLETE -> {
+                    final var completed = unreserved(command.transactionId).complete();
+                    accountRepository.credit(completed.to(), completed.amount());
+                    transactionRepository.update(completed);
+                    yield null;
+                }
+                case FAIL -> {
+                    final var failed = unreserved(command.transactionId).fail();
+                    accountRepository.credit(failed.from(), failed.amount());
+                    transactionRepository.update(failed);
+                    yield null;
+                }
+                case RESERVE -> {
+                    final var transaction = unreserved(command.transactionId);
+                    if (transaction.state() != TransactionState.PENDING) {
+                        throw new IllegalStateException("Trying to finalize transaction %s which is not in PENDING state, but in %s state"
+                            .formatted(transaction.id(), transaction.state()));
+                    }
+                    reserved.add(transaction.id());
+                    yield null;
+                }
+                case RELEASE -> {
+                    reserved.remove(command.transactionId);
+                    yield null;
+                }
+            }));
+        } catch (RuntimeException e) {
+            command.failure = e;
+        }
+    }
+
+    private Transaction unreserved(TransactionId id) {
+        if (reserved.contains(id)) {
+            throw new IllegalStateException("Transaction %s is already being finalized".formatted(id));
+        }
+        return transactionRepository.get(id);
+    }
+
+    private TransactionId move(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        final var fromType = accountRepository.type(from);
+        final var toType = accountRepository.type(to);
+        if (fromType == AccountType.EXTERNAL && toType == AccountType.EXTERNAL) {
+            throw new IllegalArgumentException("Transfer between external accounts %s -> %s is not allowed".formatted(from.value(), to.value()));
+        }
+        if (!accountRepository.debit(from, amount)) {
+            throw new InsufficientBalanceException("Account %s doesn't have enough balance".formatted(from.value()));
+        }
+
+        final var transaction = transaction()
+            .id(id)
+            .from(from)
+            .to(to)
+            .amount(amount)
+            .type(fromType == AccountType.EXTERNAL || toType == AccountType.EXTERNAL ? TransactionType.EXTERNAL : TransactionType.INTERNAL)
+            .externalRef(externalRef)
+            .build();
+        transactionRepository.add(transaction);
+        return transaction.id();
+    }
+
+    private enum Kind {
+        MOVE, ADD, COMPLETE, FAIL, RESERVE, RELEASE
+    }
+
+    /**
+     * Ring slot, written by the caller that claimed it before publishing and by the writer until the future completes.
+     */
+    private static final class Command {
+        private Kind kind;
+        private AccountId from;
+        private AccountId to;
+        private Money amount;
+        private Optional<ExternalRef> externalRef;
+        private TransactionId transactionId;
+        private CompletableFuture<Object> future;
+        private Object result;
+        private RuntimeException failure;
+
+        private void clear() {
+            from = null;
+            to = null;
+            amount = null;
+            externalRef = null;
+            transactionId = null;
+            future = null;
+            result = null;
+            failure = null;
+        }
+    }
+}
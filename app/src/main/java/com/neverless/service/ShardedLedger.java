@@ -0,0 +1,94 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.storage.journal.Journal;
+
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Ledger} that partitions accounts by id hash into shards, each applying its commands on its own
+ * {@link SequencedLedger} writer, so independent accounts are processed on as many cores as there are shards.
+ * <p>
+ * A shard owns its accounts and the transactions they send: moving money debits the source and records the pending
+ * transaction in one step on the source's shard, failing a transaction returns the funds on that same shard. Only
+ * completing a transaction whose target lives on another shard involves both: the owning shard reserves the pending
+ * transaction, so it can't fail it meanwhile, and the target's shard completes it, crediting the target and marking the
+ * transaction completed in one journal record, before the reservation is released. Whatever happens, a crash included,
+ * the transaction is either still pending with the target not credited, or completed with it credited.
+ */
+public class ShardedLedger implements Ledger, AutoCloseable {
+    private final TransactionRepository transactionRepository;
+    private final SequencedLedger[] shards;
+
+    public ShardedLedger(TransactionRepository transactionRepository,
+                         AccountRepository accountRepository,
+                         Journal journal,
+                         int shards,
+                         int capacity) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shard count must be positive, got %s".formatted(shards));
+        }
+        this.transactionRepository = requireNonNull(transactionRepository);
+        this.shards = new SequencedLedger[shards];
+        for (var i = 0; i < shards; i++) {
+            this.shards[i] = new SequencedLedger(transactionRepository, accountRepository, journal, capacity, "ledger-shard-" + i);
+        }
+    }
+
+    @Override
+    public TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        return shardOf(from).moveMoney(id, from, to, amount, externalRef);
+    }
+
+    @Override
+    public void addMoney(AccountId id, Money amount) {
+        shardOf(id).addMoney(id, amount);
+    }
+
+    @Override
+    public void complete(TransactionId id) {
+        // accounts of a transaction never change, reading them outside of the owning shard is safe
+        final var transaction = transactionRepository.get(id);
+        final var owner = shardOf(transaction.from());
+        final var target = shardOf(transaction.to());
+        if (owner == target) {
+            owner.complete(id);
+            return;
+        }
+
+        owner.reserve(id);
+        try {
+            target.complete(id);
+        } finally {
+            owner.release(id);
+        }
+    }
+
+    @Override
+    public void fail(TransactionId id) {
+        shardOf(transactionRepository.get(id).from()).fail(id);
+    }
+
+    public int shards() {
+        return shards.length;
+    }
+
+    @Override
+    public void close() {
+        for (final var shard : shards) {
+            shard.close();
+        }
+    }
+
+    private SequencedLedger shardOf(AccountId id) {
+        final var hash = id.value().hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+}
@@ -0,0 +1,97 @@
+package com.neverless.service;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.integration.RequestDeadline;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls by key: the first caller for a key makes the call, callers arriving while it's in flight
+ * wait for it and share its result or exception. Nothing is kept once the call returns, a later caller calls again.
+ * <p>
+ * A waiter serving a client request waits no longer than its own {@link RequestDeadline}, however long the call it
+ * shares is allowed to take. Callers with different deadlines or resources to call with are best kept apart by key.
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public V call(K key, Supplier<V> call) {
+        final var flight = new CompletableFuture<V>();
+        final var existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+
+        calls.increment();
+        try {
+            final var result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return calls actually made
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return calls answered by sharing another caller's call
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> flight) {
+        final var deadline = RequestDeadline.current();
+        if (deadline.isEmpty()) {
+            return join(flight);
+        }
+        try {
+            return flight.get(deadline.getAsLong() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new ProviderUnavailableException("Shared call didn't answer in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProviderUnavailableException("Interrupted waiting for shared call");
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException("Shared call failed", cause);
+    }
+}
@@ -0,0 +1,84 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.metrics.ServerTiming;
+import com.neverless.metrics.Timer;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Times commands of the ledger it wraps, whichever way that one applies them, failed commands included. The time is
+ * also reported as the {@code ledger} stage of the request's {@link ServerTiming}.
+ */
+public class TimedLedger implements Ledger {
+    private final Ledger ledger;
+    private final Timer moveMoney;
+    private final Timer addMoney;
+    private final Timer complete;
+    private final Timer fail;
+
+    public TimedLedger(Ledger ledger, MetricsRegistry metrics) {
+        this.ledger = requireNonNull(ledger);
+        this.moveMoney = timer(metrics, "move_money");
+        this.addMoney = timer(metrics, "add_money");
+        this.complete = timer(metrics, "complete");
+        this.fail = timer(metrics, "fail");
+    }
+
+    @Override
+    public TransactionId moveMoney(TransactionId id, AccountId from, AccountId to, Money amount, Optional<ExternalRef> externalRef) {
+        final var started = System.nanoTime();
+        try {
+            return ledger.moveMoney(id, from, to, amount, externalRef);
+        } finally {
+            record(moveMoney, started);
+        }
+    }
+
+    @Override
+    public void addMoney(AccountId id, Money amount) {
+        final var started = System.nanoTime();
+        try {
+            ledger.addMoney(id, amount);
+        } finally {
+            record(addMoney, started);
+        }
+    }
+
+    @Override
+    public void complete(TransactionId id) {
+        final var started = System.nanoTime();
+        try {
+            ledger.complete(id);
+        } finally {
+            record(complete, started);
+        }
+    }
+
+    @Override
+    public void fail(TransactionId id) {
+        final var started = System.nanoTime();
+        try {
+            ledger.fail(id);
+        } finally {
+            record(fail, started);
+        }
+    }
+
+    private static void record(Timer timer, long started) {
+        final var elapsed = System.nanoTime() - started;
+        timer.record(elapsed);
+        ServerTiming.record("ledger", elapsed);
+    }
+
+    private static Timer timer(MetricsRegistry metrics, String operation) {
+        return metrics.timer("neverless_ledger_seconds", "Time taken by ledger commands, lock and queue waits included", Map.of("operation", operation));
+    }
+}
@@ -0,0 +1,87 @@
+package com.neverless.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: {@value #LEVELS} levels of {@value #SLOTS} slots, each level {@value #SLOTS} times
+ * coarser than the one below it. An entry goes to the finest level whose span covers its deadline and cascades to
+ * finer levels as time approaches it, so scheduling is constant time and advancing costs one step per tick plus the
+ * entries that come due, no matter how many are waiting.
+ * <p>
+ * Time is counted in ticks of the caller's choosing. Deadlines beyond the span of the top level are clamped to it.
+ * Not thread safe.
+ */
+class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final List<List<Entry<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private long now;
+    private int size;
+
+    TimingWheel(long now) {
+        for (var i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.now = now;
+    }
+
+    /**
+     * Deadlines not after the current tick come due on the next one.
+     */
+    void schedule(T item, long deadline) {
+        place(new Entry<>(item, Math.min(Math.max(deadline, now + 1), now + SPAN - 1)));
+        size++;
+    }
+
+    /**
+     * Moves time forward to {@code tick} and hands every entry that came due to {@code due}, in deadline order.
+     */
+    void advance(long tick, List<T> due) {
+        while (now < tick) {
+            now++;
+            for (var level = LEVELS - 1; level > 0; level--) {
+                if ((now & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level);
+                }
+            }
+            final var expired = slots.get((int) (now & SLOT_MASK));
+            for (final var entry : expired) {
+                due.add(entry.item);
+            }
+            size -= expired.size();
+            expired.clear();
+        }
+    }
+
+    long now() {
+        return now;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        final var slot = slots.get(level * SLOTS + (int) ((now >>> (SLOT_BITS * level)) & SLOT_MASK));
+        final var entries = List.copyOf(slot);
+        slot.clear();
+        entries.forEach(this::place);
+    }
+
+    private void place(Entry<T> entry) {
+        final var delta = entry.deadline - now;
+        var level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        slots.get(level * SLOTS + (int) ((entry.deadline >>> (SLOT_BITS * level)) & SLOT_MASK)).add(entry);
+    }
+
+    private record Entry<T>(T item, long deadline) {
+    }
+}
@@ -1,45 +1,82 @@
 package com.neverless.service;
 
+import com.neverless.domain.account.AccountRepository;
 import com.neverless.domain.transaction.TransactionId;
 import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.metrics.jfr.FinalizationEvent;
+import com.neverless.storage.journal.Journal;
 
+import static java.util.Objects.requireNonNull;
 
+/**
+ * Finalizes a transaction under the lock of its id alone: crediting an account is atomic in the repository, the lock
+ * only has to keep two finalizations of the same transaction apart. Waiting for the journal to make a finalization
+ * durable is deferred until the lock is released.
+ */
 public class TransactionFinalizer {
     private final TransactionRepository transactionRepository;
-    private final MoneyMover moneyMover;
+    private final AccountRepository accountRepository;
     private final LockManager lockManager;
+    private final Journal journal;
 
     public TransactionFinalizer(TransactionRepository transactionRepository,
-                                MoneyMover moneyMover,
+                                AccountRepository accountRepository,
                                 LockManager lockManager) {
-        this.transactionRepository = transactionRepository;
-        this.moneyMover = moneyMover;
-        this.lockManager = lockManager;
+        this(transactionRepository, accountRepository, lockManager, Journal.NONE);
     }
 
-    public void complete(TransactionId id) {
-        lockManager.withLockBy(id.value().toString(), () -> {
-            final var transaction = transactionRepository.get(id);
-            return lockManager.withLockBy(transaction.to().value().toString(), () -> {
-                moneyMover.addMoney(transaction.to(), transaction.amount());
+    public TransactionFinalizer(TransactionRepository transactionRepository,
+                                AccountRepository accountRepository,
+                                LockManager lockManager,
+                                Journal journal) {
+        this.transactionRepository = requireNonNull(transactionRepository);
+        this.accountRepository = requireNonNull(accountRepository);
+        this.lockManager = requireNonNull(lockManager);
+        this.journal = requireNonNull(journal);
+    }
 
-                transactionRepository.update(transaction.complete());
+    public void complete(TransactionId id) {
+        finalize(id, "COMPLETED", () -> {
+            final var completed = transactionRepository.get(id).complete();
+            accountRepository.credit(completed.to(), completed.amount());
 
-                return null;
-            });
+            transactionRepository.update(completed);
         });
     }
 
     public void fail(TransactionId id) {
-        lockManager.withLockBy(id.value().toString(), () -> {
-            final var transaction = transactionRepository.get(id);
-            return lockManager.withLockBy(transaction.from().value().toString(), () -> {
-                moneyMover.addMoney(transaction.from(), transaction.amount());
+        finalize(id, "FAILED", () -> {
+            final var failed = transactionRepository.get(id).fail();
+            accountRepository.credit(failed.from(), failed.amount());
 
-                transactionRepository.update(transaction.fail());
+            transactionRepository.update(failed);
+        });
+    }
+
+    private void finalize(TransactionId id, String outcome, Runnable finalization) {
+        final var event = new FinalizationEvent();
+        event.begin();
+        // lock wait is only measured while recording, so a disabled event costs next to nothing
+        final var recording = event.isEnabled();
+        final var started = recording ? System.nanoTime() : 0;
+        try {
+            final var durable = journal.deferDurability(() -> lockManager.withLock(id.value(), () -> {
+                if (recording) {
+                    event.lockWait = System.nanoTime() - started;
+                }
+                // the credit and the transaction update survive a crash together or not at all
+                journal.awaitDurable(journal.atomically(finalization));
 
                 return null;
-            });
-        });
+            }));
+            journal.awaitDurable(durable);
+            event.succeeded = true;
+        } finally {
+            if (event.shouldCommit()) {
+                event.transaction = id.value().toString();
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
     }
 }
@@ -1,39 +1,153 @@
 package com.neverless.service;
 
-import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.jfr.FinalizeCycleEvent;
 
-import static com.neverless.domain.transaction.TransactionState.PENDING;
-import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Checks the withdrawals the poll scheduler says are due and finalizes the ones the provider is done with. Meant to
+ * run every {@link WithdrawalPollScheduler#TICK}. Withdrawals left pending by a previous run of the service come back
+ * through the {@link WithdrawalOutbox}, once the provider has them.
+ * <p>
+ * With a concurrency above one the checks of a run are spread over the given workers, at most that many at a time,
+ * and the run returns once all of them are done. A run started while another is in progress does nothing. The
+ * scheduler hands out a withdrawal again only after its check is done, so a transaction is never finalized by two
+ * checks at once.
+ */
 public class WithdrawalFinalizeJob implements Job {
     private final WithdrawalStateChecker withdrawalStateChecker;
-    private final TransactionRepository transactionRepository;
-    private final TransactionFinalizer transactionFinalizer;
+    private final Ledger ledger;
+    private final WithdrawalPollScheduler pollScheduler;
+    private final ExecutorService workers;
+    private final int concurrency;
+
+    private final AtomicBoolean running = new AtomicBoolean();
 
     public WithdrawalFinalizeJob(WithdrawalStateChecker withdrawalStateChecker,
-                                 TransactionRepository transactionRepository,
-                                 TransactionFinalizer transactionFinalizer) {
+                                 Ledger ledger,
+                                 WithdrawalPollScheduler pollScheduler) {
+        this(withdrawalStateChecker, ledger, pollScheduler, null, 1);
+    }
+
+    /**
+     * @param workers runs the checks when concurrency is above one
+     */
+    public WithdrawalFinalizeJob(WithdrawalStateChecker withdrawalStateChecker,
+                                 Ledger ledger,
+                                 WithdrawalPollScheduler pollScheduler,
+                                 ExecutorService workers,
+                                 int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive, got %s".formatted(concurrency));
+        }
         this.withdrawalStateChecker = withdrawalStateChecker;
-        this.transactionRepository = transactionRepository;
-        this.transactionFinalizer = transactionFinalizer;
+        this.ledger = ledger;
+        this.pollScheduler = pollScheduler;
+        this.workers = concurrency == 1 ? workers : requireNonNull(workers);
+        this.concurrency = concurrency;
     }
 
     public void run() {
-        transactionRepository.find(EXTERNAL, PENDING)
-            .forEach(transaction -> {
-                try {
-                    withdrawalStateChecker.checkWithdrawState(transaction.id()).ifPresentOrElse(state -> {
-                        switch (state) {
-                            case COMPLETED -> transactionFinalizer.complete(transaction.id());
-                            case FAILED -> transactionFinalizer.fail(transaction.id());
-                            case PROCESSING -> { }
-                        }
-                    },
-                        () -> transactionFinalizer.fail(transaction.id())
-                    );
-                } catch (Exception e) {
-                    // log
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        final var event = new FinalizeCycleEvent();
+        event.begin();
+        try {
+            final var due = pollScheduler.due();
+            event.checked = due.size();
+            if (concurrency == 1) {
+                due.forEach(this::check);
+            } else {
+                checkConcurrently(due);
+            }
+        } finally {
+            running.set(false);
+            event.commit();
+        }
+    }
+
+    private void checkConcurrently(List<WithdrawalPollScheduler.Poll> due) {
+        final var permits = new Semaphore(concurrency);
+        final var checks = new ArrayList<Future<?>>(due.size());
+        try {
+            for (final var poll : due) {
+                permits.acquire();
+                checks.add(workers.submit(() -> {
+                    try {
+                        check(poll);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (final var check : checks) {
+                await(check);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // submitted checks finish on their own, the rest go back to the scheduler
+            due.subList(checks.size(), due.size()).forEach(pollScheduler::processing);
+        }
+    }
+
+    private static void await(Future<?> check) throws InterruptedException {
+        try {
+            check.get();
+        } catch (ExecutionException | CancellationException e) {
+            // log
+        }
+    }
+
+    private void check(WithdrawalPollScheduler.Poll poll) {
+        try {
+            withdrawalStateChecker.checkWithdrawState(poll.id()).ifPresentOrElse(state -> {
+                switch (state) {
+                    case COMPLETED -> {
+                        settle(poll, ledger::complete);
+                        pollScheduler.finalized(poll);
+                    }
+                    case FAILED -> {
+                        settle(poll, ledger::fail);
+                        pollScheduler.finalized(poll);
+                    }
+                    case PROCESSING -> pollScheduler.processing(poll);
                 }
-            });
+            },
+                () -> {
+                    settle(poll, ledger::fail);
+                    pollScheduler.finalized(poll);
+                }
+            );
+        } catch (Exception e) {
+            // log
+            pollScheduler.processing(poll);
+        }
+    }
+
+    /**
+     * Applies the outcome to every transaction the withdrawal settles, a netted one settles several. Ones finalized
+     * already are skipped, so settling a withdrawal again, after a failure or a restart halfway through, picks up where
+     * it stopped.
+     */
+    private static void settle(WithdrawalPollScheduler.Poll poll, Consumer<TransactionId> outcome) {
+        for (final var transaction : poll.transactions()) {
+            try {
+                outcome.accept(transaction);
+            } catch (IllegalStateException e) {
+                // finalized by someone else meanwhile
+            }
+        }
     }
 }
@@ -6,45 +6,63 @@ import com.neverless.domain.account.AccountRepository;
 import com.neverless.domain.account.ExternalAddress;
 import com.neverless.domain.transaction.*;
 import com.neverless.exceptions.NotFoundException;
-import com.neverless.integration.WithdrawalService;
 
 import java.util.Optional;
-import java.util.UUID;
 
 
+/**
+ * Records a withdrawal and leaves the provider request to the {@link WithdrawalOutbox}, the withdrawal is accepted once
+ * its transaction is. Withdrawals made under an idempotency key are made once per key, retries get the transaction of
+ * the first one.
+ */
 public class WithdrawalHandler {
-    private final WithdrawalService<Money> withdrawalService;
     private final AccountRepository accountRepository;
-    private final MoneyMover moneyMover;
+    private final Ledger ledger;
+    private final WithdrawalOutbox outbox;
+    private final IdempotencyKeyRepository idempotencyKeys;
 
-    public WithdrawalHandler(WithdrawalService<Money> withdrawalService,
-                             AccountRepository accountRepository,
-                             MoneyMover moneyMover) {
-        this.withdrawalService = withdrawalService;
+    public WithdrawalHandler(AccountRepository accountRepository,
+                             Ledger ledger,
+                             WithdrawalOutbox outbox,
+                             IdempotencyKeyRepository idempotencyKeys) {
         this.accountRepository = accountRepository;
-        this.moneyMover = moneyMover;
+        this.ledger = ledger;
+        this.outbox = outbox;
+        this.idempotencyKeys = idempotencyKeys;
+    }
+
+    /**
+     * A retry finds the key recorded and returns without touching the ledger, one arriving while the first withdrawal
+     * is still in progress waits for it.
+     */
+    public TransactionId withdraw(String idempotencyKey,
+                                  Money amount,
+                                  AccountId fromAccountId,
+                                  ExternalAddress toAddress) {
+        return idempotencyKeys.computeIfAbsent(fromAccountId, idempotencyKey, id -> withdraw(id, amount, fromAccountId, toAddress));
     }
 
     public TransactionId withdraw(Money amount,
                                   AccountId fromAccountId,
                                   ExternalAddress toAddress) {
+        return withdraw(TransactionId.random(), amount, fromAccountId, toAddress);
+    }
+
+    private TransactionId withdraw(TransactionId id,
+                                   Money amount,
+                                   AccountId fromAccountId,
+                                   ExternalAddress toAddress) {
         final var maybeExternalAccount = accountRepository.find(toAddress);
         if (maybeExternalAccount.isEmpty()) {
             throw new NotFoundException("Couldn't find account with external address %s".formatted(toAddress));
         }
         final var externalAccount = maybeExternalAccount.get();
-        final var id = UUID.randomUUID();
-        final var externalRef = new ExternalRef(id.toString());
-        final var withdrawalTransaction = moneyMover.moveMoney(
+        final var withdrawalTransaction = outbox.submit(externalAccount, amount, externalRef -> ledger.moveMoney(
+            id,
             fromAccountId,
             externalAccount.id,
             amount,
-            Optional.of(externalRef));
-
-        withdrawalService.requestWithdrawal(
-            new WithdrawalService.WithdrawalId(id),
-            new WithdrawalService.Address(toAddress.value()),
-            amount);
+            Optional.of(externalRef)));
 
         return withdrawalTransaction;
     }
@@ -0,0 +1,454 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.account.ExternalAccount;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.integration.WithdrawalService;
+import com.neverless.integration.WithdrawalService.Address;
+import com.neverless.integration.WithdrawalService.WithdrawalId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.neverless.domain.transaction.TransactionState.COMPLETED;
+import static com.neverless.domain.transaction.TransactionState.FAILED;
+import static com.neverless.domain.transaction.TransactionState.PENDING;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Sends withdrawal requests to the provider in the background, so a withdrawal is accepted as soon as its transaction
+ * is recorded.
+ * <p>
+ * The pending external transaction is the outbox entry: it carries the withdrawal id, amount and target account. The
+ * ledger journals it and the debit as one {@link com.neverless.storage.journal.JournalRecord.Atomic} record, so a crash
+ * can't leave the user debited without an entry. Which entries were already sent isn't recorded, on startup every
+ * pending withdrawal is sent again, the provider treats a repeated withdrawal id as the same request.
+ * <p>
+ * A fixed number of workers send entries, bounding the requests in flight. A request that fails is retried after an
+ * exponentially growing, jittered backoff, one the provider rejects as conflicting with the same id fails the
+ * transaction and returns the funds. After {@code maxAttempts} failed attempts a request is given up on until the next
+ * {@link #start()}: the provider may have it nonetheless, so the funds stay debited and the withdrawal pending. Once the provider has a withdrawal it's handed to the poll scheduler, never
+ * before, so a check can't fail a withdrawal the provider simply hasn't been told about yet.
+ * <p>
+ * With a netting window, withdrawals to the same external account recorded within the window share one withdrawal id
+ * and go to the provider as one request for their total once the window closes. The shared id is each transaction's
+ * external ref, so which transactions a request settles survives a restart the same way the request itself does, and
+ * its outcome is applied to each of them.
+ * <p>
+ * A restart may come while the outcome of a netted request is being applied, leaving some of its transactions
+ * finalized and the rest pending. The request is then recovered for the total of every transaction carrying its id,
+ * finalized ones included, and the provider is asked whether it already has the request before it's sent again, so
+ * the remaining transactions get the outcome the provider already decided on.
+ */
+public class WithdrawalOutbox implements AutoCloseable {
+    public static final Duration DEFAULT_MIN_BACKOFF = Duration.ofMillis(100);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(30);
+    public static final int DEFAULT_MAX_ATTEMPTS = 20;
+
+    private static final Logger log = LoggerFactory.getLogger(WithdrawalOutbox.class);
+
+    private final WithdrawalService<Money> withdrawalService;
+    private final TransactionRepository transactionRepository;
+    private final AccountRepository accountRepository;
+    private final Ledger ledger;
+    private final WithdrawalPollScheduler pollScheduler;
+    private final int window;
+    private final Duration minBackoff;
+    private final Duration maxBackoff;
+    private final Optional<Duration> nettingWindow;
+    private final int maxAttempts;
+
+    private final BlockingQueue<Entry> ready = new LinkedBlockingQueue<>();
+    private final Set<TransactionId> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+        Thread.ofPlatform().name("withdrawal-outbox-timer").daemon().factory());
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder failedSends = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final Map<AccountId, Batch> open = new HashMap<>();
+
+    public WithdrawalOutbox(WithdrawalService<Money> withdrawalService,
+                            TransactionRepository transactionRepository,
+                            AccountRepository accountRepository,
+                            Ledger ledger,
+                            WithdrawalPollScheduler pollScheduler,
+                            int window,
+                            Duration minBackoff,
+                            Duration maxBackoff) {
+        this(withdrawalService, transactionRepository, accountRepository, ledger, pollScheduler, window, minBackoff, maxBackoff, Optional.empty());
+    }
+
+    /**
+     * @param nettingWindow how long withdrawals to the same external account are collected into one request, none
+     *                      sends each on its own
+     */
+    public WithdrawalOutbox(WithdrawalService<Money> withdrawalService,
+                            TransactionRepository transactionRepository,
+                            AccountRepository accountRepository,
+                            Ledger ledger,
+                            WithdrawalPollScheduler pollScheduler,
+                            int window,
+                            Duration minBackoff,
+                            Duration maxBackoff,
+                            Optional<Duration> nettingWindow) {
+        this(withdrawalService, transactionRepository, accountRepository, ledger, pollScheduler, window, minBackoff, maxBackoff, nettingWindow, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param maxAttempts how many times a request is sent before it's left for the next {@link #start()}
+     */
+    public WithdrawalOutbox(WithdrawalService<Money> withdrawalService,
+                            TransactionRepository transactionRepository,
+                            AccountRepository accountRepository,
+                            Ledger ledger,
+                            WithdrawalPollScheduler pollScheduler,
+                            int window,
+                            Duration minBackoff,
+                            Duration maxBackoff,
+                            Optional<Duration> nettingWindow,
+                            int maxAttempts) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Outbox window must be positive, got %s".formatted(window));
+        }
+        if (minBackoff.isNegative() || minBackoff.isZero() || maxBackoff.compareTo(minBackoff) < 0) {
+            throw new IllegalArgumentException("Backoff must satisfy 0 < min <= max, got %s and %s".formatted(minBackoff, maxBackoff));
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be positive, got %s".formatted(maxAttempts));
+        }
+        this.withdrawalService = withdrawalService;
+        this.transactionRepository = requireNonNull(transactionRepository);
+        this.accountRepository = requireNonNull(accountRepository);
+        this.ledger = requireNonNull(ledger);
+        this.pollScheduler = requireNonNull(pollScheduler);
+        this.window = window;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.nettingWindow = requireNonNull(nettingWindow);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Queues every withdrawal left pending by a previous run and starts sending.
+     */
+    public void start() {
+        final var byRef = transactionRepository.find(EXTERNAL, PENDING).stream()
+            .filter(transaction -> transaction.externalRef().isPresent())
+            .collect(Collectors.groupingBy(transaction -> transaction.externalRef().get(), LinkedHashMap::new, Collectors.toList()));
+        final var finalized = finalizedAmounts(byRef.keySet());
+        byRef.forEach((ref, transactions) -> {
+            final var lead = transactions.getFirst();
+            final var target = (ExternalAccount) accountRepository.get(lead.to());
+            enqueue(new Entry(
+                lead.id(),
+                withdrawalId(ref),
+                new Address(target.externalAddress.value()),
+                transactions.stream().map(Transaction::amount).reduce(finalized.getOrDefault(ref, Money.zero()), Money::add),
+                transactions.stream().map(Transaction::id).toList(),
+                true,
+                0));
+        });
+        for (var i = 0; i < window; i++) {
+            workers.add(Thread.ofVirtual().name("withdrawal-outbox-", i).start(this::send));
+        }
+    }
+
+    /**
+     * Only netted requests settle more than one transaction, so without netting there's nothing to look up.
+     *
+     * @return total of the transactions already finalized under each of given refs, part of the amount requested under
+     * it when netted
+     */
+    private Map<ExternalRef, Money> finalizedAmounts(Set<ExternalRef> refs) {
+        if (nettingWindow.isEmpty()) {
+            return Map.of();
+        }
+        final var result = new HashMap<ExternalRef, Money>();
+        for (final var ref : refs) {
+            for (final var transaction : transactionRepository.find(ref)) {
+                if (transaction.state() == COMPLETED || transaction.state() == FAILED) {
+                    result.merge(ref, transaction.amount(), Money::add);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records a withdrawal with {@code record}, given the external ref to record it with, and queues it.
+     *
+     * @return the recorded transaction
+     */
+    public TransactionId submit(ExternalAccount target, Money amount, Function<ExternalRef, TransactionId> record) {
+        if (nettingWindow.isEmpty()) {
+            final var withdrawalId = new WithdrawalId(UUID.randomUUID());
+            final var id = record.apply(new ExternalRef(withdrawalId.value().toString()));
+            enqueue(new Entry(id, withdrawalId, new Address(target.externalAddress.value()), amount, List.of(id), false, 0));
+            return id;
+        }
+
+        final var batch = join(target);
+        try {
+            final var id = record.apply(new ExternalRef(batch.withdrawalId.value().toString()));
+            // reported pending from here on, not only once the batch is sent
+            pending.add(id);
+            lock.lock();
+            try {
+                batch.transactions.add(id);
+                batch.amount = batch.amount.add(amount);
+            } finally {
+                lock.unlock();
+            }
+            return id;
+        } finally {
+            leave(batch);
+        }
+    }
+
+    /**
+     * @return whether the withdrawal is recorded but the provider hasn't acknowledged it yet
+     */
+    public boolean pending(TransactionId id) {
+        return pending.contains(id);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return requests that failed to reach the provider, retried or not
+     */
+    public long failedSends() {
+        return failedSends.sum();
+    }
+
+    /**
+     * @return requests given up on after {@code maxAttempts}, left pending until the next {@link #start()}
+     */
+    public long abandoned() {
+        return abandoned.sum();
+    }
+
+    /**
+     * Stops sending, withdrawals not sent yet, netted ones included, are sent again by the next {@link #start()}.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        workers.forEach(Thread::interrupt);
+        for (final var worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        if (pending.add(entry.id)) {
+            pending.addAll(entry.transactions);
+            ready.add(entry);
+        }
+    }
+
+    /**
+     * Joins the open batch of the target, opening one if there's none. The batch isn't sent while anyone is still
+     * recording a withdrawal into it, so every transaction carrying its id is part of its amount.
+     */
+    private Batch join(ExternalAccount target) {
+        lock.lock();
+        try {
+            final var batch = open.computeIfAbsent(target.id, _ -> {
+                final var opened = new Batch(target.id, new WithdrawalId(UUID.randomUUID()), new Address(target.externalAddress.value()));
+                timer.schedule(() -> seal(opened), nettingWindow.get().toNanos(), TimeUnit.NANOSECONDS);
+                return opened;
+            });
+            batch.joining++;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void leave(Batch batch) {
+        lock.lock();
+        try {
+            batch.joining--;
+            if (batch.sealed && batch.joining == 0) {
+                dispatch(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void seal(Batch batch) {
+        lock.lock();
+        try {
+            open.remove(batch.target, batch);
+            batch.sealed = true;
+            if (batch.joining == 0) {
+                dispatch(batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // under lock
+    private void dispatch(Batch batch) {
+        if (batch.transactions.isEmpty()) {
+            return;
+        }
+        // transactions are already pending
+        ready.add(new Entry(
+            batch.transactions.getFirst(),
+            batch.withdrawalId,
+            batch.address,
+            batch.amount,
+            List.copyOf(batch.transactions),
+            false,
+            0));
+    }
+
+    private void send() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final Entry entry;
+            try {
+                entry = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            send(entry);
+        }
+    }
+
+    private void send(Entry entry) {
+        try {
+            if (!entry.recovered || !known(entry.withdrawalId)) {
+                withdrawalService.requestWithdrawal(entry.withdrawalId, entry.address, entry.amount);
+            }
+        } catch (IllegalArgumentException e) {
+            // provider has a different withdrawal under this id, this one will never go through
+            try {
+                entry.transactions.forEach(ledger::fail);
+            } finally {
+                entry.transactions.forEach(pending::remove);
+            }
+            return;
+        } catch (RuntimeException e) {
+            failedSends.increment();
+            final var attempts = entry.attempt + 1;
+            if (attempts >= maxAttempts) {
+                abandoned.increment();
+                log.error("Giving up on withdrawal {} after {} attempts, it's sent again on the next start", entry.withdrawalId.value(), attempts, e);
+                return;
+            }
+            log.warn("Failed to send withdrawal {}, attempt {}, retrying", entry.withdrawalId.value(), attempts, e);
+            retry(entry);
+            return;
+        }
+
+        if (entry.recovered) {
+            pollScheduler.recover(entry.id, entry.amount, entry.transactions);
+        } else {
+            pollScheduler.track(entry.id, entry.amount, entry.transactions);
+        }
+        entry.transactions.forEach(pending::remove);
+    }
+
+    /**
+     * @return whether the provider already has a request under the id, one sent before a restart is tracked as is
+     * rather than sent again
+     */
+    private boolean known(WithdrawalId id) {
+        try {
+            withdrawalService.getRequestState(id);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void retry(Entry entry) {
+        var backoff = minBackoff;
+        for (var i = 0; i < entry.attempt && backoff.compareTo(maxBackoff) < 0; i++) {
+            backoff = backoff.multipliedBy(2);
+        }
+        backoff = backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+        final var delay = backoff.toNanos() / 2 + ThreadLocalRandom.current().nextLong(backoff.toNanos() / 2 + 1);
+        final var next = new Entry(entry.id, entry.withdrawalId, entry.address, entry.amount, entry.transactions, entry.recovered, entry.attempt + 1);
+        if (!timer.isShutdown()) {
+            timer.schedule(() -> ready.add(next), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static WithdrawalId withdrawalId(ExternalRef ref) {
+        return new WithdrawalId(UUID.fromString(ref.value()));
+    }
+
+    /**
+     * @param id           one of the transactions, the one the provider is later asked about
+     * @param transactions every transaction the request settles, just {@code id} unless netted
+     * @param recovered    whether it was found pending on startup, so its age is unknown
+     */
+    private record Entry(TransactionId id,
+                         WithdrawalId withdrawalId,
+                         Address address,
+                         Money amount,
+                         List<TransactionId> transactions,
+                         boolean recovered,
+                         int attempt) {
+    }
+
+    /**
+     * Withdrawals to one external account collected during a netting window, guarded by the outbox lock.
+     */
+    private static final class Batch {
+        private final AccountId target;
+        private final WithdrawalId withdrawalId;
+        private final Address address;
+        private final List<TransactionId> transactions = new ArrayList<>();
+        private Money amount = Money.zero();
+        private int joining;
+        private boolean sealed;
+
+        private Batch(AccountId target, WithdrawalId withdrawalId, Address address) {
+            this.target = target;
+            this.withdrawalId = withdrawalId;
+            this.address = address;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.random.RandomGenerator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decides when each pending withdrawal is next checked with the provider, so checks follow how long withdrawals
+ * actually take instead of hitting every pending one on every run.
+ * <p>
+ * The first check of a withdrawal comes after the median completion time observed so far, bounded by the minimum and
+ * maximum delay, every further one after twice the previous delay up to the maximum. Each delay is jittered down by
+ * up to a half so withdrawals requested together don't come due together. Withdrawals of at least the priority amount
+ * are checked twice as often.
+ * <p>
+ * Withdrawals wait in a {@link TimingWheel} of {@link #TICK} ticks, finding the due ones costs nothing per withdrawal
+ * that isn't due.
+ */
+public class WithdrawalPollScheduler {
+    public static final Duration TICK = Duration.ofMillis(100);
+
+    private final Duration minDelay;
+    private final Duration maxDelay;
+    private final Optional<Money> priorityAmount;
+    private final LongSupplier clock;
+    private final RandomGenerator random;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private final TimingWheel<Poll> wheel;
+    private final Map<TransactionId, Poll> tracked = new HashMap<>();
+    private final List<Poll> recovered = new ArrayList<>();
+    private final LatencyHistogram completionTimes = new LatencyHistogram();
+    private volatile Duration firstDelay;
+
+    public WithdrawalPollScheduler(Duration minDelay, Duration maxDelay, Optional<Money> priorityAmount) {
+        this(minDelay, maxDelay, priorityAmount, System::currentTimeMillis, RandomGenerator.getDefault());
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    public WithdrawalPollScheduler(Duration minDelay,
+                                   Duration maxDelay,
+                                   Optional<Money> priorityAmount,
+                                   LongSupplier clock,
+                                   RandomGenerator random) {
+        if (minDelay.compareTo(TICK) < 0 || maxDelay.compareTo(minDelay) < 0) {
+            throw new IllegalArgumentException("Poll delays must satisfy %s <= min <= max, got %s and %s".formatted(TICK, minDelay, maxDelay));
+        }
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.priorityAmount = requireNonNull(priorityAmount);
+        this.clock = requireNonNull(clock);
+        this.random = requireNonNull(random);
+        this.wheel = new TimingWheel<>(tick(clock.getAsLong()));
+        this.firstDelay = minDelay;
+    }
+
+    /**
+     * Schedules the first check of a withdrawal just requested, its completion time will feed the delays.
+     */
+    public void track(TransactionId id, Money amount) {
+        track(id, amount, List.of(id));
+    }
+
+    /**
+     * Schedules the first check of a netted withdrawal, its outcome applies to each of {@code transactions}.
+     *
+     * @param id one of the transactions, the one the provider is asked about
+     */
+    public void track(TransactionId id, Money amount, List<TransactionId> transactions) {
+        track(id, amount, transactions, true);
+    }
+
+    /**
+     * Schedules a withdrawal of unknown age, e.g. one found pending on startup, for a check right away.
+     */
+    public void recover(TransactionId id, Money amount) {
+        recover(id, amount, List.of(id));
+    }
+
+    public void recover(TransactionId id, Money amount, List<TransactionId> transactions) {
+        track(id, amount, transactions, false);
+    }
+
+    /**
+     * Removes and returns the withdrawals due for a check, each is expected back in {@link #processing} or
+     * {@link #finalized}.
+     */
+    public List<Poll> due() {
+        final var due = new ArrayList<Poll>();
+        lock.lock();
+        try {
+            due.addAll(recovered);
+            recovered.clear();
+            wheel.advance(tick(clock.getAsLong()), due);
+        } finally {
+            lock.unlock();
+        }
+        return due;
+    }
+
+    /**
+     * Schedules the next check of a withdrawal still in progress.
+     */
+    public void processing(Poll poll) {
+        final var next = new Poll(poll.id, poll.amount, poll.transactions, poll.trackedAt, poll.observed, poll.attempt + 1);
+        lock.lock();
+        try {
+            if (tracked.replace(poll.id, poll, next)) {
+                wheel.schedule(next, tick(clock.getAsLong() + jittered(delay(next)).toMillis()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void finalized(Poll poll) {
+        final var now = clock.getAsLong();
+        lock.lock();
+        try {
+            tracked.remove(poll.id, poll);
+        } finally {
+            lock.unlock();
+        }
+        if (poll.observed) {
+            completionTimes.record(Duration.ofMillis(now - poll.trackedAt).toNanos());
+            firstDelay = clamp(Duration.ofNanos(completionTimes.summary().p50Nanos()));
+        }
+    }
+
+    public int tracked() {
+        lock.lock();
+        try {
+            return tracked.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delay before the check after {@code poll.attempt()} unanswered ones, before jitter.
+     */
+    Duration delay(Poll poll) {
+        var delay = firstDelay;
+        for (var i = 0; i < poll.attempt && delay.compareTo(maxDelay) < 0; i++) {
+            delay = delay.multipliedBy(2);
+        }
+        if (priorityAmount.isPresent() && poll.amount.compareTo(priorityAmount.get()) >= 0) {
+            delay = delay.dividedBy(2);
+        }
+        return clamp(delay);
+    }
+
+    private void track(TransactionId id, Money amount, List<TransactionId> transactions, boolean observed) {
+        final var now = clock.getAsLong();
+        final var poll = new Poll(id, amount, List.copyOf(transactions), now, observed, 0);
+        lock.lock();
+        try {
+            if (tracked.putIfAbsent(id, poll) == null) {
+                if (observed) {
+                    wheel.schedule(poll, tick(now + jittered(delay(poll)).toMillis()));
+                } else {
+                    recovered.add(poll);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Duration jittered(Duration delay) {
+        return delay.minus(Duration.ofNanos((long) (random.nextDouble() * delay.toNanos() / 2)));
+    }
+
+    private Duration clamp(Duration delay) {
+        return delay.compareTo(minDelay) < 0 ? minDelay : delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+
+    private static long tick(long millis) {
+        return millis / TICK.toMillis();
+    }
+
+    /**
+     * @param transactions every transaction the withdrawal settles, just {@code id} unless it was netted
+     * @param trackedAt    when the withdrawal was tracked, in clock milliseconds
+     * @param observed     whether it was tracked when requested, so its completion time is known
+     * @param attempt      checks answered with processing so far
+     */
+    public record Poll(TransactionId id, Money amount, List<TransactionId> transactions, long trackedAt, boolean observed, int attempt) {
+    }
+}
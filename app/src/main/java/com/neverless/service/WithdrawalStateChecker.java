@@ -1,42 +1,192 @@
 package com.neverless.service;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.neverless.domain.Money;
+import com.neverless.domain.transaction.Transaction;
 import com.neverless.domain.transaction.WithdrawalTransactionState;
 import com.neverless.domain.transaction.TransactionId;
 import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.integration.RequestDeadline;
 import com.neverless.integration.WithdrawalService;
 import com.neverless.integration.WithdrawalService.WithdrawalId;
+import com.neverless.integration.WithdrawalService.WithdrawalState;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.metrics.ServerTiming;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Predicate;
 
+/**
+ * Asks the provider for the state of withdrawals. Clients polling {@link #withdrawalState} are answered locally once
+ * the transaction is finalized, and from a short lived cache while the provider reports it processing, so they don't
+ * turn into provider calls one for one. {@link #checkWithdrawState} always asks the provider, it's the one that
+ * notices a withdrawal is done.
+ * <p>
+ * Concurrent requests for the state of the same withdrawal share one provider call, which the {@link Hedger} makes
+ * again if it's slow; client reads and background polls never share one. A withdrawal the provider hasn't been sent
+ * yet is reported processing without asking it, as is one the provider can't be asked about right now: it's still
+ * pending here, which is as much as anyone knows.
+ */
 public class WithdrawalStateChecker {
+    public static final Duration DEFAULT_CACHE_TTL = Duration.ofSeconds(1);
+    public static final long DEFAULT_CACHE_SIZE = 100_000;
+
     private final WithdrawalService<Money> withdrawalService;
     private final TransactionRepository transactionRepository;
+    private final Predicate<TransactionId> undispatched;
+    private final Hedger hedger;
+    private final Cache<TransactionId, WithdrawalTransactionState> processing;
+    private final SingleFlight<Flight, WithdrawalService.WithdrawalState> requests = new SingleFlight<>();
 
     public WithdrawalStateChecker(WithdrawalService<Money> withdrawalService,
                                   TransactionRepository transactionRepository) {
+        this(withdrawalService, transactionRepository, id -> false);
+    }
+
+    /**
+     * @param undispatched whether a pending withdrawal is still waiting to be sent to the provider
+     */
+    public WithdrawalStateChecker(WithdrawalService<Money> withdrawalService,
+                                  TransactionRepository transactionRepository,
+                                  Predicate<TransactionId> undispatched) {
+        this(withdrawalService, transactionRepository, undispatched, Hedger.none());
+    }
+
+    public WithdrawalStateChecker(WithdrawalService<Money> withdrawalService,
+                                  TransactionRepository transactionRepository,
+                                  Predicate<TransactionId> undispatched,
+                                  Hedger hedger) {
+        this(withdrawalService, transactionRepository, undispatched, hedger, DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE, Ticker.systemTicker());
+    }
+
+    public WithdrawalStateChecker(WithdrawalService<Money> withdrawalService,
+                                  TransactionRepository transactionRepository,
+                                  Predicate<TransactionId> undispatched,
+                                  Hedger hedger,
+                                  Duration cacheTtl,
+                                  long cacheSize,
+                                  Ticker ticker) {
         this.withdrawalService = withdrawalService;
         this.transactionRepository = transactionRepository;
+        this.undispatched = undispatched;
+        this.hedger = hedger;
+        this.processing = CacheBuilder.newBuilder()
+            .expireAfterWrite(cacheTtl)
+            .maximumSize(cacheSize)
+            .ticker(ticker)
+            .recordStats()
+            .build();
     }
 
+    /**
+     * Current state as the provider reports it.
+     */
     public Optional<WithdrawalTransactionState> checkWithdrawState(TransactionId id) {
         final var transaction = transactionRepository.get(id);
+        if (transaction.externalRef().isEmpty()) {
+            return Optional.empty();
+        }
+        return requestState(transaction);
+    }
 
+    /**
+     * State for clients, possibly up to the cache TTL behind the provider while the withdrawal is processing.
+     */
+    public Optional<WithdrawalTransactionState> withdrawalState(TransactionId id) {
+        final var transaction = transactionRepository.get(id);
         if (transaction.externalRef().isEmpty()) {
             return Optional.empty();
         }
+        return switch (transaction.state()) {
+            case COMPLETED -> Optional.of(WithdrawalTransactionState.COMPLETED);
+            case FAILED -> Optional.of(WithdrawalTransactionState.FAILED);
+            case PENDING -> undispatched.test(id)
+                ? Optional.of(WithdrawalTransactionState.PROCESSING)
+                : Optional.ofNullable(processing.getIfPresent(id)).or(() -> requestStateOrPending(transaction));
+        };
+    }
+
+    public CacheStats cacheStats() {
+        return processing.stats();
+    }
+
+    /**
+     * @return state requests made to the provider
+     */
+    public long providerCalls() {
+        return requests.calls();
+    }
+
+    /**
+     * Cached states only count their own entries, ids being those of the stored transactions.
+     */
+    public void registerCensus(MemoryCensus census) {
+        census.register("withdrawal_state_cache", MemoryCensus.Entity.OTHER, MemoryCensus.CACHE_ENTRY_BYTES, new MemoryCensus.Population() {
+            @Override
+            public long size() {
+                return processing.size();
+            }
+
+            @Override
+            public void sample(int limit, MemoryCensus.Sample sample) {
+                // entries keep nothing alive of their own
+            }
+        });
+    }
+
+    /**
+     * @return state requests that shared a call already in flight for the same withdrawal
+     */
+    public long coalescedCalls() {
+        return requests.coalesced();
+    }
+
+    private Optional<WithdrawalTransactionState> requestStateOrPending(Transaction transaction) {
+        try {
+            return requestState(transaction);
+        } catch (ProviderUnavailableException e) {
+            return Optional.of(WithdrawalTransactionState.PROCESSING);
+        }
+    }
 
+    private Optional<WithdrawalTransactionState> requestState(Transaction transaction) {
         final var withdrawalId = new WithdrawalId(UUID.fromString(transaction.externalRef().get().value()));
 
         try {
-            return Optional.of(switch (withdrawalService.getRequestState(withdrawalId)) {
+            final var state = switch (providerState(withdrawalId)) {
                 case FAILED -> WithdrawalTransactionState.FAILED;
                 case COMPLETED -> WithdrawalTransactionState.COMPLETED;
                 case PROCESSING -> WithdrawalTransactionState.PROCESSING;
-            });
+            };
+            if (state == WithdrawalTransactionState.PROCESSING) {
+                processing.put(transaction.id(), state);
+            } else {
+                processing.invalidate(transaction.id());
+            }
+            return Optional.of(state);
         } catch (IllegalArgumentException e) {
             return Optional.empty();
         }
     }
+
+    private WithdrawalState providerState(WithdrawalId withdrawalId) {
+        final var started = System.nanoTime();
+        try {
+            final var flight = new Flight(withdrawalId, RequestDeadline.current().isPresent());
+            return requests.call(flight, () -> hedger.call(() -> withdrawalService.getRequestState(withdrawalId)));
+        } finally {
+            ServerTiming.record("provider", System.nanoTime() - started);
+        }
+    }
+
+    // client reads and background polls call the provider under different deadlines and bulkheads, so never share a call
+    private record Flight(WithdrawalId withdrawalId, boolean userFacing) {
+
+    }
 }
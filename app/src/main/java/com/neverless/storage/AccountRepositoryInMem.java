@@ -1,90 +1,316 @@
 package com.neverless.storage;
 
-import com.google.common.util.concurrent.Striped;
+import com.neverless.domain.Money;
 import com.neverless.domain.account.ExternalAddress;
 import com.neverless.domain.account.Account;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.account.AccountType;
 import com.neverless.domain.account.ExternalAccount;
 import com.neverless.exceptions.NotFoundException;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.function.Supplier;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Maps every account to a dense int slot once, when it's added. Balances live in primitive arrays indexed by slot,
+ * so changing one allocates nothing; {@link Account} objects are built only when someone reads the account.
+ * <p>
+ * Every slot has a version word next to the balance: even while the slot is idle, odd while a writer holds it.
+ * Writers take the slot by a CAS on the version word and release it with the next even value, so the pair of balance
+ * and version is always consistent. Balance changes are journaled after the slot is released, possibly out of
+ * order with other changes of the same account, and carry the version to let replay keep the latest one. Without a
+ * journal no record is built at all, so a balance change allocates nothing.
+ */
 public class AccountRepositoryInMem implements AccountRepository {
-    private final Striped<Lock> locks = Striped.lock(100);
-    private final Map<AccountId, Account> storage = new ConcurrentHashMap<>();
-    private final Map<ExternalAddress, ExternalAccount> storageByExternalAddress = new ConcurrentHashMap<>();
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // spins on a taken balance slot before yielding, its holder may have been descheduled mid-write
+    private static final int LOCK_SPINS = 100;
+
+    private final Map<AccountId, Integer> slots = new ConcurrentHashMap<>();
+    private final Map<ExternalAddress, Integer> slotsByExternalAddress = new ConcurrentHashMap<>();
+    private final ReentrantLock addLock = new ReentrantLock();
+    private final LongAdder contendedWrites = new LongAdder();
+    private final Journal journal;
+    private final boolean journaled;
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private int allocated;
+
+    public AccountRepositoryInMem() {
+        this(Journal.NONE);
+    }
+
+    public AccountRepositoryInMem(Journal journal) {
+        this.journal = requireNonNull(journal);
+        this.journaled = journal != Journal.NONE;
+    }
 
     @Override
     public Optional<Account> find(AccountId id) {
-        return Optional.ofNullable(storage.get(id));
+        final var slot = slots.get(id);
+        return slot == null ? Optional.empty() : Optional.of(view(slot));
     }
 
     @Override
     public Account get(AccountId id) {
-        final var result = storage.get(id);
-        if (result == null) {
-            throw new NotFoundException("Account %s does not exists.".formatted(id));
-        }
-        return result;
+        return view(slotOf(id));
     }
 
     @Override
-    public Account update(Account account) {
-        return withLockByAccount(account.id, () -> storage.compute(account.id, (_, currentValue) -> {
-            if (currentValue == null) {
-                throw new NotFoundException("Account %s does not exists.".formatted(account.id.value()));
-            }
-
-            if (account instanceof ExternalAccount externalAccount) {
-                if (!storageByExternalAddress.containsKey(externalAccount.externalAddress)) {
-                    throw new IllegalStateException("Mismatch between account id %s and external address %s"
-                            .formatted(account.id.value(), externalAccount.externalAddress.value()));
-                }
-                storageByExternalAddress.put(externalAccount.externalAddress, externalAccount);
-            }
-            return account;
-        }));
+    public Optional<ExternalAccount> find(ExternalAddress externalAddress) {
+        final var slot = slotsByExternalAddress.get(externalAddress);
+        return slot == null ? Optional.empty() : Optional.of((ExternalAccount) view(slot));
     }
 
     @Override
-    public Optional<ExternalAccount> find(ExternalAddress externalAddress) {
-        return Optional.ofNullable(storageByExternalAddress.get(externalAddress));
+    public AccountType type(AccountId id) {
+        final var slot = slotOf(id);
+        return chunks[slot >>> CHUNK_BITS].accounts[slot & CHUNK_MASK].type;
     }
 
     @Override
     public Account add(Account account) {
-        return withLockByAccount(account.id, () -> {
-            if (storage.containsKey(account.id)) {
+        final long sequence;
+        addLock.lock();
+        try {
+            if (slots.containsKey(account.id)) {
+                throw new IllegalStateException("Attempting to add account %s which is already present".formatted(account.id.value()));
+            }
+            if (account instanceof ExternalAccount externalAccount && slotsByExternalAddress.containsKey(externalAccount.externalAddress)) {
                 throw new IllegalStateException("Attempting to add account %s which is already present".formatted(account.id.value()));
             }
 
-            if (account instanceof ExternalAccount externalAccount) {
-                if (storageByExternalAddress.containsKey(externalAccount.externalAddress)) {
-                    throw new IllegalStateException("Attempting to add account %s which is already present".formatted(account.id.value()));
-                }
+            allocate(account, 0);
+            sequence = journal.append(new JournalRecord.AccountWritten(account, 0));
+        } finally {
+            addLock.unlock();
+        }
+        journal.awaitDurable(sequence);
+        return account;
+    }
+
+    @Override
+    public boolean debit(AccountId id, Money amount) {
+        return change(id, amount.units(), true);
+    }
 
-                storageByExternalAddress.put(externalAccount.externalAddress, externalAccount);
+    @Override
+    public void credit(AccountId id, Money amount) {
+        change(id, amount.units(), false);
+    }
+
+    /**
+     * Puts account as is, without validation or journaling, unless a later version of it is already present.
+     * Used to rebuild the repository from a snapshot and the journal, safe to call from several threads.
+     */
+    public void restore(JournalRecord.AccountWritten written) {
+        final var account = written.account();
+        var slot = slots.get(account.id);
+        if (slot == null) {
+            addLock.lock();
+            try {
+                slot = slots.get(account.id);
+                if (slot == null) {
+                    allocate(account, written.version());
+                    return;
+                }
+            } finally {
+                addLock.unlock();
             }
+        }
+        restoreBalance(slot, account.balance, written.version());
+    }
 
-            storage.put(account.id, account);
+    /**
+     * Applies a journaled balance unless a later version of it is already present.
+     */
+    public void restore(JournalRecord.BalanceChanged changed) {
+        final var slot = slots.get(changed.id());
+        if (slot == null) {
+            throw new IllegalStateException("Balance of account %s changed before it was added".formatted(changed.id().value()));
+        }
+        restoreBalance(slot, changed.balance(), changed.version());
+    }
 
-            return account;
-        });
+    /**
+     * Feeds every account with its version to the consumer without blocking writers. Used for snapshots: a change
+     * is visible here before its journal record gets a sequence, so the scan reflects at least everything journaled
+     * before it started.
+     */
+    public void scan(Consumer<JournalRecord.AccountWritten> consumer) {
+        final var current = chunks;
+        for (final var slot : slots.values()) {
+            final var chunk = current[slot >>> CHUNK_BITS];
+            final var index = slot & CHUNK_MASK;
+            long word;
+            long balance;
+            do {
+                word = chunk.versions.get(index);
+                balance = chunk.balances.get(index);
+            } while ((word & 1) != 0 || chunk.versions.get(index) != word);
+            consumer.accept(new JournalRecord.AccountWritten(chunk.accounts[index].withBalance(new Money(balance)), word >>> 1));
+        }
     }
 
-    private <T> T withLockByAccount(AccountId id, Supplier<T> executable) {
-        final var lock = locks.get(id.value());
-        lock.lock();
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Slots count the account they hold and its balance and version words, the external address index only its own
+     * entry and boxed slot, its keys being the accounts' addresses.
+     */
+    public void registerCensus(MemoryCensus census) {
+        census.register("accounts.slots", MemoryCensus.Entity.ACCOUNT,
+            MemoryCensus.HASH_MAP_ENTRY_BYTES + MemoryCensus.REFERENCE_BYTES + 2 * Long.BYTES,
+            new MemoryCensus.Population() {
+                @Override
+                public long size() {
+                    return slots.size();
+                }
 
+                @Override
+                public void sample(int limit, MemoryCensus.Sample sample) {
+                    slots.entrySet().stream().limit(limit).forEach(entry -> {
+                        final var slot = entry.getValue();
+                        sample.entry(entry.getKey(), slot, chunks[slot >>> CHUNK_BITS].accounts[slot & CHUNK_MASK]);
+                    });
+                }
+            });
+        census.register("accounts.slots_by_external_address", MemoryCensus.Entity.ACCOUNT, MemoryCensus.HASH_MAP_ENTRY_BYTES,
+            new MemoryCensus.Population() {
+                @Override
+                public long size() {
+                    return slotsByExternalAddress.size();
+                }
+
+                @Override
+                public void sample(int limit, MemoryCensus.Sample sample) {
+                    slotsByExternalAddress.values().stream().limit(limit).forEach(sample::entry);
+                }
+            });
+    }
+
+    /**
+     * @return balance changes that found their slot taken by another writer and had to spin
+     */
+    public long contendedWrites() {
+        return contendedWrites.sum();
+    }
+
+    private boolean change(AccountId id, long units, boolean debit) {
+        final var slot = slotOf(id);
+        final var chunk = chunks[slot >>> CHUNK_BITS];
+        final var index = slot & CHUNK_MASK;
+
+        final var word = lock(chunk, index);
+        var released = word;
+        final long balance;
         try {
-            return executable.get();
+            final var current = chunk.balances.get(index);
+            if (debit && current < units) {
+                return false;
+            }
+            balance = debit ? Math.subtractExact(current, units) : Math.addExact(current, units);
+            chunk.balances.set(index, balance);
+            released = word + 2;
         } finally {
-            lock.unlock();
+            chunk.versions.set(index, released);
         }
+
+        if (journaled) {
+            journal.awaitDurable(journal.append(new JournalRecord.BalanceChanged(id, new Money(balance), released >>> 1)));
+        }
+        return true;
+    }
+
+    private void restoreBalance(int slot, Money balance, long version) {
+        final var chunk = chunks[slot >>> CHUNK_BITS];
+        final var index = slot & CHUNK_MASK;
+
+        final var word = lock(chunk, index);
+        var released = word;
+        try {
+            if (version > word >>> 1) {
+                chunk.balances.set(index, balance.units());
+                released = version << 1;
+            }
+        } finally {
+            chunk.versions.set(index, released);
+        }
+    }
+
+    private long lock(Chunk chunk, int index) {
+        for (var spins = 0; ; spins++) {
+            final var word = chunk.versions.get(index);
+            if ((word & 1) == 0 && chunk.versions.compareAndSet(index, word, word + 1)) {
+                return word;
+            }
+            if (spins == 0) {
+                contendedWrites.increment();
+            }
+            if (spins < LOCK_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    // guarded by addLock
+    private void allocate(Account account, long version) {
+        final var slot = allocated;
+        if (slot == chunks.length * CHUNK_SIZE) {
+            final var grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new Chunk();
+            chunks = grown;
+        }
+        final var chunk = chunks[slot >>> CHUNK_BITS];
+        final var index = slot & CHUNK_MASK;
+        chunk.accounts[index] = account;
+        chunk.balances.set(index, account.balance.units());
+        chunk.versions.set(index, version << 1);
+        allocated++;
+
+        // publishing the slot through the maps makes the writes above visible to readers that find it
+        if (account instanceof ExternalAccount externalAccount) {
+            slotsByExternalAddress.put(externalAccount.externalAddress, slot);
+        }
+        slots.put(account.id, slot);
+    }
+
+    private int slotOf(AccountId id) {
+        final var slot = slots.get(id);
+        if (slot == null) {
+            throw new NotFoundException("Account %s does not exists.".formatted(id));
+        }
+        return slot;
+    }
+
+    private Account view(int slot) {
+        final var chunk = chunks[slot >>> CHUNK_BITS];
+        final var index = slot & CHUNK_MASK;
+        return chunk.accounts[index].withBalance(new Money(chunk.balances.get(index)));
+    }
+
+    private static final class Chunk {
+        // balance here is the one account was added with, the current one is in balances
+        private final Account<?>[] accounts = new Account<?>[CHUNK_SIZE];
+        private final AtomicLongArray balances = new AtomicLongArray(CHUNK_SIZE);
+        private final AtomicLongArray versions = new AtomicLongArray(CHUNK_SIZE);
     }
 }
@@ -0,0 +1,174 @@
+package com.neverless.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.IdempotencyKeyRepository;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps keys for {@code ttl} after they were recorded, and no more than {@code maxKeys} of them, evicting the least
+ * recently used ones first.
+ * <p>
+ * A key is journaled ahead of its transaction, with the id the transaction is then created under. A crash may keep the
+ * key without the transaction but never the transaction without the key, and restoring drops keys whose transaction
+ * isn't there, so a retry either gets the withdrawal the key made or makes it.
+ */
+public class IdempotencyKeyRepositoryInMem implements IdempotencyKeyRepository {
+    public static final Duration DEFAULT_TTL = Duration.ofHours(24);
+    public static final long DEFAULT_MAX_KEYS = 1_000_000;
+
+    private final Cache<Key, JournalRecord.IdempotencyKeyRecorded> keys;
+    // keys journaled ahead of their transaction that is still being created, not in keys yet
+    private final Map<Key, JournalRecord.IdempotencyKeyRecorded> creating = new ConcurrentHashMap<>();
+    private final Journal journal;
+    private final Duration ttl;
+    private final Clock clock;
+
+    public IdempotencyKeyRepositoryInMem() {
+        this(Journal.NONE);
+    }
+
+    public IdempotencyKeyRepositoryInMem(Journal journal) {
+        this(journal, DEFAULT_TTL, DEFAULT_MAX_KEYS, Clock.systemUTC());
+    }
+
+    public IdempotencyKeyRepositoryInMem(Journal journal, Duration ttl, long maxKeys, Clock clock) {
+        if (!ttl.isPositive() || maxKeys < 1) {
+            throw new IllegalArgumentException("Idempotency keys need positive ttl and max keys, got %s and %s".formatted(ttl, maxKeys));
+        }
+        this.journal = requireNonNull(journal);
+        this.ttl = ttl;
+        this.clock = requireNonNull(clock);
+        this.keys = CacheBuilder.newBuilder()
+            .maximumSize(maxKeys)
+            .expireAfterWrite(ttl)
+            .build();
+    }
+
+    @Override
+    public TransactionId computeIfAbsent(AccountId account, String key, Function<TransactionId, TransactionId> create) {
+        final var cacheKey = new Key(account, key);
+        while (true) {
+            final var created = new JournalRecord.IdempotencyKeyRecorded[1];
+            final var sequence = new long[1];
+            final JournalRecord.IdempotencyKeyRecorded recorded;
+            try {
+                recorded = keys.get(cacheKey, () -> create(cacheKey, create, created, sequence));
+            } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+                throw unwrap(e.getCause());
+            } finally {
+                if (created[0] != null) {
+                    creating.remove(cacheKey, created[0]);
+                }
+            }
+
+            if (created[0] != null) {
+                journal.awaitDurable(sequence[0]);
+                return recorded.transactionId();
+            }
+            if (!expired(recorded)) {
+                return recorded.transactionId();
+            }
+            keys.asMap().remove(cacheKey, recorded);
+        }
+    }
+
+    private JournalRecord.IdempotencyKeyRecorded create(Key cacheKey,
+                                                        Function<TransactionId, TransactionId> create,
+                                                        JournalRecord.IdempotencyKeyRecorded[] created,
+                                                        long[] sequence) {
+        final var recorded = new JournalRecord.IdempotencyKeyRecorded(cacheKey.account(), cacheKey.value(), TransactionId.random(), clock.instant());
+        // visible to snapshots before it's journaled, so a snapshot either sees the key or covers less than its record
+        created[0] = recorded;
+        creating.put(cacheKey, recorded);
+        sequence[0] = journal.append(recorded);
+        final var transactionId = create.apply(recorded.transactionId());
+        if (!recorded.transactionId().equals(transactionId)) {
+            throw new IllegalStateException("Transaction for idempotency key was created under %s instead of %s".formatted(transactionId, recorded.transactionId()));
+        }
+        return recorded;
+    }
+
+    /**
+     * Puts the key as is, without journaling, unless it has expired. Used to rebuild the repository from the journal.
+     */
+    public void restore(JournalRecord.IdempotencyKeyRecorded recorded) {
+        if (!expired(recorded)) {
+            keys.put(new Key(recorded.account(), recorded.key()), recorded);
+        }
+    }
+
+    /**
+     * Drops keys whose transaction was never recorded, its creation having failed or been cut short by a crash. Used
+     * once the repository is rebuilt from the journal.
+     */
+    public void dropUnresolved(Predicate<TransactionId> recorded) {
+        keys.asMap().values().removeIf(key -> !recorded.test(key.transactionId()));
+    }
+
+    /**
+     * Feeds every live key to the consumer, including ones whose transaction is still being created. Used for
+     * snapshots, keys are journaled after they become visible so the scan reflects at least everything journaled before
+     * it started. Keys being created are scanned first, one that is done in between is then found among the others.
+     */
+    public void scan(Consumer<JournalRecord.IdempotencyKeyRecorded> consumer) {
+        creating.values().forEach(consumer);
+        for (final var recorded : keys.asMap().values()) {
+            if (!expired(recorded)) {
+                consumer.accept(recorded);
+            }
+        }
+    }
+
+    public long size() {
+        return keys.size();
+    }
+
+    public void registerCensus(MemoryCensus census) {
+        census.register("idempotency_keys", MemoryCensus.Entity.OTHER, MemoryCensus.CACHE_ENTRY_BYTES, new MemoryCensus.Population() {
+            @Override
+            public long size() {
+                return keys.size();
+            }
+
+            @Override
+            public void sample(int limit, MemoryCensus.Sample sample) {
+                keys.asMap().entrySet().stream().limit(limit).forEach(entry -> sample.entry(entry.getKey(), entry.getValue()));
+            }
+        });
+    }
+
+    private boolean expired(JournalRecord.IdempotencyKeyRecorded recorded) {
+        return !clock.instant().isBefore(recorded.recordedAt().plus(ttl));
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException("Failed to create transaction for idempotency key", cause);
+    }
+
+    private record Key(AccountId account, String value) {
+    }
+}
@@ -0,0 +1,168 @@
+package com.neverless.storage;
+
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.metrics.MetricsRegistry;
+import com.neverless.service.ScheduledJobRunner;
+import com.neverless.storage.journal.FileJournal;
+import com.neverless.storage.journal.FsyncPolicy;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
+import com.neverless.storage.snapshot.RestoreStats;
+import com.neverless.storage.snapshot.SnapshotJob;
+import com.neverless.storage.snapshot.SnapshotStats;
+import com.neverless.storage.snapshot.SnapshotStore;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+
+public class Storage implements AutoCloseable {
+    public final AccountRepositoryInMem accounts;
+    public final TransactionRepositoryInMem transactions;
+    public final IdempotencyKeyRepositoryInMem idempotencyKeys;
+    private final Journal journal;
+
+    private SnapshotJob snapshots;
+    private ScheduledJobRunner snapshotRunner;
+    private RestoreStats restoreStats = new RestoreStats(0, Duration.ZERO, 0, Duration.ZERO);
+
+    private Storage(Journal journal, Duration idempotencyKeyTtl, long maxIdempotencyKeys) {
+        this.journal = journal;
+        this.accounts = new AccountRepositoryInMem(journal);
+        this.transactions = new TransactionRepositoryInMem(journal);
+        this.idempotencyKeys = new IdempotencyKeyRepositoryInMem(journal, idempotencyKeyTtl, maxIdempotencyKeys, Clock.systemUTC());
+    }
+
+    public static Storage inMemory() {
+        return inMemory(IdempotencyKeyRepositoryInMem.DEFAULT_TTL, IdempotencyKeyRepositoryInMem.DEFAULT_MAX_KEYS);
+    }
+
+    public static Storage inMemory(Duration idempotencyKeyTtl, long maxIdempotencyKeys) {
+        return new Storage(Journal.NONE, idempotencyKeyTtl, maxIdempotencyKeys);
+    }
+
+    /**
+     * Opens the journal in given directory and rebuilds repositories from it before returning.
+     */
+    public static Storage journaled(Path directory, FsyncPolicy fsyncPolicy) {
+        return journaled(directory, fsyncPolicy, Duration.ZERO);
+    }
+
+    /**
+     * Rebuilds repositories from the latest snapshot in {@code directory/snapshots}, loading its partitions on all
+     * cores, and replays only the journal written after it. With a positive snapshot interval a new snapshot is taken
+     * in the background right away and then periodically, each one deleting journal segments it covers.
+     */
+    public static Storage journaled(Path directory, FsyncPolicy fsyncPolicy, Duration snapshotInterval) {
+        return journaled(directory, fsyncPolicy, snapshotInterval, IdempotencyKeyRepositoryInMem.DEFAULT_TTL, IdempotencyKeyRepositoryInMem.DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * As {@link #journaled(Path, FsyncPolicy, Duration)}, keeping idempotency keys, expired ones aside, across restarts.
+     */
+    public static Storage journaled(Path directory,
+                                    FsyncPolicy fsyncPolicy,
+                                    Duration snapshotInterval,
+                                    Duration idempotencyKeyTtl,
+                                    long maxIdempotencyKeys) {
+        final var journal = FileJournal.open(directory, fsyncPolicy);
+        final var storage = new Storage(journal, idempotencyKeyTtl, maxIdempotencyKeys);
+        final var snapshotStore = new SnapshotStore(directory.resolve("snapshots"), Runtime.getRuntime().availableProcessors());
+
+        final var loadStarted = System.nanoTime();
+        final var coverSequence = snapshotStore.latest().orElse(0L);
+        var snapshotEntries = 0L;
+        if (coverSequence > 0) {
+            try (var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+                snapshotEntries = snapshotStore.restore(coverSequence, storage.accounts::restore, storage.transactions::restore, storage.idempotencyKeys::restore, executor);
+            }
+        }
+        final var replayStarted = System.nanoTime();
+        final var journalRecords = journal.replay(coverSequence, storage::restore);
+        storage.idempotencyKeys.dropUnresolved(id -> storage.transactions.find(id).isPresent());
+        storage.restoreStats = new RestoreStats(
+            snapshotEntries,
+            Duration.ofNanos(replayStarted - loadStarted),
+            journalRecords,
+            Duration.ofNanos(System.nanoTime() - replayStarted));
+
+        storage.snapshots = new SnapshotJob(journal, snapshotStore, storage.accounts::scan, storage.transactions::scan, storage.idempotencyKeys::scan);
+        if (snapshotInterval.isPositive()) {
+            storage.snapshotRunner = new ScheduledJobRunner(
+                Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("snapshot").daemon().factory()),
+                snapshotInterval,
+                storage.snapshots);
+            storage.snapshotRunner.start();
+        }
+        return storage;
+    }
+
+    private void restore(JournalRecord record) {
+        switch (record) {
+            case JournalRecord.AccountWritten written -> accounts.restore(written);
+            case JournalRecord.BalanceChanged changed -> accounts.restore(changed);
+            case JournalRecord.TransactionWritten written -> transactions.restore(written.transaction());
+            case JournalRecord.IdempotencyKeyRecorded recorded -> idempotencyKeys.restore(recorded);
+            case JournalRecord.Atomic atomic -> atomic.records().forEach(this::restore);
+        }
+    }
+
+    public Journal journal() {
+        return journal;
+    }
+
+    /**
+     * Takes a snapshot on the calling thread, no-op for in memory storage.
+     */
+    public void snapshot() {
+        if (snapshots != null) {
+            snapshots.run();
+        }
+    }
+
+    public Optional<SnapshotStats> lastSnapshot() {
+        return snapshots == null ? Optional.empty() : snapshots.last();
+    }
+
+    public RestoreStats restoreStats() {
+        return restoreStats;
+    }
+
+    public void registerMetrics(MetricsRegistry metrics) {
+        metrics.gauge("neverless_accounts", "Accounts in the repository", accounts::size);
+        metrics.gauge("neverless_transactions", "Transactions in the repository", transactions::size);
+        metrics.gauge("neverless_idempotency_keys", "Idempotency keys remembered", idempotencyKeys::size);
+        metrics.gauge("neverless_account_slot_contended_total", "Balance changes that waited for another writer of the same account", accounts::contendedWrites);
+        metrics.gauge("neverless_restore_snapshot_entries", "Entities loaded from the snapshot on startup", () -> restoreStats.snapshotEntries());
+        metrics.gauge("neverless_restore_snapshot_seconds", "Time spent loading the snapshot on startup", () -> seconds(restoreStats.snapshotLoad()));
+        metrics.gauge("neverless_restore_journal_records", "Journal records replayed after the snapshot on startup", () -> restoreStats.journalRecords());
+        metrics.gauge("neverless_restore_journal_seconds", "Time spent replaying the journal on startup", () -> seconds(restoreStats.journalReplay()));
+        metrics.gauge("neverless_restore_seconds", "Total startup recovery time", () -> seconds(restoreStats.total()));
+        metrics.gauge("neverless_snapshot_last_seconds", "Duration of the last snapshot", () -> lastSnapshot().map(stats -> seconds(stats.duration())).orElse(0.0));
+        metrics.gauge("neverless_snapshot_last_size_bytes", "Size of the last snapshot", () -> lastSnapshot().map(SnapshotStats::sizeBytes).orElse(0L));
+        metrics.gauge("neverless_snapshot_last_entries", "Entities in the last snapshot", () -> lastSnapshot().map(stats -> stats.accounts() + stats.transactions()).orElse(0L));
+        metrics.gauge("neverless_snapshot_last_cover_sequence", "Journal sequence covered by the last snapshot", () -> lastSnapshot().map(SnapshotStats::coverSequence).orElse(0L));
+        metrics.gauge("neverless_snapshots_completed_total", "Snapshots written since startup", () -> snapshots == null ? 0 : snapshots.completed());
+        metrics.gauge("neverless_snapshots_failed_total", "Snapshots failed since startup", () -> snapshots == null ? 0 : snapshots.failed());
+    }
+
+    public void registerCensus(MemoryCensus census) {
+        accounts.registerCensus(census);
+        transactions.registerCensus(census);
+        idempotencyKeys.registerCensus(census);
+    }
+
+    @Override
+    public void close() {
+        if (snapshotRunner != null) {
+            snapshotRunner.stop();
+        }
+        journal.close();
+    }
+
+    private static double seconds(Duration duration) {
+        return duration.toNanos() / 1e9;
+    }
+}
@@ -2,13 +2,38 @@ package com.neverless.storage;
 
 import com.neverless.domain.transaction.*;
 import com.neverless.exceptions.NotFoundException;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
 
 public class TransactionRepositoryInMem implements TransactionRepository {
     private final Map<TransactionId, Transaction> storage = new ConcurrentHashMap<>();
+    private final Map<TransactionType, Map<TransactionState, Set<TransactionId>>> index = new EnumMap<>(TransactionType.class);
+    // refs are set once, so entries are only ever added; more than one id per ref only for netted withdrawals
+    private final Map<ExternalRef, List<TransactionId>> byRef = new ConcurrentHashMap<>();
+
+    private final Journal journal;
+
+    public TransactionRepositoryInMem() {
+        this(Journal.NONE);
+    }
+
+    public TransactionRepositoryInMem(Journal journal) {
+        this.journal = requireNonNull(journal);
+        for (final var type : TransactionType.values()) {
+            final var byState = new EnumMap<TransactionState, Set<TransactionId>>(TransactionState.class);
+            for (final var state : TransactionState.values()) {
+                byState.put(state, ConcurrentHashMap.newKeySet());
+            }
+            index.put(type, byState);
+        }
+    }
 
     @Override
     public Optional<Transaction> find(TransactionId id) {
@@ -21,37 +46,185 @@ public class TransactionRepositoryInMem implements TransactionRepository {
         if (result == null) {
             throw new NotFoundException("Transaction %s does not exist.".formatted(id.value()));
         }
-        return storage.get(id);
+        return result;
     }
 
+    /**
+     * A transaction is indexed under its new state before the new value is published and unindexed from the old one
+     * only after, so one changing state while the index is read is always found under one state or the other. Ids are
+     * read through to the stored value, which decides whether and in what state the transaction is returned.
+     */
     @Override
     public Collection<Transaction> find(TransactionType type, TransactionState... states) {
-        final var stateSet = Arrays.stream(states).collect(Collectors.toSet());
-        return storage
-            .values()
-            .stream()
-            .filter(transaction -> transaction.type().equals(type))
-            .filter(transaction -> stateSet.contains(transaction.state()))
-            .toList();
+        final var result = new LinkedHashMap<TransactionId, Transaction>();
+        final var stateSet = EnumSet.noneOf(TransactionState.class);
+        stateSet.addAll(Arrays.asList(states));
+        for (final var state : stateSet) {
+            for (final var id : index.get(type).get(state)) {
+                final var transaction = storage.get(id);
+                if (transaction != null && transaction.type() == type && stateSet.contains(transaction.state())) {
+                    result.putIfAbsent(id, transaction);
+                }
+            }
+        }
+        return new ArrayList<>(result.values());
     }
 
     @Override
-    public Transaction add(Transaction transaction) {
-        if (storage.containsKey(transaction.id())) {
-            throw new IllegalStateException("Transaction %s already exists.".formatted(transaction.id().value()));
+    public Collection<Transaction> find(ExternalRef externalRef) {
+        final var result = new ArrayList<Transaction>();
+        for (final var id : byRef.getOrDefault(externalRef, List.of())) {
+            final var transaction = storage.get(id);
+            if (transaction != null) {
+                result.add(transaction);
+            }
         }
-        storage.put(transaction.id(), transaction);
+        return result;
+    }
+
+    @Override
+    public Transaction add(Transaction transaction) {
+        final var sequence = new long[1];
+        storage.compute(transaction.id(), (_, currentValue) -> {
+            if (currentValue != null) {
+                throw new IllegalStateException("Transaction %s already exists.".formatted(transaction.id().value()));
+            }
+
+            indexOf(transaction).add(transaction.id());
+            indexRef(transaction);
+            sequence[0] = journal.append(new JournalRecord.TransactionWritten(transaction));
+            return transaction;
+        });
+        journal.awaitDurable(sequence[0]);
         return transaction;
     }
 
     @Override
     public Transaction update(Transaction transaction) {
-        return storage.compute(transaction.id(), (_, currentValue) -> {
+        final var sequence = new long[1];
+        final var previous = new Transaction[1];
+        storage.compute(transaction.id(), (_, currentValue) -> {
             if (currentValue == null) {
                 throw new NotFoundException("Transaction %s does not exists.".formatted(transaction.id().value()));
             }
 
+            indexOf(transaction).add(transaction.id());
+            previous[0] = currentValue;
+            sequence[0] = journal.append(new JournalRecord.TransactionWritten(transaction));
             return transaction;
         });
+        unindex(previous[0]);
+        journal.awaitDurable(sequence[0]);
+        return transaction;
+    }
+
+    /**
+     * Puts transaction as is, without validation or journaling. Used to rebuild the repository from the journal.
+     */
+    public void restore(Transaction transaction) {
+        final var previous = new Transaction[1];
+        storage.compute(transaction.id(), (_, currentValue) -> {
+            indexOf(transaction).add(transaction.id());
+            if (currentValue == null) {
+                indexRef(transaction);
+            }
+            previous[0] = currentValue;
+            return transaction;
+        });
+        if (previous[0] != null) {
+            unindex(previous[0]);
+        }
+    }
+
+    /**
+     * Feeds every transaction to the consumer without blocking writers of other transactions. Used for snapshots:
+     * records are journaled inside compute, before the new value is visible, so each entry is read through compute to
+     * wait out a mutation in flight. That way the scan reflects at least everything journaled before it started.
+     */
+    public void scan(Consumer<Transaction> consumer) {
+        final var current = new Transaction[1];
+        for (final var id : storage.keySet()) {
+            storage.computeIfPresent(id, (_, transaction) -> current[0] = transaction);
+            if (current[0] != null) {
+                consumer.accept(current[0]);
+                current[0] = null;
+            }
+        }
+    }
+
+    public int size() {
+        return storage.size();
+    }
+
+    /**
+     * The state index only counts its own entries, its ids being those of the stored transactions.
+     */
+    public void registerCensus(MemoryCensus census) {
+        census.register("transactions.storage", MemoryCensus.Entity.TRANSACTION, MemoryCensus.HASH_MAP_ENTRY_BYTES,
+            new MemoryCensus.Population() {
+                @Override
+                public long size() {
+                    return storage.size();
+                }
+
+                @Override
+                public void sample(int limit, MemoryCensus.Sample sample) {
+                    storage.entrySet().stream().limit(limit).forEach(entry -> sample.entry(entry.getKey(), entry.getValue()));
+                }
+            });
+        census.register("transactions.state_index", MemoryCensus.Entity.TRANSACTION, MemoryCensus.HASH_MAP_ENTRY_BYTES,
+            new MemoryCensus.Population() {
+                @Override
+                public long size() {
+                    return index.values().stream().flatMap(byState -> byState.values().stream()).mapToLong(Set::size).sum();
+                }
+
+                @Override
+                public void sample(int limit, MemoryCensus.Sample sample) {
+                    // entries keep nothing alive of their own
+                }
+            });
+        census.register("transactions.ref_index", MemoryCensus.Entity.TRANSACTION, MemoryCensus.HASH_MAP_ENTRY_BYTES,
+            new MemoryCensus.Population() {
+                @Override
+                public long size() {
+                    return byRef.size();
+                }
+
+                @Override
+                public void sample(int limit, MemoryCensus.Sample sample) {
+                    // refs are shared with the transactions, only the id lists are the index's own
+                    byRef.values().stream().limit(limit).forEach(sample::entry);
+                }
+            });
+    }
+
+    /**
+     * Drops the index entry of a value that's been replaced, unless the stored one is indexed there as well.
+     */
+    private void unindex(Transaction replaced) {
+        final var stale = indexOf(replaced);
+        final var current = storage.get(replaced.id());
+        if (current != null && indexOf(current) == stale) {
+            return;
+        }
+        stale.remove(replaced.id());
+        // a concurrent update may have moved it back in between, its own entry must survive our removal
+        final var latest = storage.get(replaced.id());
+        if (latest != null && indexOf(latest) == stale) {
+            stale.add(replaced.id());
+        }
+    }
+
+    private void indexRef(Transaction transaction) {
+        transaction.externalRef().ifPresent(ref -> byRef.merge(ref, List.of(transaction.id()), (ids, added) -> {
+            final var merged = new ArrayList<>(ids);
+            merged.addAll(added);
+            return List.copyOf(merged);
+        }));
+    }
+
+    private Set<TransactionId> indexOf(Transaction transaction) {
+        return index.get(transaction.type()).get(transaction.state());
     }
 }
@@ -0,0 +1,383 @@
+package com.neverless.storage.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link Journal} written to a directory of {@code FileChannel} segments.
+ * <p>
+ * Writers serialize on a short append lock that only covers encoding and the {@code write} call; forcing the segment
+ * to disk happens outside of it, so with {@link FsyncPolicy.Mode#GROUP_COMMIT} a single {@code force} makes every
+ * record appended since the previous one durable.
+ */
+public class FileJournal implements Journal {
+    public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final long segmentSize;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    private FileChannel active;
+    private long activeSize;
+    private long nextSequence;
+    private volatile long appendedSequence;
+
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableAdvanced = durableLock.newCondition();
+    private final AtomicLong durableSequence = new AtomicLong();
+    private final Thread groupCommitter;
+    // highest sequence awaited inside deferDurability by the owning thread, unset outside of it
+    private final ThreadLocal<long[]> deferred = new ThreadLocal<>();
+    // records appended inside atomically by the owning thread, unset outside of it
+    private final ThreadLocal<List<JournalRecord>> grouped = new ThreadLocal<>();
+
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private FileJournal(Path directory, FsyncPolicy policy, long segmentSize, long lastSequence) throws IOException {
+        this.directory = directory;
+        this.policy = policy;
+        this.segmentSize = segmentSize;
+        this.nextSequence = lastSequence + 1;
+        this.appendedSequence = lastSequence;
+        this.durableSequence.set(lastSequence);
+        this.active = openSegment(nextSequence);
+
+        if (policy.mode() == FsyncPolicy.Mode.GROUP_COMMIT) {
+            this.groupCommitter = Thread.ofPlatform()
+                .name("journal-group-commit")
+                .daemon()
+                .start(this::runGroupCommits);
+        } else {
+            this.groupCommitter = null;
+        }
+    }
+
+    /**
+     * Opens the journal in given directory, cutting off a torn frame left at the tail by a crash.
+     */
+    public static FileJournal open(Path directory, FsyncPolicy policy) {
+        return open(directory, policy, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static FileJournal open(Path directory, FsyncPolicy policy, long segmentSize) {
+        requireNonNull(directory, "directory can't be null");
+        requireNonNull(policy, "policy can't be null");
+        if (segmentSize <= JournalCodec.HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than %s bytes".formatted(JournalCodec.HEADER_SIZE));
+        }
+
+        try {
+            Files.createDirectories(directory);
+            final var segments = JournalReader.segments(directory);
+            var lastSequence = 0L;
+            for (var i = 0; i < segments.size(); i++) {
+                final var segment = segments.get(i);
+                final var scan = JournalReader.read(segment, null);
+                if (scan.torn()) {
+                    if (i != segments.size() - 1) {
+                        throw new IllegalStateException("Journal segment %s is corrupted at offset %s".formatted(segment.path(), scan.validLength()));
+                    }
+                    try (var channel = FileChannel.open(segment.path(), WRITE)) {
+                        channel.truncate(scan.validLength());
+                        channel.force(true);
+                    }
+                }
+                lastSequence = Math.max(lastSequence, scan.lastSequence());
+            }
+            return new FileJournal(directory, policy, segmentSize, lastSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Feeds every record currently in the journal to the consumer in sequence order. Must be called before the first
+     * {@link #append}.
+     */
+    public void replay(Consumer<JournalRecord> consumer) {
+        replay(0, consumer);
+    }
+
+    /**
+     * Same as {@link #replay(Consumer)}, but skips records with sequence up to and including afterSequence.
+     *
+     * @return number of records fed to the consumer
+     */
+    public long replay(long afterSequence, Consumer<JournalRecord> consumer) {
+        final var segments = JournalReader.segments(directory);
+        final var replayed = new long[1];
+        for (var i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && segments.get(i + 1).firstSequence() <= afterSequence + 1) {
+                continue;
+            }
+            JournalReader.read(segments.get(i), (sequence, record) -> {
+                if (sequence > afterSequence) {
+                    consumer.accept(record);
+                    replayed[0]++;
+                }
+            });
+        }
+        return replayed[0];
+    }
+
+    /**
+     * Deletes sealed segments holding only records with sequence up to and including given one, e.g. ones covered
+     * by a snapshot. The segment being written to is never deleted.
+     *
+     * @return number of deleted segments
+     */
+    public int deleteSegmentsUpTo(long sequence) {
+        final var segments = JournalReader.segments(directory);
+        var deleted = 0;
+        for (var i = 0; i + 1 < segments.size(); i++) {
+            if (segments.get(i + 1).firstSequence() > sequence + 1) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(segments.get(i).path());
+                deleted++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return deleted;
+    }
+
+    public long lastSequence() {
+        return appendedSequence;
+    }
+
+    @Override
+    public long append(JournalRecord record) {
+        final var group = grouped.get();
+        if (group != null) {
+            group.add(record);
+            return 0;
+        }
+        appendLock.lock();
+        try {
+            ensureWritable();
+            final var sequence = nextSequence;
+            encode(sequence, record);
+            if (activeSize > 0 && activeSize + buffer.remaining() > segmentSize) {
+                roll(sequence);
+            }
+            while (buffer.hasRemaining()) {
+                activeSize += active.write(buffer);
+            }
+            nextSequence = sequence + 1;
+            appendedSequence = sequence;
+            return sequence;
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void awaitDurable(long sequence) {
+        if (durableSequence.get() >= sequence) {
+            return;
+        }
+        final var awaited = deferred.get();
+        if (awaited != null) {
+            awaited[0] = Math.max(awaited[0], sequence);
+            return;
+        }
+
+        switch (policy.mode()) {
+            case OS_MANAGED -> { }
+            case PER_WRITE -> {
+                durableLock.lock();
+                try {
+                    // whoever held the lock before might have already forced our record
+                    if (durableSequence.get() < sequence) {
+                        force();
+                    }
+                } finally {
+                    durableLock.unlock();
+                }
+            }
+            case GROUP_COMMIT -> {
+                durableLock.lock();
+                try {
+                    while (durableSequence.get() < sequence) {
+                        ensureWritable();
+                        durableAdvanced.await(policy.groupCommitInterval().toNanos() * 2, TimeUnit.NANOSECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for journal group commit", e);
+                } finally {
+                    durableLock.unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public long deferDurability(Runnable action) {
+        final var awaited = new long[1];
+        deferred.set(awaited);
+        try {
+            action.run();
+        } finally {
+            deferred.remove();
+        }
+        return awaited[0];
+    }
+
+    @Override
+    public long atomically(Runnable action) {
+        if (grouped.get() != null) {
+            action.run();
+            return 0;
+        }
+        final var group = new ArrayList<JournalRecord>();
+        final var sequence = new long[1];
+        grouped.set(group);
+        try {
+            action.run();
+        } finally {
+            grouped.remove();
+            if (!group.isEmpty()) {
+                sequence[0] = append(group.size() == 1 ? group.getFirst() : new JournalRecord.Atomic(group));
+            }
+        }
+        return sequence[0];
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (groupCommitter != null) {
+            LockSupport.unpark(groupCommitter);
+            try {
+                groupCommitter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        appendLock.lock();
+        try {
+            active.force(false);
+            active.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void runGroupCommits() {
+        final var interval = policy.groupCommitInterval().toNanos();
+        while (!closed) {
+            LockSupport.parkNanos(interval);
+            if (appendedSequence > durableSequence.get()) {
+                durableLock.lock();
+                try {
+                    force();
+                } catch (UncheckedIOException e) {
+                    // failure is recorded and reported to every waiter
+                } finally {
+                    durableAdvanced.signalAll();
+                    durableLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces whatever has been appended so far. Appends continue while the force is in progress.
+     */
+    private void force() {
+        final FileChannel channel;
+        final long sequence;
+        appendLock.lock();
+        try {
+            ensureWritable();
+            channel = active;
+            sequence = appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // segment was rolled or journal closed, both force the segment before closing it
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        }
+        durableSequence.accumulateAndGet(sequence, Math::max);
+    }
+
+    private void roll(long firstSequence) throws IOException {
+        active.force(false);
+        active.close();
+        durableSequence.accumulateAndGet(appendedSequence, Math::max);
+        active = openSegment(firstSequence);
+        activeSize = 0;
+    }
+
+    private FileChannel openSegment(long firstSequence) throws IOException {
+        final var channel = FileChannel.open(directory.resolve(JournalReader.segmentName(firstSequence)), CREATE, READ, WRITE);
+        // an existing segment with our first sequence can only be empty, anything else would have been replayed
+        channel.truncate(0);
+        return channel;
+    }
+
+    private void encode(long sequence, JournalRecord record) {
+        while (true) {
+            buffer.clear();
+            try {
+                JournalCodec.encode(sequence, record, buffer);
+                buffer.flip();
+                return;
+            } catch (BufferOverflowException | IndexOutOfBoundsException e) {
+                if (buffer.capacity() >= JournalCodec.MAX_PAYLOAD_SIZE) {
+                    throw new IllegalArgumentException("Journal record %s exceeds maximum size".formatted(record), e);
+                }
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private void ensureWritable() {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal is unusable after an I/O failure", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.neverless.storage.journal;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+public record FsyncPolicy(Mode mode, Duration groupCommitInterval) {
+    public FsyncPolicy {
+        requireNonNull(mode, "mode can't be null");
+        requireNonNull(groupCommitInterval, "groupCommitInterval can't be null");
+        if (mode == Mode.GROUP_COMMIT && (groupCommitInterval.isZero() || groupCommitInterval.isNegative())) {
+            throw new IllegalArgumentException("Group commit interval must be greater than zero");
+        }
+    }
+
+    public static FsyncPolicy perWrite() {
+        return new FsyncPolicy(Mode.PER_WRITE, Duration.ZERO);
+    }
+
+    public static FsyncPolicy groupCommit(Duration interval) {
+        return new FsyncPolicy(Mode.GROUP_COMMIT, interval);
+    }
+
+    public static FsyncPolicy osManaged() {
+        return new FsyncPolicy(Mode.OS_MANAGED, Duration.ZERO);
+    }
+
+    public enum Mode {
+        /**
+         * Every writer forces the segment before returning. Concurrent writers share a single force.
+         */
+        PER_WRITE,
+        /**
+         * A background thread forces the segment every {@link #groupCommitInterval}, writers wait for it.
+         */
+        GROUP_COMMIT,
+        /**
+         * Writers never wait, flushing is left to the OS page cache.
+         */
+        OS_MANAGED
+    }
+}
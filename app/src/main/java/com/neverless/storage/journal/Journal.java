@@ -0,0 +1,68 @@
+package com.neverless.storage.journal;
+
+/**
+ * Append-only log of repository mutations.
+ * <p>
+ * {@link #append} is expected to be called while the caller still holds whatever guards the mutated entity, so
+ * records for the same entity are journaled in the order they were applied, unless records are versioned like
+ * {@link JournalRecord.BalanceChanged}. {@link #awaitDurable} should be called
+ * after those guards are released: depending on {@link FsyncPolicy} it may block until a group commit happens.
+ */
+public interface Journal extends AutoCloseable {
+    Journal NONE = new Journal() {
+        @Override
+        public long append(JournalRecord record) {
+            return 0;
+        }
+
+        @Override
+        public void awaitDurable(long sequence) {
+        }
+
+        @Override
+        public long deferDurability(Runnable action) {
+            action.run();
+            return 0;
+        }
+
+        @Override
+        public long atomically(Runnable action) {
+            action.run();
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @return sequence number assigned to the record
+     */
+    long append(JournalRecord record);
+
+    void awaitDurable(long sequence);
+
+    /**
+     * Runs action with {@link #awaitDurable} calls it makes on the calling thread returning right away. Lets a single
+     * writer apply a batch of mutations and then wait for all of them at once.
+     *
+     * @return the highest sequence action asked to wait for, to be passed to {@link #awaitDurable} afterwards
+     */
+    long deferDurability(Runnable action);
+
+    /**
+     * Runs action with records it appends on the calling thread held back, then journals them as one
+     * {@link JournalRecord.Atomic} record, so a crash keeps either all of them or none. Appends made by action return
+     * 0, {@link #awaitDurable} of which returns right away. Nested calls join the outermost one.
+     * <p>
+     * Records are journaled after action returns, so it should be called while the guards {@link #append} expects are
+     * still held. Should action throw, whatever it appended is journaled all the same, it was applied already.
+     *
+     * @return sequence of the record, to be passed to {@link #awaitDurable} afterwards, 0 if nothing was appended
+     */
+    long atomically(Runnable action);
+
+    @Override
+    void close();
+}
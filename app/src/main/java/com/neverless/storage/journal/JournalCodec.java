@@ -0,0 +1,213 @@
+package com.neverless.storage.journal;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.Account;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountType;
+import com.neverless.domain.account.ExternalAccount;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionState;
+import com.neverless.domain.transaction.TransactionType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+
+/**
+ * Binary layout of a journal frame, all numbers big-endian:
+ * <pre>
+ * int   payload length
+ * int   CRC32C of everything after this field
+ * long  sequence
+ * byte  record kind
+ * byte[payload length] payload
+ * </pre>
+ */
+public final class JournalCodec {
+    public static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES + Byte.BYTES;
+    public static final int MAX_PAYLOAD_SIZE = 1 << 20;
+
+    public static final int KIND_OFFSET = 16;
+
+    private static final byte ACCOUNT_WRITTEN = 1;
+    private static final byte TRANSACTION_WRITTEN = 2;
+    private static final byte BALANCE_CHANGED = 3;
+    private static final byte IDEMPOTENCY_KEY_RECORDED = 4;
+    private static final byte ATOMIC = 5;
+
+    private JournalCodec() {
+    }
+
+    /**
+     * Writes a whole frame at the buffer position.
+     *
+     * @throws java.nio.BufferOverflowException when the buffer is too small, position is left unspecified
+     */
+    public static void encode(long sequence, JournalRecord record, ByteBuffer buffer) {
+        final var start = buffer.position();
+        buffer.position(start + HEADER_SIZE);
+        final var kind = writeRecord(record, buffer);
+        final var end = buffer.position();
+        buffer.putInt(start, end - start - HEADER_SIZE);
+        buffer.putLong(start + 8, sequence);
+        buffer.put(start + KIND_OFFSET, kind);
+        buffer.putInt(start + 4, checksum(buffer, start + 8, end));
+    }
+
+    private static byte writeRecord(JournalRecord record, ByteBuffer buffer) {
+        return switch (record) {
+            case JournalRecord.AccountWritten written -> {
+                writeAccount(written.account(), buffer);
+                buffer.putLong(written.version());
+                yield ACCOUNT_WRITTEN;
+            }
+            case JournalRecord.BalanceChanged changed -> {
+                writeUuid(changed.id().value(), buffer);
+                writeMoney(changed.balance(), buffer);
+                buffer.putLong(changed.version());
+                yield BALANCE_CHANGED;
+            }
+            case JournalRecord.TransactionWritten written -> {
+                writeTransaction(written.transaction(), buffer);
+                yield TRANSACTION_WRITTEN;
+            }
+            case JournalRecord.IdempotencyKeyRecorded recorded -> {
+                writeUuid(recorded.account().value(), buffer);
+                writeString(recorded.key(), buffer);
+                writeUuid(recorded.transactionId().value(), buffer);
+                buffer.putLong(recorded.recordedAt().toEpochMilli());
+                yield IDEMPOTENCY_KEY_RECORDED;
+            }
+            // every nested record is its kind followed by its payload, payloads know their own length
+            case JournalRecord.Atomic atomic -> {
+                buffer.putInt(atomic.records().size());
+                for (final var nested : atomic.records()) {
+                    final var kindPosition = buffer.position();
+                    buffer.put((byte) 0);
+                    buffer.put(kindPosition, writeRecord(nested, buffer));
+                }
+                yield ATOMIC;
+            }
+        };
+    }
+
+    public static int checksum(ByteBuffer buffer, int from, int to) {
+        final var crc = new CRC32C();
+        crc.update(buffer.slice(from, to - from));
+        return (int) crc.getValue();
+    }
+
+    public static JournalRecord decode(byte kind, ByteBuffer payload) {
+        return switch (kind) {
+            case ACCOUNT_WRITTEN -> new JournalRecord.AccountWritten(readAccount(payload), payload.getLong());
+            case BALANCE_CHANGED -> new JournalRecord.BalanceChanged(AccountId.of(readUuid(payload)), readMoney(payload), payload.getLong());
+            case TRANSACTION_WRITTEN -> new JournalRecord.TransactionWritten(readTransaction(payload));
+            case IDEMPOTENCY_KEY_RECORDED -> new JournalRecord.IdempotencyKeyRecorded(
+                AccountId.of(readUuid(payload)),
+                readString(payload),
+                new TransactionId(readUuid(payload)),
+                Instant.ofEpochMilli(payload.getLong()));
+            case ATOMIC -> {
+                final var records = new JournalRecord[payload.getInt()];
+                for (var i = 0; i < records.length; i++) {
+                    records[i] = decode(payload.get(), payload);
+                }
+                yield new JournalRecord.Atomic(List.of(records));
+            }
+            default -> throw new IllegalStateException("Unknown journal record kind %s".formatted(kind));
+        };
+    }
+
+    static void writeAccount(Account account, ByteBuffer buffer) {
+        writeUuid(account.id.value(), buffer);
+        buffer.put((byte) account.type.ordinal());
+        writeMoney(account.balance, buffer);
+        if (account instanceof ExternalAccount externalAccount) {
+            writeString(externalAccount.externalAddress.value(), buffer);
+        }
+    }
+
+    static Account readAccount(ByteBuffer buffer) {
+        final var id = AccountId.of(readUuid(buffer));
+        final var type = AccountType.values()[buffer.get()];
+        final var balance = readMoney(buffer);
+        return switch (type) {
+            case INTERNAL -> userAccount().id(id).balance(balance).build();
+            case EXTERNAL -> externalAccount()
+                .id(id)
+                .balance(balance)
+                .externalAddress(new ExternalAddress(readString(buffer)))
+                .build();
+        };
+    }
+
+    static void writeTransaction(Transaction transaction, ByteBuffer buffer) {
+        writeUuid(transaction.id().value(), buffer);
+        writeUuid(transaction.from().value(), buffer);
+        writeUuid(transaction.to().value(), buffer);
+        writeMoney(transaction.amount(), buffer);
+        buffer.put((byte) transaction.state().ordinal());
+        buffer.put((byte) transaction.type().ordinal());
+        buffer.put((byte) (transaction.externalRef().isPresent() ? 1 : 0));
+        transaction.externalRef().ifPresent(ref -> writeString(ref.value(), buffer));
+    }
+
+    static Transaction readTransaction(ByteBuffer buffer) {
+        final var id = new TransactionId(readUuid(buffer));
+        final var from = AccountId.of(readUuid(buffer));
+        final var to = AccountId.of(readUuid(buffer));
+        final var amount = readMoney(buffer);
+        final var state = TransactionState.values()[buffer.get()];
+        final var type = TransactionType.values()[buffer.get()];
+        final var externalRef = buffer.get() == 1 ? Optional.of(new ExternalRef(readString(buffer))) : Optional.<ExternalRef>empty();
+        return transaction()
+            .id(id)
+            .from(from)
+            .to(to)
+            .amount(amount)
+            .state(state)
+            .type(type)
+            .externalRef(externalRef)
+            .build();
+    }
+
+    private static void writeUuid(UUID value, ByteBuffer buffer) {
+        buffer.putLong(value.getMostSignificantBits());
+        buffer.putLong(value.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void writeMoney(Money money, ByteBuffer buffer) {
+        buffer.putLong(money.units());
+    }
+
+    private static Money readMoney(ByteBuffer buffer) {
+        return new Money(buffer.getLong());
+    }
+
+    private static void writeString(String value, ByteBuffer buffer) {
+        final var bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
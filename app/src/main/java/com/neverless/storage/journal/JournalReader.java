@@ -0,0 +1,90 @@
+package com.neverless.storage.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+final class JournalReader {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d{20})\\.log");
+
+    private JournalReader() {
+    }
+
+    static String segmentName(long firstSequence) {
+        return "journal-%020d.log".formatted(firstSequence);
+    }
+
+    static List<Segment> segments(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(path -> {
+                    final var matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                    return matcher.matches() ? new Segment(path, Long.parseLong(matcher.group(1))) : null;
+                })
+                .filter(segment -> segment != null)
+                .sorted((a, b) -> Long.compare(a.firstSequence(), b.firstSequence()))
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads frames until the end of the segment or the first frame that is truncated or fails its checksum.
+     *
+     * @param visitor receives decoded records, pass null to only validate the segment
+     */
+    static Scan read(Segment segment, Visitor visitor) {
+        try (var channel = FileChannel.open(segment.path(), StandardOpenOption.READ)) {
+            final var size = channel.size();
+            if (size == 0) {
+                return new Scan(0, segment.firstSequence() - 1, false);
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            var lastSequence = segment.firstSequence() - 1;
+            while (buffer.remaining() >= JournalCodec.HEADER_SIZE) {
+                final var start = buffer.position();
+                final var length = buffer.getInt(start);
+                if (length < 0 || length > JournalCodec.MAX_PAYLOAD_SIZE || buffer.remaining() < JournalCodec.HEADER_SIZE + length) {
+                    return new Scan(start, lastSequence, true);
+                }
+                final var end = start + JournalCodec.HEADER_SIZE + length;
+                if (JournalCodec.checksum(buffer, start + 8, end) != buffer.getInt(start + 4)) {
+                    return new Scan(start, lastSequence, true);
+                }
+                final var sequence = buffer.getLong(start + 8);
+                if (visitor != null) {
+                    visitor.accept(sequence, JournalCodec.decode(buffer.get(start + JournalCodec.KIND_OFFSET), buffer.slice(start + JournalCodec.HEADER_SIZE, length)));
+                }
+                lastSequence = sequence;
+                buffer.position(end);
+            }
+            return new Scan(buffer.position(), lastSequence, buffer.hasRemaining());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Visitor {
+        void accept(long sequence, JournalRecord record);
+    }
+
+    record Segment(Path path, long firstSequence) {
+    }
+
+    /**
+     * @param validLength bytes of the segment holding complete, checksummed frames
+     * @param lastSequence sequence of the last valid frame, or firstSequence - 1 when there is none
+     * @param torn whether anything follows the valid frames
+     */
+    record Scan(long validLength, long lastSequence, boolean torn) {
+    }
+}
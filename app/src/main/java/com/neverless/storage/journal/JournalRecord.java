@@ -0,0 +1,67 @@
+package com.neverless.storage.journal;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.Account;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.domain.transaction.TransactionId;
+
+import java.time.Instant;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+public sealed interface JournalRecord {
+
+    /**
+     * Account as it was added, or as a snapshot saw it at given balance version.
+     */
+    record AccountWritten(Account account, long version) implements JournalRecord {
+        public AccountWritten {
+            requireNonNull(account, "account can't be null");
+        }
+    }
+
+    /**
+     * Balance of an account after its version-th change. Changes of the same account may be journaled out of order,
+     * the highest version wins on replay.
+     */
+    record BalanceChanged(AccountId id, Money balance, long version) implements JournalRecord {
+        public BalanceChanged {
+            requireNonNull(id, "id can't be null");
+            requireNonNull(balance, "balance can't be null");
+        }
+    }
+
+    record TransactionWritten(Transaction transaction) implements JournalRecord {
+        public TransactionWritten {
+            requireNonNull(transaction, "transaction can't be null");
+        }
+    }
+
+    /**
+     * Idempotency key an account created given transaction under.
+     */
+    record IdempotencyKeyRecorded(AccountId account, String key, TransactionId transactionId, Instant recordedAt) implements JournalRecord {
+        public IdempotencyKeyRecorded {
+            requireNonNull(account, "account can't be null");
+            requireNonNull(key, "key can't be null");
+            requireNonNull(transactionId, "transactionId can't be null");
+            requireNonNull(recordedAt, "recordedAt can't be null");
+        }
+    }
+
+    /**
+     * Records of a single operation, e.g. the debit and the transaction of a withdrawal, journaled in one frame so a
+     * crash keeps either all of them or none. Replayed in order.
+     */
+    record Atomic(List<JournalRecord> records) implements JournalRecord {
+        public Atomic {
+            requireNonNull(records, "records can't be null");
+            records = List.copyOf(records);
+            if (records.stream().anyMatch(record -> record instanceof Atomic)) {
+                throw new IllegalArgumentException("Atomic records can't be nested");
+            }
+        }
+    }
+}
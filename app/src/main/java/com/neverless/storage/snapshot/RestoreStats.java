@@ -0,0 +1,16 @@
+package com.neverless.storage.snapshot;
+
+import java.time.Duration;
+
+/**
+ * @param snapshotEntries accounts and transactions loaded from the snapshot
+ * @param journalRecords records replayed from the journal tail after the snapshot
+ */
+public record RestoreStats(long snapshotEntries,
+                           Duration snapshotLoad,
+                           long journalRecords,
+                           Duration journalReplay) {
+    public Duration total() {
+        return snapshotLoad.plus(journalReplay);
+    }
+}
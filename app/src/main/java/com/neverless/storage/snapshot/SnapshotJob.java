@@ -0,0 +1,78 @@
+package com.neverless.storage.snapshot;
+
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.service.Job;
+import com.neverless.storage.journal.FileJournal;
+import com.neverless.storage.journal.JournalRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes a snapshot while repositories keep serving traffic, then drops journal segments and snapshots it supersedes.
+ */
+public class SnapshotJob implements Job {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotJob.class);
+
+    private final FileJournal journal;
+    private final SnapshotStore store;
+    private final Consumer<Consumer<JournalRecord.AccountWritten>> accounts;
+    private final Consumer<Consumer<Transaction>> transactions;
+    private final Consumer<Consumer<JournalRecord.IdempotencyKeyRecorded>> idempotencyKeys;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile SnapshotStats last;
+
+    public SnapshotJob(FileJournal journal,
+                       SnapshotStore store,
+                       Consumer<Consumer<JournalRecord.AccountWritten>> accounts,
+                       Consumer<Consumer<Transaction>> transactions,
+                       Consumer<Consumer<JournalRecord.IdempotencyKeyRecorded>> idempotencyKeys) {
+        this.journal = requireNonNull(journal);
+        this.store = requireNonNull(store);
+        this.accounts = requireNonNull(accounts);
+        this.transactions = requireNonNull(transactions);
+        this.idempotencyKeys = requireNonNull(idempotencyKeys);
+    }
+
+    @Override
+    public void run() {
+        try {
+            // every mutation journaled up to here is visible to the scans that follow
+            final var coverSequence = journal.lastSequence();
+            if (store.latest().filter(latest -> latest >= coverSequence).isPresent()) {
+                return;
+            }
+
+            final var stats = store.write(coverSequence, accounts, transactions, idempotencyKeys);
+            journal.deleteSegmentsUpTo(coverSequence);
+            store.deleteOlderThan(coverSequence);
+
+            last = stats;
+            completed.incrementAndGet();
+            log.info("Snapshot at sequence {} written in {} ms: {} accounts, {} transactions, {} bytes",
+                coverSequence, stats.duration().toMillis(), stats.accounts(), stats.transactions(), stats.sizeBytes());
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("Failed to write snapshot", e);
+        }
+    }
+
+    public Optional<SnapshotStats> last() {
+        return Optional.ofNullable(last);
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,13 @@
+package com.neverless.storage.snapshot;
+
+import java.time.Duration;
+
+/**
+ * @param coverSequence last journal sequence reflected in the snapshot
+ */
+public record SnapshotStats(long coverSequence,
+                            long accounts,
+                            long transactions,
+                            long sizeBytes,
+                            Duration duration) {
+}
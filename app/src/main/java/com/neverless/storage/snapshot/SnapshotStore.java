@@ -0,0 +1,304 @@
+package com.neverless.storage.snapshot;
+
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.storage.journal.JournalCodec;
+import com.neverless.storage.journal.JournalRecord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Snapshots of repository contents, stored as a directory per snapshot:
+ * <pre>
+ * snapshot-{cover sequence}/
+ *     manifest
+ *     accounts-{partition}.bin
+ *     transactions-{partition}.bin
+ *     idempotency-keys-{partition}.bin
+ * </pre>
+ * Entities are spread over partitions by id hash and framed exactly like journal records, so every partition can be
+ * loaded by its own thread. A snapshot directory is written under a temporary name and renamed once complete.
+ */
+public class SnapshotStore {
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d{20})");
+    private static final String MANIFEST = "manifest";
+
+    private final Path directory;
+    private final int partitions;
+
+    public SnapshotStore(Path directory, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Snapshot must have at least one partition");
+        }
+        this.directory = requireNonNull(directory);
+        this.partitions = partitions;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return cover sequence of the most recent complete snapshot
+     */
+    public Optional<Long> latest() {
+        return snapshots().stream().max(Comparator.naturalOrder());
+    }
+
+    /**
+     * Writes a snapshot from given sources, which are expected to reflect at least every mutation journaled up to
+     * coverSequence. Entities mutated later may be included too, replaying the journal after coverSequence on top of
+     * the snapshot converges to the same state.
+     */
+    public SnapshotStats write(long coverSequence,
+                               Consumer<Consumer<JournalRecord.AccountWritten>> accounts,
+                               Consumer<Consumer<Transaction>> transactions,
+                               Consumer<Consumer<JournalRecord.IdempotencyKeyRecorded>> idempotencyKeys) {
+        final var started = System.nanoTime();
+        final var target = directory.resolve(snapshotName(coverSequence));
+        final var temporary = directory.resolve(snapshotName(coverSequence) + ".tmp");
+        try {
+            deleteRecursively(temporary);
+            Files.createDirectories(temporary);
+
+            final var accountCount = writePartitions(temporary, "accounts", accounts,
+                written -> written, written -> written.account().id.value().hashCode());
+            final var transactionCount = writePartitions(temporary, "transactions", transactions,
+                transaction -> new JournalRecord.TransactionWritten(transaction), transaction -> transaction.id().value().hashCode());
+            final var idempotencyKeyCount = writePartitions(temporary, "idempotency-keys", idempotencyKeys,
+                recorded -> recorded, recorded -> recorded.key().hashCode());
+
+            final var manifest = new Properties();
+            manifest.setProperty("coverSequence", Long.toString(coverSequence));
+            manifest.setProperty("partitions", Integer.toString(partitions));
+            manifest.setProperty("accounts", Long.toString(accountCount));
+            manifest.setProperty("transactions", Long.toString(transactionCount));
+            manifest.setProperty("idempotencyKeys", Long.toString(idempotencyKeyCount));
+            try (var channel = FileChannel.open(temporary.resolve(MANIFEST), CREATE_NEW, WRITE)) {
+                manifest.store(Channels.newOutputStream(channel), null);
+                channel.force(true);
+            }
+
+            final var size = sizeOf(temporary);
+            deleteRecursively(target);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            return new SnapshotStats(coverSequence, accountCount, transactionCount, size, Duration.ofNanos(System.nanoTime() - started));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads every partition of the snapshot in parallel on given executor. Consumers must be thread safe.
+     *
+     * @return number of loaded entities
+     */
+    public long restore(long coverSequence,
+                        Consumer<JournalRecord.AccountWritten> accounts,
+                        Consumer<Transaction> transactions,
+                        Consumer<JournalRecord.IdempotencyKeyRecorded> idempotencyKeys,
+                        ExecutorService executor) {
+        final var snapshot = directory.resolve(snapshotName(coverSequence));
+        final var loaded = new AtomicLong();
+        final var tasks = new ArrayList<Future<?>>();
+        try (var files = Files.list(snapshot)) {
+            for (final var file : files.filter(file -> file.toString().endsWith(".bin")).toList()) {
+                tasks.add(executor.submit(() -> loaded.addAndGet(readPartition(file, record -> {
+                    switch (record) {
+                        case JournalRecord.AccountWritten written -> accounts.accept(written);
+                        case JournalRecord.BalanceChanged _, JournalRecord.Atomic _ ->
+                            throw new IllegalStateException("Unexpected %s in snapshot partition %s".formatted(record.getClass().getSimpleName(), file));
+                        case JournalRecord.TransactionWritten written -> transactions.accept(written.transaction());
+                        case JournalRecord.IdempotencyKeyRecorded recorded -> idempotencyKeys.accept(recorded);
+                    }
+                }))));
+            }
+            for (final var task : tasks) {
+                task.get();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to restore snapshot %s".formatted(snapshot), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while restoring snapshot %s".formatted(snapshot), e);
+        }
+        return loaded.get();
+    }
+
+    /**
+     * Deletes complete snapshots older than given one, together with any leftovers of interrupted writes.
+     */
+    public void deleteOlderThan(long coverSequence) {
+        try (var files = Files.list(directory)) {
+            for (final var file : files.toList()) {
+                final var name = file.getFileName().toString();
+                final var matcher = SNAPSHOT_NAME.matcher(name);
+                if (name.endsWith(".tmp") || (matcher.matches() && Long.parseLong(matcher.group(1)) < coverSequence)) {
+                    deleteRecursively(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Long> snapshots() {
+        try (var files = Files.list(directory)) {
+            return files
+                .filter(file -> Files.exists(file.resolve(MANIFEST)))
+                .map(file -> SNAPSHOT_NAME.matcher(file.getFileName().toString()))
+                .filter(matcher -> matcher.matches())
+                .map(matcher -> Long.parseLong(matcher.group(1)))
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> long writePartitions(Path snapshot,
+                                     String prefix,
+                                     Consumer<Consumer<T>> source,
+                                     Function<T, JournalRecord> toRecord,
+                                     ToIntFunction<T> hash) throws IOException {
+        final var writers = new PartitionWriters(snapshot, prefix, partitions);
+        try (writers) {
+            source.accept(entity -> writers.write(toRecord.apply(entity), hash.applyAsInt(entity)));
+        }
+        return writers.written;
+    }
+
+    private static long readPartition(Path file, Consumer<JournalRecord> consumer) throws IOException {
+        var count = 0L;
+        var frame = ByteBuffer.allocate(4096);
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                final int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    return count;
+                }
+                if (length < 0 || length > JournalCodec.MAX_PAYLOAD_SIZE) {
+                    throw new IllegalStateException("Snapshot partition %s is corrupted".formatted(file));
+                }
+                if (frame.capacity() < JournalCodec.HEADER_SIZE + length) {
+                    frame = ByteBuffer.allocate(JournalCodec.HEADER_SIZE + length);
+                }
+                frame.clear();
+                frame.putInt(length);
+                input.readFully(frame.array(), Integer.BYTES, JournalCodec.HEADER_SIZE + length - Integer.BYTES);
+                final var end = JournalCodec.HEADER_SIZE + length;
+                if (JournalCodec.checksum(frame, 8, end) != frame.getInt(4)) {
+                    throw new IllegalStateException("Snapshot partition %s fails checksum".formatted(file));
+                }
+                consumer.accept(JournalCodec.decode(frame.get(JournalCodec.KIND_OFFSET), frame.slice(JournalCodec.HEADER_SIZE, length)));
+                count++;
+            }
+        }
+    }
+
+    private static long sizeOf(Path snapshot) throws IOException {
+        try (Stream<Path> files = Files.list(snapshot)) {
+            var size = 0L;
+            for (final var file : files.toList()) {
+                size += Files.size(file);
+            }
+            return size;
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (final var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static String snapshotName(long coverSequence) {
+        return "snapshot-%020d".formatted(coverSequence);
+    }
+
+    private static final class PartitionWriters implements AutoCloseable {
+        private final FileChannel[] channels;
+        private final OutputStream[] outputs;
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+        private long written;
+
+        PartitionWriters(Path snapshot, String prefix, int partitions) throws IOException {
+            channels = new FileChannel[partitions];
+            outputs = new OutputStream[partitions];
+            for (var i = 0; i < partitions; i++) {
+                channels[i] = FileChannel.open(snapshot.resolve("%s-%s.bin".formatted(prefix, i)), CREATE_NEW, WRITE);
+                outputs[i] = new BufferedOutputStream(Channels.newOutputStream(channels[i]), 1 << 16);
+            }
+        }
+
+        void write(JournalRecord record, int hash) {
+            while (true) {
+                buffer.clear();
+                try {
+                    JournalCodec.encode(0, record, buffer);
+                    break;
+                } catch (BufferOverflowException | IndexOutOfBoundsException e) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                }
+            }
+            try {
+                outputs[Math.floorMod(hash, outputs.length)].write(buffer.array(), 0, buffer.position());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written++;
+        }
+
+        /**
+         * Forces every partition, the journal this snapshot covers may be deleted right after.
+         */
+        @Override
+        public void close() throws IOException {
+            for (var i = 0; i < outputs.length; i++) {
+                outputs[i].flush();
+                channels[i].force(true);
+                outputs[i].close();
+            }
+        }
+    }
+}
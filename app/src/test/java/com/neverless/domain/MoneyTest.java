@@ -1,6 +1,8 @@
 package com.neverless.domain;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.math.BigDecimal;
 
@@ -28,4 +30,36 @@ class MoneyTest {
        assertThatThrownBy(() -> new Money(null)).isInstanceOf(NullPointerException.class);
     }
 
-}
\ No newline at end of file
+    @Test
+    void should_convert_decimal_to_minor_units() {
+        // then
+        assertThat(new Money(new BigDecimal("1.50"))).isEqualTo(new Money(150_000_000L));
+        assertThat(new Money(new BigDecimal("0.00000001")).units()).isEqualTo(1L);
+        assertThat(new Money(new BigDecimal("1E+2")).value()).isEqualByComparingTo("100");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0.000000001", "1E-1000000", "1E+1000000", "92233720368.54775808"})
+    void should_throw_when_value_is_not_representable(String value) {
+        // then
+        assertThatThrownBy(() -> new Money(new BigDecimal(value))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void should_throw_on_overflow() {
+        // given
+        final var max = new Money(Long.MAX_VALUE);
+
+        // then
+        assertThatThrownBy(() -> max.add(new Money(1L))).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> new Money(Long.MIN_VALUE).subtract(new Money(1L))).isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    void should_compare_by_amount() {
+        // then
+        assertThat(new Money(BigDecimal.ONE)).isLessThan(new Money(BigDecimal.TEN));
+        assertThat(new Money(BigDecimal.TEN.negate()).signum()).isEqualTo(-1);
+    }
+
+}
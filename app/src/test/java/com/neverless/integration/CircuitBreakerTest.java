@@ -0,0 +1,129 @@
+package com.neverless.integration;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.neverless.integration.CircuitBreaker.Builder.circuitBreaker;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CircuitBreakerTest {
+    AtomicLong nanos = new AtomicLong();
+    CircuitBreaker breaker = circuitBreaker()
+        .window(10)
+        .minimumCalls(4)
+        .failureRateThreshold(0.5)
+        .slowCall(Duration.ofMillis(100))
+        .slowCallRateThreshold(0.5)
+        .openDuration(Duration.ofSeconds(1))
+        .probes(2)
+        .nanoClock(nanos::get)
+        .build();
+
+    @Test
+    void stays_closed_below_minimum_calls() {
+        // when
+        call(false);
+        call(false);
+        call(false);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opens_when_failure_rate_reaches_threshold_and_rejects_calls() {
+        // when
+        call(true);
+        call(true);
+        call(false);
+        call(false);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquire).isInstanceOf(ProviderUnavailableException.class);
+        assertThat(breaker.rejected()).isEqualTo(1);
+    }
+
+    @Test
+    void opens_when_slow_call_rate_reaches_threshold() {
+        // when
+        call(true);
+        call(true);
+        breaker.acquire();
+        breaker.record(Duration.ofMillis(100).toNanos(), true);
+        breaker.acquire();
+        breaker.record(Duration.ofMillis(500).toNanos(), true);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void forgets_outcomes_older_than_window() {
+        // given
+        breaker = circuitBreaker().window(4).minimumCalls(4).failureRateThreshold(0.6).nanoClock(nanos::get).build();
+        call(false);
+        call(false);
+        call(true);
+        call(true);
+
+        // when
+        call(false);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void closes_after_probes_succeed_once_open_duration_passes() {
+        // given
+        open();
+        nanos.addAndGet(Duration.ofSeconds(1).toNanos());
+
+        // when
+        breaker.acquire();
+        breaker.acquire();
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(breaker::acquire).isInstanceOf(ProviderUnavailableException.class);
+
+        // when
+        breaker.record(1, true);
+        breaker.record(1, true);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void opens_again_when_probe_fails() {
+        // given
+        open();
+        nanos.addAndGet(Duration.ofSeconds(1).toNanos());
+
+        // when
+        breaker.acquire();
+        breaker.record(1, false);
+
+        // then
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquire).isInstanceOf(ProviderUnavailableException.class);
+    }
+
+    private void open() {
+        for (var i = 0; i < 4; i++) {
+            call(false);
+        }
+        assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private void call(boolean succeeded) {
+        breaker.acquire();
+        breaker.record(1, succeeded);
+    }
+}
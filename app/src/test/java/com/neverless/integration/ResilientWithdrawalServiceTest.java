@@ -0,0 +1,156 @@
+package com.neverless.integration;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.neverless.domain.Money;
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.integration.WithdrawalService.Address;
+import com.neverless.integration.WithdrawalService.WithdrawalId;
+import com.neverless.integration.WithdrawalService.WithdrawalState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static com.neverless.integration.CircuitBreaker.Builder.circuitBreaker;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+class ResilientWithdrawalServiceTest {
+    WithdrawalService<Money> delegate = mock(WithdrawalService.class);
+    Bulkhead submissions = new Bulkhead("submit", 1);
+    Bulkhead reads = new Bulkhead("read", 1);
+    Bulkhead polling = new Bulkhead("poll", 1);
+    CircuitBreaker circuitBreaker = circuitBreaker().window(2).minimumCalls(2).build();
+    ResilientWithdrawalService<Money> service = new ResilientWithdrawalService<>(
+        delegate,
+        submissions,
+        reads,
+        polling,
+        circuitBreaker,
+        Duration.ofSeconds(1),
+        Executors.newVirtualThreadPerTaskExecutor());
+
+    WithdrawalId id = new WithdrawalId(UUID.randomUUID());
+    Address address = new Address("address");
+    Money amount = new Money(BigDecimal.TEN);
+    CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    void gives_up_at_request_deadline() throws Exception {
+        // given
+        given(delegate.getRequestState(id)).willAnswer(_ -> {
+            release.await();
+            return WithdrawalState.COMPLETED;
+        });
+
+        // when
+        var started = System.nanoTime();
+
+        // then
+        assertThatThrownBy(() -> RequestDeadline.within(Duration.ofMillis(50), () -> service.getRequestState(id)))
+            .isInstanceOf(ProviderUnavailableException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(1));
+        // the interrupted call gives its permit back as it returns
+        awaitIdle(reads);
+    }
+
+    @Test
+    void holds_permit_until_call_ignoring_interrupt_returns() throws Exception {
+        // given
+        given(delegate.getRequestState(id)).willAnswer(_ -> {
+            Uninterruptibles.awaitUninterruptibly(release);
+            return WithdrawalState.COMPLETED;
+        });
+        assertThatThrownBy(() -> RequestDeadline.within(Duration.ofMillis(50), () -> service.getRequestState(id)))
+            .isInstanceOf(ProviderUnavailableException.class);
+
+        // when
+        var result = catchThrowable(() -> RequestDeadline.within(Duration.ofMillis(50), () -> service.getRequestState(id)));
+
+        // then
+        assertThat(result).isInstanceOf(ProviderUnavailableException.class);
+        assertThat(reads.inFlight()).isEqualTo(1);
+        assertThat(reads.rejected()).isEqualTo(1);
+        release.countDown();
+        awaitIdle(reads);
+    }
+
+    @Test
+    void keeps_client_reads_going_while_background_calls_are_stuck() throws Exception {
+        // given
+        var stuck = new CountDownLatch(1);
+        willAnswer(_ -> {
+            stuck.countDown();
+            release.await();
+            return null;
+        }).given(delegate).requestWithdrawal(any(), any(), any());
+        given(delegate.getRequestState(id)).willReturn(WithdrawalState.PROCESSING);
+        Thread.ofVirtual().start(() -> service.requestWithdrawal(id, address, amount));
+        stuck.await();
+
+        // when
+        var state = RequestDeadline.within(Duration.ofMillis(500), () -> service.getRequestState(id));
+
+        // then
+        assertThat(state).isEqualTo(WithdrawalState.PROCESSING);
+        assertThat(submissions.inFlight()).isEqualTo(1);
+        assertThatThrownBy(() -> RequestDeadline.within(Duration.ofMillis(50), () -> {
+            service.requestWithdrawal(id, address, amount);
+            return null;
+        }))
+            .isInstanceOf(ProviderUnavailableException.class);
+        assertThat(submissions.rejected()).isEqualTo(1);
+    }
+
+    @Test
+    void passes_provider_rejection_through_without_counting_it_as_failure() {
+        // given
+        given(delegate.getRequestState(id)).willThrow(new IllegalArgumentException("not found"));
+
+        // when
+        for (var i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> service.getRequestState(id)).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        // then
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void fails_fast_once_provider_keeps_failing() {
+        // given
+        given(delegate.getRequestState(id)).willThrow(new RuntimeException("unavailable"));
+        for (var i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> service.getRequestState(id)).hasMessage("unavailable");
+        }
+
+        // when
+        var result = catchThrowable(() -> service.getRequestState(id));
+
+        // then
+        assertThat(result).isInstanceOf(ProviderUnavailableException.class);
+        assertThat(circuitBreaker.rejected()).isEqualTo(1);
+    }
+
+    private static void awaitIdle(Bulkhead bulkhead) throws InterruptedException {
+        var deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (bulkhead.inFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(bulkhead.inFlight()).isZero();
+    }
+}
@@ -0,0 +1,81 @@
+package com.neverless.metrics;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.transaction.TransactionId;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryCensusTest {
+    ObjectSizer sizer = new ObjectSizer(true);
+    MemoryCensus census = new MemoryCensus(() -> 1_000_000, () -> 0);
+
+    @Test
+    void sizes_objects_by_hotspot_layout() {
+        // then
+        assertThat(sizer.deepSize(new Money(5))).isEqualTo(24);
+        assertThat(sizer.deepSize(new TransactionId(UUID.randomUUID()))).isEqualTo(16 + 32);
+        assertThat(sizer.deepSize("abc")).isEqualTo(24 + 24);
+        assertThat(sizer.deepSize((Object) new long[3])).isEqualTo(40);
+    }
+
+    @Test
+    void counts_shared_objects_once_and_skips_enums() {
+        // given
+        var id = new TransactionId(UUID.randomUUID());
+
+        // then
+        assertThat(sizer.deepSize(id, id, Optional.of(id), Thread.State.NEW)).isEqualTo(48 + 16);
+        assertThat(sizer.deepSize(Optional.empty())).isZero();
+    }
+
+    @Test
+    void scales_sample_up_to_population_and_forecasts_capacity() {
+        // given
+        census.register("transactions", MemoryCensus.Entity.TRANSACTION, 8, population(1_000, true));
+        census.register("index", MemoryCensus.Entity.TRANSACTION, 16, population(1_000, false));
+
+        // when
+        var report = census.take(10);
+
+        // then
+        assertThat(report.populations()).first().satisfies(transactions -> {
+            assertThat(transactions.entries()).isEqualTo(1_000);
+            assertThat(transactions.sampled()).isEqualTo(10);
+            assertThat(transactions.bytesPerEntry()).isEqualTo(8 + 24 + 24);
+        });
+        assertThat(report.estimatedBytes()).isEqualTo(56_000 + 16_000);
+        assertThat(report.bytesPerTransaction()).contains(72L);
+        assertThat(report.transactionCapacity()).contains(1_000 + (1_000_000 - 72_000) / 72L);
+        assertThat(report.bytesPerAccount()).isEmpty();
+    }
+
+    @Test
+    void rejects_unbounded_sample() {
+        // then
+        assertThatThrownBy(() -> census.take(MemoryCensus.MAX_SAMPLE_SIZE + 1))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Entries of a money amount and a boxed number each, or of nothing of their own.
+     */
+    private static MemoryCensus.Population population(long size, boolean retains) {
+        return new MemoryCensus.Population() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public void sample(int limit, MemoryCensus.Sample sample) {
+                LongStream.range(0, retains ? Math.min(limit, size) : 0).forEach(i -> sample.entry(new Money(i), Long.valueOf(1_000 + i)));
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package com.neverless.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricsRegistryTest {
+    MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    void writes_every_metric_in_prometheus_text_format() {
+        // given
+        metrics.gauge("neverless_accounts", "Accounts in the repository", () -> 3);
+        metrics.counter("neverless_errors_total", "Errors").add(2);
+        var get = metrics.timer("neverless_request_seconds", "Requests", Map.of("route", "/a", "method", "GET"));
+        var post = metrics.timer("neverless_request_seconds", "Requests", Map.of("route", "/a", "method", "POST"));
+        get.record(1_500);
+        post.record(2_000_000_000L);
+
+        // when
+        var text = metrics.prometheusText();
+
+        // then
+        assertThat(text).contains("""
+            # HELP neverless_accounts Accounts in the repository
+            # TYPE neverless_accounts gauge
+            neverless_accounts 3
+            # HELP neverless_errors_total Errors
+            # TYPE neverless_errors_total counter
+            neverless_errors_total 2
+            # HELP neverless_request_seconds Requests
+            # TYPE neverless_request_seconds histogram
+            neverless_request_seconds_bucket{method="GET",route="/a",le="1.024E-6"} 0
+            neverless_request_seconds_bucket{method="GET",route="/a",le="2.048E-6"} 1
+            """);
+        assertThat(text).contains("""
+            neverless_request_seconds_bucket{method="GET",route="/a",le="+Inf"} 1
+            neverless_request_seconds_sum{method="GET",route="/a"} 1.5E-6
+            neverless_request_seconds_count{method="GET",route="/a"} 1
+            neverless_request_seconds_bucket{method="POST",route="/a",le="1.024E-6"} 0
+            """);
+        assertThat(text).containsOnlyOnce("# TYPE neverless_request_seconds histogram");
+        assertThat(text).contains("neverless_request_seconds_bucket{method=\"POST\",route=\"/a\",le=\"2.147483648\"} 1\n");
+        assertThat(text).contains("neverless_request_seconds_bucket{method=\"POST\",route=\"/a\",le=\"1.073741824\"} 0\n");
+    }
+
+    @Test
+    void escapes_label_values() {
+        // given
+        metrics.timer("neverless_request_seconds", "Requests", Map.of("route", "/\"quoted\"\\"));
+
+        // then
+        assertThat(metrics.prometheusText()).contains("neverless_request_seconds_count{route=\"/\\\"quoted\\\"\\\\\"} 0");
+    }
+
+    @Test
+    void rejects_same_metric_registered_twice() {
+        // given
+        metrics.timer("neverless_request_seconds", "Requests", Map.of("route", "/a"));
+
+        // then
+        assertThatThrownBy(() -> metrics.timer("neverless_request_seconds", "Requests", Map.of("route", "/a")))
+            .isInstanceOf(IllegalStateException.class);
+    }
+}
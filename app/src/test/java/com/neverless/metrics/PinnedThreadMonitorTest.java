@@ -0,0 +1,48 @@
+package com.neverless.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PinnedThreadMonitorTest {
+    MetricsRegistry metrics = new MetricsRegistry();
+    PinnedThreadMonitor monitor = new PinnedThreadMonitor(metrics, Duration.ofMillis(10));
+
+    @AfterEach
+    void close() {
+        monitor.close();
+    }
+
+    @Test
+    void should_count_virtual_thread_blocking_inside_synchronized() throws Exception {
+        // given
+        monitor.start();
+        var lock = new Object();
+
+        // when
+        Thread.ofVirtual().start(() -> {
+            synchronized (lock) {
+                sleep(Duration.ofMillis(50));
+            }
+        }).join();
+
+        // then
+        var deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (monitor.pinned() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(monitor.pinned()).isEqualTo(1);
+        assertThat(metrics.values()).containsEntry("neverless_virtual_thread_pinned_total", 1.0);
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
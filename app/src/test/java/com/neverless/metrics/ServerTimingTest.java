@@ -0,0 +1,62 @@
+package com.neverless.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerTimingTest {
+    AtomicLong nanos = new AtomicLong();
+
+    @AfterEach
+    void tearDown() {
+        ServerTiming.start().finish();
+    }
+
+    @Test
+    void reports_stages_in_order_with_repeated_ones_added_up() {
+        // given
+        var timing = new ServerTiming(nanos::get);
+        timing.add("parse", 41_000);
+        timing.add("ledger", 1_000_000);
+        timing.add("ledger", 203_000);
+        nanos.set(1_754_000);
+
+        // when
+        var header = timing.header(timing.elapsed());
+
+        // then
+        assertThat(header).isEqualTo("parse;dur=0.041, ledger;dur=1.203, total;dur=1.754");
+    }
+
+    @Test
+    void records_into_timing_of_current_thread_until_finished() {
+        // given
+        var timing = ServerTiming.start();
+
+        // when
+        ServerTiming.record("lock", 5_000_000);
+        timing.finish();
+        ServerTiming.record("store", 5_000_000);
+
+        // then
+        assertThat(ServerTiming.active()).isFalse();
+        assertThat(timing.stages()).containsOnlyKeys("lock");
+        assertThat(timing.stages().get("lock")).isEqualTo("5.000");
+    }
+
+    @Test
+    void ignores_stages_recorded_outside_of_request() throws InterruptedException {
+        // given
+        var timing = ServerTiming.start();
+
+        // when
+        var other = Thread.ofVirtual().start(() -> ServerTiming.record("provider", 1_000));
+        other.join();
+
+        // then
+        assertThat(timing.stages()).isEmpty();
+    }
+}
@@ -0,0 +1,62 @@
+package com.neverless.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerTest {
+    MetricsRegistry metrics = new MetricsRegistry();
+    Timer timer = metrics.timer("neverless_test_seconds", "Test timer");
+
+    @Test
+    void places_durations_in_log_linear_buckets() {
+        // then
+        assertThat(IntStream.range(0, 20).map(i -> Timer.bucket(i)).toArray())
+            .containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 12, 12);
+        assertThat(Timer.bucket(Long.MAX_VALUE)).isEqualTo(Timer.BUCKETS - 1);
+        for (var nanos : new long[]{1, 7, 1_000, 1_234_567, 60_000_000_000L}) {
+            var bucket = Timer.bucket(nanos);
+            assertThat(Timer.upperBound(bucket)).isGreaterThan(nanos);
+            assertThat(Timer.upperBound(bucket)).isLessThanOrEqualTo(nanos + nanos / 4 + 1);
+        }
+    }
+
+    @Test
+    void reports_percentiles_within_a_quarter() {
+        // given
+        for (var i = 1; i <= 100; i++) {
+            timer.record(i * 1_000_000L);
+        }
+
+        // when
+        var snapshot = timer.snapshot();
+
+        // then
+        assertThat(snapshot.count()).isEqualTo(100);
+        assertThat(snapshot.sumNanos()).isEqualTo(5_050_000_000L);
+        assertThat(snapshot.percentile(0.5)).isBetween(50_000_000L, 62_500_000L);
+        assertThat(snapshot.percentile(0.99)).isBetween(99_000_000L, 123_750_000L);
+        assertThat(snapshot.countBelowPowerOfTwo(24)).isEqualTo(16);
+    }
+
+    @Test
+    void merges_durations_recorded_by_many_threads() {
+        // when
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var thread = 0; thread < 100; thread++) {
+                executor.submit(() -> {
+                    for (var i = 0; i < 1_000; i++) {
+                        timer.record(1_000);
+                    }
+                });
+            }
+        }
+
+        // then
+        assertThat(timer.snapshot().count()).isEqualTo(100_000);
+        assertThat(timer.snapshot().sumNanos()).isEqualTo(100_000_000);
+    }
+}
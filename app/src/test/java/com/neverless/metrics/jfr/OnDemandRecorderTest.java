@@ -0,0 +1,83 @@
+package com.neverless.metrics.jfr;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OnDemandRecorderTest {
+    @TempDir
+    Path directory;
+
+    OnDemandRecorder recorder = new OnDemandRecorder();
+
+    @Test
+    void records_application_events_into_jfr_file() throws Exception {
+        // given
+        var emitting = new AtomicBoolean(true);
+        var emitter = Thread.ofVirtual().start(() -> {
+            while (emitting.get()) {
+                var event = new FinalizeCycleEvent();
+                event.begin();
+                event.checked = 3;
+                event.commit();
+                sleep(5);
+            }
+        });
+        var file = directory.resolve("recording.jfr");
+
+        // when
+        try (var recording = recorder.record(Duration.ofMillis(300)).orElseThrow()) {
+            Files.copy(recording, file);
+        } finally {
+            emitting.set(false);
+            emitter.join();
+        }
+
+        // then
+        assertThat(RecordingFile.readAllEvents(file)).anySatisfy(event -> {
+            assertThat(event.getEventType().getName()).isEqualTo("com.neverless.FinalizeCycle");
+            assertThat(event.getInt("checked")).isEqualTo(3);
+        });
+    }
+
+    @Test
+    void takes_one_recording_at_a_time() throws Exception {
+        // given
+        var first = CompletableFuture.supplyAsync(() -> recorder.record(Duration.ofMillis(500)));
+        while (FlightRecorder.getFlightRecorder().getRecordings().stream().noneMatch(recording -> recording.getName().equals("neverless-on-demand"))) {
+            Thread.sleep(5);
+        }
+
+        // when
+        var second = recorder.record(Duration.ofMillis(1));
+
+        // then
+        assertThat(second).isEmpty();
+        first.get().orElseThrow().close();
+    }
+
+    @Test
+    void rejects_recording_longer_than_limit() {
+        // then
+        assertThatThrownBy(() -> recorder.record(OnDemandRecorder.MAX_DURATION.plusSeconds(1)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
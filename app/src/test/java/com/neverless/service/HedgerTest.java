@@ -0,0 +1,139 @@
+package com.neverless.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HedgerTest {
+    AtomicLong nanos = new AtomicLong();
+    ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.close();
+    }
+
+    @Test
+    void hedges_call_slower_than_recent_percentile_and_returns_first_answer() {
+        // given
+        var hedger = new Hedger(0.95, 0.05, Duration.ofMinutes(1), executor, nanos::get);
+        warmUp(hedger);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                await(release);
+                return "first";
+            }
+            return "hedge";
+        });
+
+        // then
+        assertThat(result).isEqualTo("hedge");
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(hedger.hedges()).isEqualTo(1);
+        assertThat(hedger.delay()).isEqualTo(Duration.ofNanos(1 << 20));
+    }
+
+    @Test
+    void stops_hedging_once_budget_is_spent() {
+        // given
+        var hedger = new Hedger(0.95, 0.01, Duration.ofMinutes(1), executor, nanos::get);
+        warmUp(hedger);
+        var attempts = new AtomicInteger();
+        hedger.call(() -> attempts.incrementAndGet() == 1 ? await(release) : "hedge");
+
+        // when
+        var result = hedger.call(() -> {
+            attempts.incrementAndGet();
+            sleep(50);
+            return "first";
+        });
+
+        // then
+        assertThat(result).isEqualTo("first");
+        assertThat(attempts.get()).isEqualTo(3);
+        assertThat(hedger.hedges()).isEqualTo(1);
+    }
+
+    @Test
+    void does_not_hedge_until_enough_latencies_are_seen() {
+        // given
+        var hedger = new Hedger(0.95, 1, Duration.ofMinutes(1), executor, nanos::get);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.call(() -> {
+            attempts.incrementAndGet();
+            sleep(50);
+            return "first";
+        });
+
+        // then
+        assertThat(result).isEqualTo("first");
+        assertThat(attempts.get()).isEqualTo(1);
+        assertThat(hedger.delay()).isZero();
+    }
+
+    @Test
+    void passes_exception_of_call_through() {
+        // given
+        var hedger = new Hedger(0.95, 0.05, Duration.ofMinutes(1), executor, nanos::get);
+
+        // then
+        assertThatThrownBy(() -> hedger.call(() -> {
+            throw new IllegalArgumentException("not found");
+        }))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("not found");
+    }
+
+    @Test
+    void none_calls_on_caller_thread() {
+        // when
+        var thread = Hedger.none().call(Thread::currentThread);
+
+        // then
+        assertThat(thread).isEqualTo(Thread.currentThread());
+    }
+
+    /**
+     * A window of calls taking a millisecond each, then one in the next window so the delay is derived from them.
+     */
+    private void warmUp(Hedger hedger) {
+        for (var i = 0; i < Hedger.MIN_SAMPLES; i++) {
+            hedger.call(() -> nanos.addAndGet(Duration.ofMillis(1).toNanos()));
+        }
+        nanos.addAndGet(Duration.ofMinutes(1).toNanos());
+        hedger.call(() -> nanos.addAndGet(Duration.ofMillis(1).toNanos()));
+    }
+
+    private static String await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "first";
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
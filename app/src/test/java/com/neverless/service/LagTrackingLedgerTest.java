@@ -0,0 +1,104 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.mock;
+
+class LagTrackingLedgerTest {
+    Ledger ledger = mock(Ledger.class);
+    MetricsRegistry metrics = new MetricsRegistry();
+    AtomicLong nanos = new AtomicLong();
+    LagTrackingLedger trackingLedger = new LagTrackingLedger(ledger, metrics, nanos::get);
+
+    AccountId from = AccountId.random();
+    AccountId to = AccountId.random();
+    Money amount = new Money(BigDecimal.ONE);
+
+    @Test
+    void should_report_age_of_oldest_pending_withdrawal() {
+        // given
+        var first = withdraw();
+        nanos.addAndGet(Duration.ofSeconds(5).toNanos());
+        withdraw();
+        nanos.addAndGet(Duration.ofSeconds(3).toNanos());
+
+        // when
+        var before = trackingLedger.lag();
+        trackingLedger.complete(first);
+        var after = trackingLedger.lag();
+
+        // then
+        assertThat(before.oldestPending()).isEqualTo(Duration.ofSeconds(8));
+        assertThat(before.pending()).isEqualTo(2);
+        assertThat(after.oldestPending()).isEqualTo(Duration.ofSeconds(3));
+        assertThat(after.pending()).isEqualTo(1);
+    }
+
+    @Test
+    void should_record_request_to_finalization_time_and_finalized_per_cycle() {
+        // given
+        var completed = withdraw();
+        var failed = withdraw();
+        var recovered = TransactionId.random();
+        trackingLedger.recover(List.of(recovered));
+        nanos.addAndGet(Duration.ofMillis(20).toNanos());
+
+        // when
+        trackingLedger.complete(completed);
+        trackingLedger.fail(failed);
+        trackingLedger.fail(recovered);
+        trackingLedger.cycleFinished();
+
+        // then
+        assertThat(trackingLedger.lag()).isEqualTo(new LagTrackingLedger.Lag(Duration.ZERO, 0, 3));
+        assertThat(metrics.values())
+            .containsEntry("neverless_withdrawal_finalization_seconds_count", 2.0)
+            .containsEntry("neverless_withdrawals_finalized_total", 3.0);
+
+        // when
+        trackingLedger.cycleFinished();
+
+        // then
+        assertThat(trackingLedger.lag().finalizedLastCycle()).isZero();
+    }
+
+    @Test
+    void should_not_track_internal_transfers_or_failed_finalizations() {
+        // given
+        given(ledger.moveMoney(any(TransactionId.class), eq(from), eq(to), eq(amount), eq(Optional.empty()))).willReturn(TransactionId.random());
+        var withdrawal = withdraw();
+        willThrow(new IllegalStateException("already finalized")).given(ledger).complete(withdrawal);
+
+        // when
+        trackingLedger.moveMoney(from, to, amount, Optional.empty());
+
+        // then
+        assertThatThrownBy(() -> trackingLedger.complete(withdrawal)).isInstanceOf(IllegalStateException.class);
+        assertThat(trackingLedger.lag().pending()).isEqualTo(1);
+    }
+
+    private TransactionId withdraw() {
+        var id = TransactionId.random();
+        var externalRef = Optional.of(new ExternalRef(UUID.randomUUID().toString()));
+        given(ledger.moveMoney(id, from, to, amount, externalRef)).willReturn(id);
+        return trackingLedger.moveMoney(id, from, to, amount, externalRef);
+    }
+}
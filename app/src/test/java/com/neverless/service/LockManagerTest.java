@@ -0,0 +1,135 @@
+package com.neverless.service;
+
+import com.neverless.exceptions.LockTimeoutException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LockManagerTest {
+    LockManager lockManager = new LockManager(16, Duration.ofMillis(50));
+
+    @Test
+    void should_round_stripes_up_to_power_of_two() {
+        // then
+        assertThat(new LockManager(100).stripes()).isEqualTo(128);
+        assertThat(new LockManager(64).stripes()).isEqualTo(64);
+    }
+
+    @Test
+    void should_time_out_when_key_is_held_by_another_thread() throws Exception {
+        // given
+        var key = UUID.randomUUID();
+        var locked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            var holder = executor.submit(() -> lockManager.withLock(key, () -> {
+                locked.countDown();
+                await(release);
+                return null;
+            }));
+            locked.await();
+
+            // then
+            assertThatThrownBy(() -> lockManager.withLock(key, () -> null)).isInstanceOf(LockTimeoutException.class);
+            assertThatThrownBy(() -> lockManager.withLocks(UUID.randomUUID(), key, () -> null)).isInstanceOf(LockTimeoutException.class);
+            release.countDown();
+            holder.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(lockManager.withLock(key, () -> "free")).isEqualTo("free");
+    }
+
+    @Test
+    void should_lock_keys_sharing_a_stripe_once() {
+        // given
+        var single = new LockManager(1, Duration.ofMillis(50));
+        var keys = IntStream.range(0, 5).mapToObj(_ -> UUID.randomUUID()).toArray(UUID[]::new);
+
+        // when
+        var result = single.withLocks(() -> single.withLocks(keys[0], keys[1], () -> "locked"), keys);
+
+        // then
+        assertThat(result).isEqualTo("locked");
+        assertThat(single.withLocks(keys[2], keys[3], () -> "released")).isEqualTo("released");
+    }
+
+    @Test
+    void should_not_deadlock_when_keys_are_passed_in_opposite_order() throws Exception {
+        // given
+        var patient = new LockManager(4, Duration.ofSeconds(10));
+        var keys = IntStream.range(0, 8).mapToObj(_ -> UUID.randomUUID()).toList();
+        var completed = new AtomicInteger();
+
+        // when
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            var tasks = IntStream.range(0, 4).mapToObj(worker -> executor.submit(() -> {
+                for (var i = 0; i < 10_000; i++) {
+                    var first = keys.get((worker + i) % keys.size());
+                    var second = keys.get((worker + 3 * i + 1) % keys.size());
+                    patient.withLocks(worker % 2 == 0 ? first : second, worker % 2 == 0 ? second : first, completed::incrementAndGet);
+                }
+                return null;
+            })).toList();
+            for (var task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        // then
+        assertThat(completed.get()).isEqualTo(40_000);
+    }
+
+    @Test
+    void should_report_contended_stripes_with_their_key() throws Exception {
+        // given
+        var patient = new LockManager(16, Duration.ofSeconds(10));
+        var hot = UUID.randomUUID();
+        var locked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            var holder = executor.submit(() -> patient.withLock(hot, () -> {
+                locked.countDown();
+                await(release);
+                return null;
+            }));
+            locked.await();
+            var waiter = Thread.ofPlatform().start(() -> patient.withLock(hot, () -> null));
+            while (waiter.getState() != Thread.State.TIMED_WAITING) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+            waiter.join();
+            holder.get(5, TimeUnit.SECONDS);
+        }
+        IntStream.range(0, 2_000).forEach(_ -> patient.withLock(UUID.randomUUID(), () -> null));
+
+        // when
+        var report = patient.report(5);
+
+        // then
+        assertThat(report.acquisitions()).isEqualTo(2_002);
+        assertThat(report.contended()).isEqualTo(1);
+        assertThat(report.waitTimes().count()).isEqualTo(1);
+        assertThat(report.holdTimes().count()).isPositive();
+        assertThat(report.hottest()).singleElement().satisfies(stripe -> {
+            assertThat(stripe.contended()).isEqualTo(1);
+            assertThat(stripe.lastContendedKey()).contains(hot);
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,30 +1,36 @@
 package com.neverless.service;
 
-import com.neverless.domain.account.ExternalAddress;
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.account.AccountType;
 import com.neverless.domain.transaction.ExternalRef;
 import com.neverless.domain.transaction.TransactionRepository;
 import com.neverless.domain.transaction.TransactionState;
 import com.neverless.domain.transaction.TransactionType;
 import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.metrics.jfr.MoneyMoveEvent;
+import com.neverless.storage.journal.Journal;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 
-import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
-import static com.neverless.domain.account.UserAccount.Builder.userAccount;
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
-import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
 import static org.mockito.Mockito.*;
 
 class MoneyMoverTest {
@@ -39,10 +45,14 @@ class MoneyMoverTest {
 
     @BeforeEach
     public void setup() {
-        given(lockManager.withLockBy(any(), any())).willAnswer(invocationOnMock -> {
+        given(lockManager.withLock(any(), any())).willAnswer(invocationOnMock -> {
             final var executable = (Supplier<Object>) invocationOnMock.getArgument(1);
             return executable.get();
         });
+        given(lockManager.withLocks(any(UUID.class), any(UUID.class), any())).willAnswer(invocationOnMock -> {
+            final var executable = (Supplier<Object>) invocationOnMock.getArgument(2);
+            return executable.get();
+        });
     }
 
     @Nested
@@ -50,13 +60,8 @@ class MoneyMoverTest {
         @Test
         void should_throw_when_transfer_between_external_accounts() {
             // given
-            given(accountRepository.get(from)).willReturn(externalAccount()
-                    .externalAddress(new ExternalAddress(randomAlphabetic(8)))
-                    .balance(new Money(BigDecimal.TEN))
-                    .build());
-            given(accountRepository.get(to)).willReturn(externalAccount()
-                    .externalAddress(new ExternalAddress(randomAlphabetic(8)))
-                    .build());
+            given(accountRepository.type(from)).willReturn(AccountType.EXTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.EXTERNAL);
 
             // then
             assertThatThrownBy(() -> moneyMover.moveMoney(from, to, new Money(BigDecimal.ONE)))
@@ -87,8 +92,9 @@ class MoneyMoverTest {
         @Test
         void should_throw_when_account_has_insufficient_balance() {
             // given
-            given(accountRepository.get(from)).willReturn(userAccount().balance(Money.zero()).build());
-            given(accountRepository.get(to)).willReturn(userAccount().build());
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(false);
 
             // then
             assertThatThrownBy(() -> moneyMover.moveMoney(from, to, amount))
@@ -98,9 +104,9 @@ class MoneyMoverTest {
         @Test
         void should_create_transaction_and_lock_funds() {
             // given
-            final var fromAcc = userAccount().balance(new Money(BigDecimal.TEN)).build();
-            given(accountRepository.get(from)).willReturn(fromAcc);
-            given(accountRepository.get(to)).willReturn(userAccount().build());
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(true);
 
             // when
             final var result = moneyMover.moveMoney(from, to, amount);
@@ -116,15 +122,84 @@ class MoneyMoverTest {
                     .to(to)
                     .build();
             then(transactionRepository).should(times(1)).add(expectedTransaction);
-            then(accountRepository).should(times(1)).update(fromAcc.deduct(amount));
+            then(accountRepository).should(times(1)).debit(from, amount);
+        }
+
+        @Test
+        void should_record_flight_recorder_event_with_lock_wait() throws Exception {
+            // given
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(true);
+            given(lockManager.withLocks(any(UUID.class), any(UUID.class), any())).willAnswer(invocationOnMock -> {
+                Thread.sleep(20);
+                return ((Supplier<Object>) invocationOnMock.getArgument(2)).get();
+            });
+            final var file = Files.createTempFile("money-mover", ".jfr");
+
+            // when
+            try (var recording = new Recording()) {
+                recording.enable(MoneyMoveEvent.class);
+                recording.start();
+                moneyMover.moveMoney(from, to, amount);
+                recording.stop();
+                recording.dump(file);
+            }
+
+            // then
+            final var events = RecordingFile.readAllEvents(file);
+            Files.delete(file);
+            assertThat(events).singleElement().satisfies(event -> {
+                assertThat(event.getEventType().getName()).isEqualTo("com.neverless.MoneyMove");
+                assertThat(event.getString("fromAccount")).isEqualTo(from.value().toString());
+                assertThat(event.getString("toAccount")).isEqualTo(to.value().toString());
+                assertThat(event.getLong("amount")).isEqualTo(amount.units());
+                assertThat(event.getDuration("lockWait")).isGreaterThanOrEqualTo(Duration.ofMillis(20));
+                assertThat(event.getBoolean("succeeded")).isTrue();
+            });
+        }
+
+        @Test
+        void should_await_durability_after_releasing_locks() {
+            // given
+            final var journal = mock(Journal.class);
+            final var locked = new AtomicBoolean();
+            final var moneyMover = new MoneyMover(transactionRepository, accountRepository, lockManager, journal);
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(true);
+            given(lockManager.withLocks(any(UUID.class), any(UUID.class), any())).willAnswer(invocationOnMock -> {
+                locked.set(true);
+                try {
+                    return ((Supplier<Object>) invocationOnMock.getArgument(2)).get();
+                } finally {
+                    locked.set(false);
+                }
+            });
+            given(journal.deferDurability(any())).willAnswer(invocationOnMock -> {
+                ((Runnable) invocationOnMock.getArgument(0)).run();
+                return 42L;
+            });
+            final var lockedWhileAwaiting = new AtomicBoolean(true);
+            willAnswer(invocationOnMock -> {
+                lockedWhileAwaiting.set(locked.get());
+                return null;
+            }).given(journal).awaitDurable(42L);
+
+            // when
+            moneyMover.moveMoney(from, to, amount);
+
+            // then
+            then(journal).should(times(1)).awaitDurable(42L);
+            assertThat(lockedWhileAwaiting).isFalse();
         }
 
         @Test
         void should_create_transaction_when_external_ref_is_provided() {
             // given
-            final var fromAcc = userAccount().balance(new Money(BigDecimal.TEN)).build();
-            given(accountRepository.get(from)).willReturn(fromAcc);
-            given(accountRepository.get(to)).willReturn(userAccount().build());
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(true);
 
             final var externalRef = new ExternalRef("external-ref");
 
@@ -143,15 +218,15 @@ class MoneyMoverTest {
                     .externalRef(externalRef)
                     .build();
             then(transactionRepository).should(times(1)).add(expectedTransaction);
-            then(accountRepository).should(times(1)).update(fromAcc.deduct(amount));
+            then(accountRepository).should(times(1)).debit(from, amount);
         }
 
         @Test
         void should_create_transaction_with_correct_type_when_transaction_is_external() {
             // given
-            final var fromAcc = userAccount().balance(new Money(BigDecimal.TEN)).build();
-            given(accountRepository.get(from)).willReturn(fromAcc);
-            given(accountRepository.get(to)).willReturn(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(8))).build());
+            given(accountRepository.type(from)).willReturn(AccountType.INTERNAL);
+            given(accountRepository.type(to)).willReturn(AccountType.EXTERNAL);
+            given(accountRepository.debit(from, amount)).willReturn(true);
 
             // when
             final var result = moneyMover.moveMoney(from, to, amount);
@@ -167,7 +242,7 @@ class MoneyMoverTest {
                     .to(to)
                     .build();
             then(transactionRepository).should(times(1)).add(expectedTransaction);
-            then(accountRepository).should(times(1)).update(fromAcc.deduct(amount));
+            then(accountRepository).should(times(1)).debit(from, amount);
         }
     }
 
@@ -191,14 +266,11 @@ class MoneyMoverTest {
         @Test
         void should_add_money() {
             // given
-            final var acc = userAccount().build();
-            given(accountRepository.get(acc.id)).willReturn(acc);
-
             // when
-            moneyMover.addMoney(acc.id, amount);
+            moneyMover.addMoney(to, amount);
 
             // then
-            then(accountRepository).should(times(1)).update(acc.add(amount));
+            then(accountRepository).should(times(1)).credit(to, amount);
         }
 
     }
@@ -0,0 +1,211 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.TransactionState;
+import com.neverless.domain.transaction.TransactionType;
+import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.exceptions.NotFoundException;
+import com.neverless.storage.AccountRepositoryInMem;
+import com.neverless.storage.TransactionRepositoryInMem;
+import com.neverless.storage.journal.Journal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SequencedLedgerTest {
+    TransactionRepositoryInMem transactionRepository = new TransactionRepositoryInMem();
+    AccountRepositoryInMem accountRepository = new AccountRepositoryInMem();
+    // small ring so concurrent tests wrap around it many times
+    SequencedLedger ledger = new SequencedLedger(transactionRepository, accountRepository, Journal.NONE, 8);
+
+    @AfterEach
+    void close() {
+        ledger.close();
+    }
+
+    @Nested
+    class MoveMoneyTest {
+        @Test
+        void should_create_transaction_and_lock_funds() {
+            // given
+            var from = accountRepository.add(userAccount().balance(new Money(BigDecimal.TEN)).build());
+            var to = accountRepository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(8))).build());
+            var externalRef = new ExternalRef("external-ref");
+
+            // when
+            var result = ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.of(externalRef));
+
+            // then
+            var transaction = transactionRepository.get(result);
+            assertThat(transaction.state()).isEqualTo(TransactionState.PENDING);
+            assertThat(transaction.type()).isEqualTo(TransactionType.EXTERNAL);
+            assertThat(transaction.externalRef()).contains(externalRef);
+            assertThat(accountRepository.get(from.id).balance).isEqualTo(new Money(new BigDecimal(9)));
+            assertThat(accountRepository.get(to.id).balance).isEqualTo(Money.zero());
+        }
+
+        @Test
+        void should_throw_when_account_has_insufficient_balance() {
+            // given
+            var from = accountRepository.add(userAccount().build());
+            var to = accountRepository.add(userAccount().build());
+
+            // then
+            assertThatThrownBy(() -> ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.empty()))
+                .isInstanceOf(InsufficientBalanceException.class);
+            assertThat(transactionRepository.size()).isZero();
+        }
+
+        @Test
+        void should_throw_when_account_does_not_exist() {
+            // given
+            var to = accountRepository.add(userAccount().build());
+
+            // then
+            assertThatThrownBy(() -> ledger.moveMoney(AccountId.random(), to.id, new Money(BigDecimal.ONE), Optional.empty()))
+                .isInstanceOf(NotFoundException.class);
+        }
+
+        @Test
+        void should_throw_when_transfer_between_external_accounts() {
+            // given
+            var from = accountRepository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(8))).balance(new Money(BigDecimal.TEN)).build());
+            var to = accountRepository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(8))).build());
+
+            // then
+            assertThatThrownBy(() -> ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.empty()))
+                .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        @Test
+        void should_keep_total_balance_when_transfers_run_concurrently() throws Exception {
+            // given
+            var accounts = IntStream.range(0, 10)
+                .mapToObj(_ -> accountRepository.add(userAccount().balance(new Money(new BigDecimal(100))).build()).id)
+                .toList();
+            var succeeded = new AtomicInteger();
+
+            // when
+            try (var executor = Executors.newFixedThreadPool(8)) {
+                var tasks = IntStream.range(0, 8).mapToObj(worker -> executor.submit(() -> {
+                    for (var i = 0; i < 1_000; i++) {
+                        var from = accounts.get((worker + i) % accounts.size());
+                        var to = accounts.get((worker + i + 1) % accounts.size());
+                        try {
+                            ledger.moveMoney(from, to, new Money(BigDecimal.ONE), Optional.empty());
+                            succeeded.incrementAndGet();
+                        } catch (InsufficientBalanceException e) {
+                            // expected once an account is drained
+                        }
+                    }
+                    return null;
+                })).toList();
+                for (var task : tasks) {
+                    task.get(30, TimeUnit.SECONDS);
+                }
+            }
+
+            // then
+            var remaining = accounts.stream().map(id -> accountRepository.get(id).balance).reduce(Money.zero(), Money::add);
+            assertThat(remaining).isEqualTo(new Money(new BigDecimal(1_000 - succeeded.get())));
+            assertThat(transactionRepository.size()).isEqualTo(succeeded.get());
+        }
+    }
+
+    @Nested
+    class FinalizeTest {
+        @Test
+        void should_credit_target_when_completed() {
+            // given
+            var from = accountRepository.add(userAccount().balance(new Money(BigDecimal.TEN)).build());
+            var to = accountRepository.add(userAccount().build());
+            var transaction = ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.empty());
+
+            // when
+            ledger.complete(transaction);
+
+            // then
+            assertThat(transactionRepository.get(transaction).state()).isEqualTo(TransactionState.COMPLETED);
+            assertThat(accountRepository.get(to.id).balance).isEqualTo(new Money(BigDecimal.ONE));
+        }
+
+        @Test
+        void should_return_funds_when_failed() {
+            // given
+            var from = accountRepository.add(userAccount().balance(new Money(BigDecimal.TEN)).build());
+            var to = accountRepository.add(userAccount().build());
+            var transaction = ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.empty());
+
+            // when
+            ledger.fail(transaction);
+
+            // then
+            assertThat(transactionRepository.get(transaction).state()).isEqualTo(TransactionState.FAILED);
+            assertThat(accountRepository.get(from.id).balance).isEqualTo(new Money(BigDecimal.TEN));
+        }
+
+        @Test
+        void should_not_credit_twice_when_finalized_twice() {
+            // given
+            var from = accountRepository.add(userAccount().balance(new Money(BigDecimal.TEN)).build());
+            var to = accountRepository.add(userAccount().build());
+            var transaction = ledger.moveMoney(from.id, to.id, new Money(BigDecimal.ONE), Optional.empty());
+            ledger.complete(transaction);
+
+            // then
+            assertThatThrownBy(() -> ledger.complete(transaction)).isInstanceOf(IllegalStateException.class);
+            assertThat(accountRepository.get(to.id).balance).isEqualTo(new Money(BigDecimal.ONE));
+        }
+    }
+
+    @Test
+    void should_reject_commands_after_close() {
+        // given
+        var account = accountRepository.add(userAccount().build());
+        ledger.close();
+
+        // then
+        assertThatThrownBy(() -> ledger.addMoney(account.id, new Money(BigDecimal.ONE))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void should_fail_commands_and_reject_new_ones_once_writer_hits_an_error() {
+        // given
+        var failingAccounts = new AccountRepositoryInMem() {
+            @Override
+            public void credit(AccountId id, Money amount) {
+                throw new StackOverflowError();
+            }
+        };
+        var account = failingAccounts.add(userAccount().build());
+        var failingLedger = new SequencedLedger(transactionRepository, failingAccounts, Journal.NONE, 8);
+
+        try {
+            // then
+            assertThatThrownBy(() -> failingLedger.addMoney(account.id, new Money(BigDecimal.ONE)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasCauseInstanceOf(StackOverflowError.class);
+            assertThatThrownBy(() -> failingLedger.addMoney(account.id, new Money(BigDecimal.ONE)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Ledger writer failed");
+        } finally {
+            failingLedger.close();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionState;
+import com.neverless.exceptions.InsufficientBalanceException;
+import com.neverless.storage.AccountRepositoryInMem;
+import com.neverless.storage.TransactionRepositoryInMem;
+import com.neverless.storage.journal.FileJournal;
+import com.neverless.storage.journal.FsyncPolicy;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardedLedgerTest {
+    TransactionRepositoryInMem transactionRepository = new TransactionRepositoryInMem();
+    AccountRepositoryInMem accountRepository = new AccountRepositoryInMem();
+    ShardedLedger ledger = new ShardedLedger(transactionRepository, accountRepository, Journal.NONE, 4, 16);
+
+    @AfterEach
+    void close() {
+        ledger.close();
+    }
+
+    @Test
+    void should_complete_and_fail_transactions_on_any_pair_of_shards() {
+        // given
+        var users = users(20);
+        var externals = IntStream.range(0, 20)
+            .mapToObj(_ -> accountRepository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(12))).build()).id)
+            .toList();
+        var completed = IntStream.range(0, 20)
+            .mapToObj(i -> ledger.moveMoney(users.get(i), externals.get(i), new Money(BigDecimal.ONE), Optional.empty()))
+            .toList();
+        var failed = IntStream.range(0, 20)
+            .mapToObj(i -> ledger.moveMoney(users.get(i), externals.get((i + 1) % 20), new Money(BigDecimal.TWO), Optional.empty()))
+            .toList();
+
+        // when
+        completed.forEach(ledger::complete);
+        failed.forEach(ledger::fail);
+
+        // then
+        completed.forEach(id -> assertThat(transactionRepository.get(id).state()).isEqualTo(TransactionState.COMPLETED));
+        failed.forEach(id -> assertThat(transactionRepository.get(id).state()).isEqualTo(TransactionState.FAILED));
+        users.forEach(id -> assertThat(accountRepository.get(id).balance).isEqualTo(new Money(new BigDecimal(99))));
+        externals.forEach(id -> assertThat(accountRepository.get(id).balance).isEqualTo(new Money(BigDecimal.ONE)));
+    }
+
+    @Test
+    void should_journal_credit_and_completion_as_one_record(@TempDir Path directory) {
+        // given
+        var journal = FileJournal.open(directory, FsyncPolicy.osManaged());
+        var accounts = new AccountRepositoryInMem(journal);
+        var transactions = new TransactionRepositoryInMem(journal);
+        var completed = new ArrayList<TransactionId>();
+        try (var journaledLedger = new ShardedLedger(transactions, accounts, journal, 4, 16)) {
+            for (var i = 0; i < 20; i++) {
+                var user = accounts.add(userAccount().balance(new Money(BigDecimal.TEN)).build()).id;
+                var external = accounts.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(12))).build()).id;
+                completed.add(journaledLedger.moveMoney(user, external, new Money(BigDecimal.ONE), Optional.empty()));
+            }
+
+            // when
+            completed.forEach(journaledLedger::complete);
+        }
+        journal.close();
+
+        // then
+        var records = new ArrayList<JournalRecord>();
+        try (var reopened = FileJournal.open(directory, FsyncPolicy.osManaged())) {
+            reopened.replay(records::add);
+        }
+        completed.forEach(id -> {
+            var transaction = transactions.get(id);
+            assertThat(records).anySatisfy(record -> assertThat(record).isInstanceOfSatisfying(JournalRecord.Atomic.class, atomic -> {
+                assertThat(atomic.records()).contains(new JournalRecord.TransactionWritten(transaction));
+                assertThat(atomic.records()).anySatisfy(nested -> assertThat(nested)
+                    .isInstanceOfSatisfying(JournalRecord.BalanceChanged.class, changed -> assertThat(changed.id()).isEqualTo(transaction.to())));
+            }));
+        });
+    }
+
+    @Test
+    void should_credit_target_once_when_completed_concurrently() throws Exception {
+        // given
+        var users = users(10);
+        var external = accountRepository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(12))).build()).id;
+        var transactions = users.stream()
+            .map(user -> ledger.moveMoney(user, external, new Money(BigDecimal.ONE), Optional.empty()))
+            .toList();
+        var succeeded = new AtomicInteger();
+
+        // when
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            var tasks = IntStream.range(0, 4).mapToObj(_ -> executor.submit(() -> {
+                for (final TransactionId transaction : transactions) {
+                    try {
+                        ledger.complete(transaction);
+                        succeeded.incrementAndGet();
+                    } catch (IllegalStateException e) {
+                        // completed or being completed by another thread
+                    }
+                }
+                return null;
+            })).toList();
+            for (var task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        // then
+        assertThat(succeeded.get()).isEqualTo(transactions.size());
+        assertThat(accountRepository.get(external).balance).isEqualTo(new Money(new BigDecimal(transactions.size())));
+    }
+
+    @Test
+    void should_keep_total_balance_when_transfers_run_concurrently() throws Exception {
+        // given
+        var users = users(16);
+        var succeeded = new AtomicInteger();
+
+        // when
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            var tasks = IntStream.range(0, 8).mapToObj(worker -> executor.submit(() -> {
+                for (var i = 0; i < 500; i++) {
+                    var from = users.get((worker + i) % users.size());
+                    var to = users.get((worker + 3 * i + 1) % users.size());
+                    if (from.equals(to)) {
+                        continue;
+                    }
+                    try {
+                        ledger.complete(ledger.moveMoney(from, to, new Money(BigDecimal.ONE), Optional.empty()));
+                        succeeded.incrementAndGet();
+                    } catch (InsufficientBalanceException e) {
+                        // expected once an account is drained
+                    }
+                }
+                return null;
+            })).toList();
+            for (var task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        }
+
+        // then
+        var total = users.stream().map(id -> accountRepository.get(id).balance).reduce(Money.zero(), Money::add);
+        assertThat(total).isEqualTo(new Money(new BigDecimal(100 * users.size())));
+        assertThat(transactionRepository.size()).isEqualTo(succeeded.get());
+    }
+
+    @Test
+    void should_reject_non_positive_amount() {
+        // given
+        var users = users(2);
+
+        // then
+        assertThatThrownBy(() -> ledger.moveMoney(users.get(0), users.get(1), Money.zero(), Optional.empty()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<AccountId> users(int count) {
+        return IntStream.range(0, count)
+            .mapToObj(_ -> accountRepository.add(userAccount().balance(new Money(new BigDecimal(100))).build()).id)
+            .toList();
+    }
+}
@@ -0,0 +1,109 @@
+package com.neverless.service;
+
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.integration.RequestDeadline;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+    SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+    @Test
+    void should_share_call_in_flight_between_concurrent_callers() throws Exception {
+        // given
+        var release = new CountDownLatch(1);
+        var made = new AtomicInteger();
+
+        // when
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> singleFlight.call("id", () -> {
+                await(release);
+                return made.incrementAndGet();
+            }));
+            while (singleFlight.calls() == 0) {
+                Thread.onSpinWait();
+            }
+            var followers = IntStream.range(0, 5)
+                .mapToObj(_ -> executor.submit(() -> singleFlight.call("id", made::incrementAndGet)))
+                .toList();
+            while (singleFlight.coalesced() < 5) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // then
+            assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            for (var follower : followers) {
+                assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+            }
+        }
+        assertThat(made.get()).isEqualTo(1);
+        assertThat(singleFlight.calls()).isEqualTo(1);
+        assertThat(singleFlight.coalesced()).isEqualTo(5);
+    }
+
+    @Test
+    void should_call_again_once_previous_call_returned() {
+        // when
+        singleFlight.call("id", () -> 1);
+        var second = singleFlight.call("id", () -> 2);
+
+        // then
+        assertThat(second).isEqualTo(2);
+        assertThat(singleFlight.calls()).isEqualTo(2);
+        assertThat(singleFlight.coalesced()).isZero();
+    }
+
+    @Test
+    void should_not_keep_failed_call() {
+        // then
+        assertThatThrownBy(() -> singleFlight.call("id", () -> {
+            throw new IllegalArgumentException("not found");
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThat(singleFlight.call("id", () -> 3)).isEqualTo(3);
+    }
+
+    @Test
+    void should_stop_waiting_for_shared_call_at_own_deadline() throws Exception {
+        // given
+        var release = new CountDownLatch(1);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var leader = executor.submit(() -> singleFlight.call("id", () -> {
+                await(release);
+                return 1;
+            }));
+            while (singleFlight.calls() == 0) {
+                Thread.onSpinWait();
+            }
+
+            // when
+            var started = System.nanoTime();
+            assertThatThrownBy(() -> RequestDeadline.within(Duration.ofMillis(50), () -> singleFlight.call("id", () -> 2)))
+                .isInstanceOf(ProviderUnavailableException.class);
+
+            // then
+            assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(2));
+            release.countDown();
+            assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        }
+        assertThat(singleFlight.coalesced()).isEqualTo(1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
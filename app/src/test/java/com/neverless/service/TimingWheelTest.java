@@ -0,0 +1,78 @@
+package com.neverless.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+    TimingWheel<Long> wheel = new TimingWheel<>(1_000);
+
+    @Test
+    void should_hand_out_entries_on_their_deadline_across_levels() {
+        // given
+        var random = new Random(7);
+        var deadlines = new ArrayList<Long>();
+        for (var i = 0; i < 2_000; i++) {
+            // spans every level of the wheel
+            var deadline = 1_000 + 1 + (long) Math.pow(2, random.nextDouble() * 23);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+
+        // when
+        var due = new ArrayList<Long>();
+        var late = new ArrayList<Long>();
+        for (var tick = 1_001L; tick <= 1_000 + (1L << 23) + 1; tick += 37) {
+            var now = new ArrayList<Long>();
+            wheel.advance(tick, now);
+            for (var deadline : now) {
+                if (deadline > tick || deadline <= tick - 37) {
+                    late.add(deadline);
+                }
+            }
+            due.addAll(now);
+        }
+
+        // then
+        assertThat(late).isEmpty();
+        assertThat(due).containsExactlyInAnyOrderElementsOf(deadlines);
+        assertThat(due).isSorted();
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void should_hand_out_past_deadline_on_next_tick() {
+        // given
+        wheel.schedule(1L, 10);
+        var due = new ArrayList<Long>();
+
+        // when
+        wheel.advance(1_001, due);
+
+        // then
+        assertThat(due).containsExactly(1L);
+    }
+
+    @Test
+    void should_clamp_deadline_beyond_span() {
+        // given
+        wheel.schedule(1L, Long.MAX_VALUE);
+        var due = new ArrayList<Long>();
+
+        // when
+        wheel.advance(1_000 + TimingWheel.SPAN - 2, due);
+
+        // then
+        assertThat(due).isEmpty();
+
+        // when
+        wheel.advance(1_000 + TimingWheel.SPAN - 1, due);
+
+        // then
+        assertThat(due).isEqualTo(List.of(1L));
+    }
+}
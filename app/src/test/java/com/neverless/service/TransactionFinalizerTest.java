@@ -2,6 +2,7 @@ package com.neverless.service;
 
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountRepository;
 import com.neverless.domain.transaction.TransactionRepository;
 import com.neverless.domain.transaction.TransactionState;
 import com.neverless.domain.transaction.TransactionType;
@@ -12,6 +13,7 @@ import java.math.BigDecimal;
 import java.util.function.Supplier;
 
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
@@ -20,9 +22,9 @@ import static org.mockito.Mockito.times;
 
 class TransactionFinalizerTest {
     TransactionRepository transactionRepository = mock(TransactionRepository.class);
-    MoneyMover moneyMover = mock(MoneyMover.class);
+    AccountRepository accountRepository = mock(AccountRepository.class);
     LockManager lockManager = mock(LockManager.class);
-    TransactionFinalizer transactionFinalizer = new TransactionFinalizer(transactionRepository, moneyMover, lockManager);
+    TransactionFinalizer transactionFinalizer = new TransactionFinalizer(transactionRepository, accountRepository, lockManager);
 
     AccountId from = AccountId.random();
     AccountId to = AccountId.random();
@@ -30,7 +32,7 @@ class TransactionFinalizerTest {
 
     @BeforeEach
     public void setup() {
-        given(lockManager.withLockBy(any(), any())).willAnswer(invocationOnMock -> {
+        given(lockManager.withLock(any(), any())).willAnswer(invocationOnMock -> {
             final var executable = (Supplier<Object>) invocationOnMock.getArgument(1);
             return executable.get();
         });
@@ -53,7 +55,7 @@ class TransactionFinalizerTest {
 
         // then
         then(transactionRepository).should(times(1)).update(transaction.complete());
-        then(moneyMover).should(times(1)).addMoney(to, amount);
+        then(accountRepository).should(times(1)).credit(to, amount);
     }
 
     @Test
@@ -73,6 +75,23 @@ class TransactionFinalizerTest {
 
         // then
         then(transactionRepository).should(times(1)).update(transaction.fail());
-        then(moneyMover).should(times(1)).addMoney(from, amount);
+        then(accountRepository).should(times(1)).credit(from, amount);
     }
-}
\ No newline at end of file
+
+    @Test
+    void should_not_credit_when_transaction_is_already_finalized() {
+        // given
+        final var transaction = transaction()
+            .amount(amount)
+            .state(TransactionState.COMPLETED)
+            .type(TransactionType.INTERNAL)
+            .from(from)
+            .to(to)
+            .build();
+        given(transactionRepository.get(transaction.id())).willReturn(transaction);
+
+        // then
+        assertThatThrownBy(() -> transactionFinalizer.complete(transaction.id())).isInstanceOf(IllegalStateException.class);
+        then(accountRepository).shouldHaveNoInteractions();
+    }
+}
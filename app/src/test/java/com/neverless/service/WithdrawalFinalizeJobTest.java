@@ -3,86 +3,206 @@ package com.neverless.service;
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.transaction.Transaction;
-import com.neverless.domain.transaction.TransactionRepository;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
-import java.util.Collections;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 import static com.neverless.domain.transaction.WithdrawalTransactionState.COMPLETED;
 import static com.neverless.domain.transaction.WithdrawalTransactionState.FAILED;
+import static com.neverless.domain.transaction.WithdrawalTransactionState.PROCESSING;
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
-import static com.neverless.domain.transaction.TransactionState.PENDING;
 import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 
 class WithdrawalFinalizeJobTest {
     WithdrawalStateChecker withdrawalStateChecker = mock(WithdrawalStateChecker.class);
-    TransactionRepository transactionRepository = mock(TransactionRepository.class);
-    TransactionFinalizer transactionFinalizer = mock(TransactionFinalizer.class);
+    Ledger ledger = mock(Ledger.class);
+    AtomicLong clock = new AtomicLong(1_000_000);
+    WithdrawalPollScheduler pollScheduler = new WithdrawalPollScheduler(
+        Duration.ofSeconds(1),
+        Duration.ofMinutes(1),
+        Optional.empty(),
+        clock::get,
+        new Random(42));
     WithdrawalFinalizeJob processor = new WithdrawalFinalizeJob(
         withdrawalStateChecker,
-        transactionRepository,
-        transactionFinalizer);
+        ledger,
+        pollScheduler);
 
     @Test
     void does_nothing_when_there_are_no_pending_transactions() {
         // given
-        given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(Collections.emptyList());
 
         // when
         processor.run();
 
         // then
         then(withdrawalStateChecker).shouldHaveNoInteractions();
-        then(transactionFinalizer).shouldHaveNoInteractions();
+        then(ledger).shouldHaveNoInteractions();
     }
 
     @Test
     void completes_transaction_when_its_completed_in_source() {
         // given
         var transaction = aTransaction().build();
-        given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(transaction));
+        pollScheduler.recover(transaction.id(), transaction.amount());
         given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willReturn(Optional.of(COMPLETED));
 
         // when
         processor.run();
 
         // then
-        then(transactionFinalizer).should(times(1)).complete(transaction.id());
+        then(ledger).should(times(1)).complete(transaction.id());
     }
 
     @Test
     void fails_transaction_when_its_failed_in_source() {
         // given
         var transaction = aTransaction().build();
-        given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(transaction));
+        pollScheduler.recover(transaction.id(), transaction.amount());
         given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willReturn(Optional.of(FAILED));
 
         // when
         processor.run();
 
         // then
-        then(transactionFinalizer).should(times(1)).fail(transaction.id());
+        then(ledger).should(times(1)).fail(transaction.id());
+    }
+
+    @Test
+    void settles_every_netted_transaction_with_outcome_of_their_withdrawal() {
+        // given
+        var first = aTransaction().build();
+        var second = aTransaction().build();
+        pollScheduler.recover(first.id(), first.amount().add(second.amount()), List.of(first.id(), second.id()));
+        given(withdrawalStateChecker.checkWithdrawState(first.id())).willReturn(Optional.of(COMPLETED));
+        willThrow(new IllegalStateException("already completed")).given(ledger).complete(first.id());
+
+        // when
+        processor.run();
+
+        // then
+        then(ledger).should(times(1)).complete(second.id());
+        assertThat(pollScheduler.tracked()).isZero();
     }
 
     @Test
     void fails_transaction_when_its_not_found_in_source() {
         // given
         var transaction = aTransaction().build();
-        given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(transaction));
+        pollScheduler.recover(transaction.id(), transaction.amount());
         given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willReturn(Optional.empty());
 
         // when
         processor.run();
 
         // then
-        then(transactionFinalizer).should(times(1)).fail(transaction.id());
+        then(ledger).should(times(1)).fail(transaction.id());
+    }
+
+    @Test
+    void checks_processing_transaction_again_only_after_backoff() {
+        // given
+        var transaction = aTransaction().build();
+        pollScheduler.recover(transaction.id(), transaction.amount());
+        given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willReturn(Optional.of(PROCESSING));
+        processor.run();
+
+        // when
+        clock.addAndGet(400);
+        processor.run();
+
+        // then
+        then(withdrawalStateChecker).should(times(1)).checkWithdrawState(transaction.id());
+
+        // when
+        clock.addAndGet(2_000);
+        processor.run();
+
+        // then
+        then(withdrawalStateChecker).should(times(2)).checkWithdrawState(transaction.id());
+        then(ledger).shouldHaveNoInteractions();
+        assertThat(pollScheduler.tracked()).isEqualTo(1);
+    }
+
+    @Test
+    void checks_new_withdrawal_once_its_first_delay_passes() {
+        // given
+        var transaction = aTransaction().build();
+        given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willReturn(Optional.of(COMPLETED));
+        processor.run();
+        pollScheduler.track(transaction.id(), transaction.amount());
+
+        // when
+        processor.run();
+
+        // then
+        then(withdrawalStateChecker).shouldHaveNoInteractions();
+
+        // when
+        clock.addAndGet(1_000);
+        processor.run();
+
+        // then
+        then(ledger).should(times(1)).complete(transaction.id());
+        assertThat(pollScheduler.tracked()).isZero();
+    }
+
+    @Test
+    void checks_concurrently_up_to_concurrency_and_finalizes_each_transaction_once() {
+        // given
+        var transactions = IntStream.range(0, 40).mapToObj(_ -> aTransaction().build()).toList();
+        transactions.forEach(transaction -> pollScheduler.recover(transaction.id(), transaction.amount()));
+        var inFlight = new AtomicInteger();
+        var maxInFlight = new AtomicInteger();
+        given(withdrawalStateChecker.checkWithdrawState(any())).willAnswer(_ -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(5);
+            inFlight.decrementAndGet();
+            return Optional.of(COMPLETED);
+        });
+
+        // when
+        try (var workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            new WithdrawalFinalizeJob(withdrawalStateChecker, ledger, pollScheduler, workers, 4).run();
+        }
+
+        // then
+        transactions.forEach(transaction -> then(ledger).should(times(1)).complete(transaction.id()));
+        assertThat(maxInFlight.get()).isBetween(1, 4);
+        assertThat(pollScheduler.tracked()).isZero();
+    }
+
+    @Test
+    void skips_run_while_previous_one_is_in_progress() {
+        // given
+        var transaction = aTransaction().build();
+        pollScheduler.recover(transaction.id(), transaction.amount());
+        given(withdrawalStateChecker.checkWithdrawState(transaction.id())).willAnswer(_ -> {
+            processor.run();
+            return Optional.of(COMPLETED);
+        });
+
+        // when
+        processor.run();
+
+        // then
+        then(withdrawalStateChecker).should(times(1)).checkWithdrawState(transaction.id());
+        then(ledger).should(times(1)).complete(transaction.id());
     }
 
     private Transaction.Builder aTransaction() {
@@ -5,13 +5,16 @@ import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.account.AccountRepository;
 import com.neverless.domain.account.ExternalAccount;
+import com.neverless.domain.transaction.ExternalRef;
 import com.neverless.domain.transaction.TransactionId;
 import com.neverless.exceptions.NotFoundException;
-import com.neverless.integration.WithdrawalService;
+import com.neverless.storage.IdempotencyKeyRepositoryInMem;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
 
 import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphabetic;
@@ -24,13 +27,15 @@ import static org.mockito.BDDMockito.then;
 import static org.mockito.Mockito.*;
 
 class WithdrawalHandlerTest {
-    WithdrawalService<Money> withdrawalService = mock(WithdrawalService.class);
     AccountRepository accountRepository = mock(AccountRepository.class);
-    MoneyMover moneyMover = mock(MoneyMover.class);
+    Ledger ledger = mock(Ledger.class);
+    WithdrawalOutbox outbox = mock(WithdrawalOutbox.class);
+    IdempotencyKeyRepositoryInMem idempotencyKeys = new IdempotencyKeyRepositoryInMem();
     WithdrawalHandler withdrawalHandler = new WithdrawalHandler(
-        withdrawalService,
         accountRepository,
-            moneyMover);
+        ledger,
+        outbox,
+        idempotencyKeys);
 
     Money amount = new Money(BigDecimal.TEN);
     ExternalAddress externalAddress = new ExternalAddress(randomAlphabetic(8));
@@ -48,21 +53,41 @@ class WithdrawalHandlerTest {
     }
 
     @Test
-    void should_request_withdrawal() {
+    void should_record_withdrawal_through_outbox() {
         // given
         given(accountRepository.find(externalAddress)).willReturn(Optional.of(externalAccount));
+        var externalRef = new ExternalRef(UUID.randomUUID().toString());
+        given(outbox.submit(eq(externalAccount), eq(amount), any())).willAnswer(invocation ->
+            invocation.<Function<ExternalRef, TransactionId>>getArgument(2).apply(externalRef));
 
         var transactionId = TransactionId.random();
-        given(moneyMover.moveMoney(eq(accountId), eq(externalAccount.id), eq(amount), any()))
+        given(ledger.moveMoney(any(TransactionId.class), eq(accountId), eq(externalAccount.id), eq(amount), eq(Optional.of(externalRef))))
             .willReturn(transactionId);
 
         // when
         var result = withdrawalHandler.withdraw(amount, accountId, externalAddress);
 
         // then
-        then(withdrawalService).should(times(1))
-            .requestWithdrawal(any(WithdrawalService.WithdrawalId.class), eq(new WithdrawalService.Address(externalAddress.value())), eq(amount));
         assertThat(result).isEqualTo(transactionId);
+        then(ledger).should(times(1)).moveMoney(any(TransactionId.class), eq(accountId), eq(externalAccount.id), eq(amount), eq(Optional.of(externalRef)));
     }
 
-}
\ No newline at end of file
+    @Test
+    void should_withdraw_once_per_idempotency_key() {
+        // given
+        given(accountRepository.find(externalAddress)).willReturn(Optional.of(externalAccount));
+        var externalRef = new ExternalRef(UUID.randomUUID().toString());
+        given(outbox.submit(eq(externalAccount), eq(amount), any())).willAnswer(invocation ->
+            invocation.<Function<ExternalRef, TransactionId>>getArgument(2).apply(externalRef));
+        given(ledger.moveMoney(any(TransactionId.class), eq(accountId), eq(externalAccount.id), eq(amount), eq(Optional.of(externalRef))))
+            .willAnswer(invocation -> invocation.getArgument(0));
+        var first = withdrawalHandler.withdraw("key", amount, accountId, externalAddress);
+
+        // when
+        var retry = withdrawalHandler.withdraw("key", amount, accountId, externalAddress);
+
+        // then
+        assertThat(retry).isEqualTo(first);
+        then(outbox).should(times(1)).submit(eq(externalAccount), eq(amount), any());
+    }
+}
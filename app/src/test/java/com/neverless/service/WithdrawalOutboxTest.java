@@ -0,0 +1,366 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.AccountRepository;
+import com.neverless.domain.account.ExternalAccount;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionRepository;
+import com.neverless.integration.WithdrawalService;
+import com.neverless.integration.WithdrawalService.Address;
+import com.neverless.integration.WithdrawalService.WithdrawalId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static com.neverless.domain.transaction.TransactionState.COMPLETED;
+import static com.neverless.domain.transaction.TransactionState.FAILED;
+import static com.neverless.domain.transaction.TransactionState.PENDING;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+
+class WithdrawalOutboxTest {
+    WithdrawalService<Money> withdrawalService = mock(WithdrawalService.class);
+    TransactionRepository transactionRepository = mock(TransactionRepository.class);
+    AccountRepository accountRepository = mock(AccountRepository.class);
+    Ledger ledger = mock(Ledger.class);
+    WithdrawalPollScheduler pollScheduler = mock(WithdrawalPollScheduler.class);
+    WithdrawalOutbox outbox = new WithdrawalOutbox(
+        withdrawalService,
+        transactionRepository,
+        accountRepository,
+        ledger,
+        pollScheduler,
+        2,
+        Duration.ofMillis(1),
+        Duration.ofMillis(5));
+
+    ExternalAccount target = externalAccount().externalAddress(new ExternalAddress("address")).build();
+    Address address = new Address("address");
+    Money amount = new Money(BigDecimal.TEN);
+    TransactionId id = TransactionId.random();
+    List<ExternalRef> refs = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        outbox.close();
+    }
+
+    @Test
+    void sends_submitted_withdrawal_and_tracks_it_once_provider_has_it() {
+        // given
+        outbox.start();
+
+        // when
+        var result = outbox.submit(target, amount, record(id));
+
+        // then
+        assertThat(result).isEqualTo(id);
+        then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId(refs.getFirst()), address, amount);
+        then(pollScheduler).should(timeout(1_000)).track(id, amount, List.of(id));
+    }
+
+    @Test
+    void reports_withdrawal_pending_until_provider_has_it() throws Exception {
+        // given
+        var requested = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        willAnswer(_ -> {
+            requested.countDown();
+            release.await();
+            return null;
+        }).given(withdrawalService).requestWithdrawal(any(), eq(address), eq(amount));
+        outbox.start();
+
+        // when
+        outbox.submit(target, amount, record(id));
+        requested.await();
+
+        // then
+        assertThat(outbox.pending(id)).isTrue();
+        assertThat(outbox.size()).isEqualTo(1);
+        then(pollScheduler).shouldHaveNoInteractions();
+
+        // when
+        release.countDown();
+
+        // then
+        then(pollScheduler).should(timeout(1_000)).track(id, amount, List.of(id));
+    }
+
+    @Test
+    void retries_failed_request_until_provider_has_it() {
+        // given
+        willThrow(new RuntimeException("unavailable"))
+            .willThrow(new RuntimeException("unavailable"))
+            .willDoNothing()
+            .given(withdrawalService).requestWithdrawal(any(), eq(address), eq(amount));
+        outbox.start();
+
+        // when
+        outbox.submit(target, amount, record(id));
+
+        // then
+        then(pollScheduler).should(timeout(1_000)).track(id, amount, List.of(id));
+        then(withdrawalService).should(times(3)).requestWithdrawal(withdrawalId(refs.getFirst()), address, amount);
+        then(ledger).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void gives_up_on_request_after_max_attempts_and_keeps_it_pending() {
+        // given
+        var limitedOutbox = new WithdrawalOutbox(
+            withdrawalService,
+            transactionRepository,
+            accountRepository,
+            ledger,
+            pollScheduler,
+            2,
+            Duration.ofMillis(1),
+            Duration.ofMillis(5),
+            Optional.empty(),
+            3);
+        willThrow(new RuntimeException("unavailable")).given(withdrawalService).requestWithdrawal(any(), eq(address), eq(amount));
+        limitedOutbox.start();
+
+        try {
+            // when
+            limitedOutbox.submit(target, amount, record(id));
+
+            // then
+            then(withdrawalService).should(after(200).times(3)).requestWithdrawal(withdrawalId(refs.getFirst()), address, amount);
+            assertThat(limitedOutbox.failedSends()).isEqualTo(3);
+            assertThat(limitedOutbox.abandoned()).isEqualTo(1);
+            assertThat(limitedOutbox.pending(id)).isTrue();
+            then(ledger).shouldHaveNoInteractions();
+        } finally {
+            limitedOutbox.close();
+        }
+    }
+
+    @Test
+    void fails_transaction_when_provider_rejects_withdrawal() {
+        // given
+        willThrow(new IllegalArgumentException("different withdrawal with the same id"))
+            .given(withdrawalService).requestWithdrawal(any(), eq(address), eq(amount));
+        outbox.start();
+
+        // when
+        outbox.submit(target, amount, record(id));
+
+        // then
+        then(ledger).should(timeout(1_000)).fail(id);
+        then(pollScheduler).should(never()).track(any(), any(), any());
+    }
+
+    @Test
+    void sends_withdrawals_left_pending_again_on_start() {
+        // given
+        var withdrawalId = new WithdrawalId(UUID.randomUUID());
+        var transaction = aPendingTransaction(withdrawalId);
+        given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(transaction));
+        given(accountRepository.get(target.id)).willReturn(target);
+        given(withdrawalService.getRequestState(withdrawalId)).willThrow(new IllegalArgumentException("unknown withdrawal"));
+
+        // when
+        outbox.start();
+
+        // then
+        then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId, address, amount);
+        then(pollScheduler).should(timeout(1_000)).recover(transaction.id(), amount, List.of(transaction.id()));
+        then(transactionRepository).should(never()).find(any(ExternalRef.class));
+    }
+
+    @Nested
+    class NettingTest {
+        WithdrawalOutbox nettingOutbox = new WithdrawalOutbox(
+            withdrawalService,
+            transactionRepository,
+            accountRepository,
+            ledger,
+            pollScheduler,
+            2,
+            Duration.ofMillis(1),
+            Duration.ofMillis(5),
+            Optional.of(Duration.ofMillis(50)));
+
+        ExternalAccount otherTarget = externalAccount().externalAddress(new ExternalAddress("other")).build();
+
+        @AfterEach
+        void tearDown() {
+            nettingOutbox.close();
+        }
+
+        @Test
+        void sends_withdrawals_to_same_account_within_window_as_one_request() {
+            // given
+            nettingOutbox.start();
+            var first = TransactionId.random();
+            var second = TransactionId.random();
+            var other = TransactionId.random();
+
+            // when
+            nettingOutbox.submit(target, amount, record(first));
+            nettingOutbox.submit(target, amount, record(second));
+            nettingOutbox.submit(otherTarget, amount, record(other));
+
+            // then
+            assertThat(refs.get(0)).isEqualTo(refs.get(1)).isNotEqualTo(refs.get(2));
+            assertThat(nettingOutbox.pending(first)).isTrue();
+            then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId(refs.get(0)), address, amount.add(amount));
+            then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId(refs.get(2)), new Address("other"), amount);
+            then(pollScheduler).should(timeout(1_000)).track(first, amount.add(amount), List.of(first, second));
+            then(pollScheduler).should(timeout(1_000)).track(other, amount, List.of(other));
+        }
+
+        @Test
+        void fails_every_netted_transaction_when_provider_rejects_request() {
+            // given
+            willThrow(new IllegalArgumentException("different withdrawal with the same id"))
+                .given(withdrawalService).requestWithdrawal(any(), eq(address), any());
+            nettingOutbox.start();
+            var first = TransactionId.random();
+            var second = TransactionId.random();
+
+            // when
+            nettingOutbox.submit(target, amount, record(first));
+            nettingOutbox.submit(target, amount, record(second));
+
+            // then
+            then(ledger).should(timeout(1_000)).fail(first);
+            then(ledger).should(timeout(1_000)).fail(second);
+        }
+
+        @Test
+        void sends_nothing_for_withdrawal_that_failed_to_record() {
+            // given
+            nettingOutbox.start();
+
+            // when
+            assertThatThrownBy(() -> nettingOutbox.submit(target, amount, _ -> {
+                throw new IllegalArgumentException("insufficient funds");
+            })).isInstanceOf(IllegalArgumentException.class);
+
+            // then
+            then(withdrawalService).should(after(200).never()).requestWithdrawal(any(), any(), any());
+        }
+
+        @Test
+        void sends_netted_withdrawals_left_pending_again_as_one_request_on_start() {
+            // given
+            var withdrawalId = new WithdrawalId(UUID.randomUUID());
+            var first = aPendingTransaction(withdrawalId);
+            var second = aPendingTransaction(withdrawalId);
+            given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(first, second));
+            given(accountRepository.get(target.id)).willReturn(target);
+            given(withdrawalService.getRequestState(withdrawalId)).willThrow(new IllegalArgumentException("unknown withdrawal"));
+
+            // when
+            nettingOutbox.start();
+
+            // then
+            then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId, address, amount.add(amount));
+            then(pollScheduler).should(timeout(1_000)).recover(first.id(), amount.add(amount), List.of(first.id(), second.id()));
+        }
+
+        @Test
+        void recovers_partly_settled_netted_withdrawal_for_its_total_without_sending_it_again() {
+            // given
+            var withdrawalId = new WithdrawalId(UUID.randomUUID());
+            var settled = aPendingTransaction(withdrawalId).complete();
+            var remaining = aPendingTransaction(withdrawalId);
+            given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(remaining));
+            given(transactionRepository.find(settled.externalRef().get())).willReturn(List.of(settled, remaining));
+            given(accountRepository.get(target.id)).willReturn(target);
+            given(withdrawalService.getRequestState(withdrawalId)).willReturn(WithdrawalService.WithdrawalState.COMPLETED);
+
+            // when
+            nettingOutbox.start();
+
+            // then
+            then(pollScheduler).should(timeout(1_000)).recover(remaining.id(), amount.add(amount), List.of(remaining.id()));
+            then(withdrawalService).should(never()).requestWithdrawal(any(), any(), any());
+            then(ledger).should(never()).fail(any());
+        }
+
+        @Test
+        void sends_recovered_netted_withdrawal_again_for_its_total() {
+            // given
+            var withdrawalId = new WithdrawalId(UUID.randomUUID());
+            var settled = aPendingTransaction(withdrawalId).fail();
+            var remaining = aPendingTransaction(withdrawalId);
+            given(transactionRepository.find(EXTERNAL, PENDING)).willReturn(List.of(remaining));
+            given(transactionRepository.find(settled.externalRef().get())).willReturn(List.of(settled, remaining));
+            given(accountRepository.get(target.id)).willReturn(target);
+            given(withdrawalService.getRequestState(withdrawalId)).willThrow(new IllegalArgumentException("unknown withdrawal"));
+
+            // when
+            nettingOutbox.start();
+
+            // then
+            then(withdrawalService).should(timeout(1_000)).requestWithdrawal(withdrawalId, address, amount.add(amount));
+            then(pollScheduler).should(timeout(1_000)).recover(remaining.id(), amount.add(amount), List.of(remaining.id()));
+        }
+    }
+
+    @Test
+    void rejects_empty_window() {
+        assertThatThrownBy(() -> new WithdrawalOutbox(
+            withdrawalService,
+            transactionRepository,
+            accountRepository,
+            ledger,
+            pollScheduler,
+            0,
+            Duration.ofMillis(1),
+            Duration.ofMillis(5)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Function<ExternalRef, TransactionId> record(TransactionId id) {
+        return ref -> {
+            refs.add(ref);
+            return id;
+        };
+    }
+
+    private Transaction aPendingTransaction(WithdrawalId withdrawalId) {
+        return transaction()
+            .from(AccountId.random())
+            .to(target.id)
+            .amount(amount)
+            .type(EXTERNAL)
+            .externalRef(new ExternalRef(withdrawalId.value().toString()))
+            .build();
+    }
+
+    private static WithdrawalId withdrawalId(ExternalRef ref) {
+        return new WithdrawalId(UUID.fromString(ref.value()));
+    }
+}
@@ -0,0 +1,96 @@
+package com.neverless.service;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.service.WithdrawalPollScheduler.Poll;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WithdrawalPollSchedulerTest {
+    AtomicLong clock = new AtomicLong(5_000_000);
+    WithdrawalPollScheduler scheduler = new WithdrawalPollScheduler(
+        Duration.ofSeconds(1),
+        Duration.ofSeconds(30),
+        Optional.of(new Money(new BigDecimal(1_000))),
+        clock::get,
+        new Random(1));
+
+    Money amount = new Money(BigDecimal.TEN);
+
+    @Test
+    void should_back_off_exponentially_up_to_max_delay() {
+        // then
+        assertThat(scheduler.delay(poll(amount, 0))).isEqualTo(Duration.ofSeconds(1));
+        assertThat(scheduler.delay(poll(amount, 1))).isEqualTo(Duration.ofSeconds(2));
+        assertThat(scheduler.delay(poll(amount, 4))).isEqualTo(Duration.ofSeconds(16));
+        assertThat(scheduler.delay(poll(amount, 5))).isEqualTo(Duration.ofSeconds(30));
+        assertThat(scheduler.delay(poll(amount, 1_000))).isEqualTo(Duration.ofSeconds(30));
+    }
+
+    @Test
+    void should_check_large_amounts_twice_as_often() {
+        // then
+        assertThat(scheduler.delay(poll(new Money(new BigDecimal(1_000)), 3))).isEqualTo(Duration.ofSeconds(4));
+        assertThat(scheduler.delay(poll(new Money(new BigDecimal(1_000)), 0))).isEqualTo(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void should_seed_first_delay_from_observed_completion_times() {
+        // given
+        for (var i = 0; i < 10; i++) {
+            scheduler.track(TransactionId.random(), amount);
+        }
+        clock.addAndGet(8_000);
+        scheduler.due().forEach(scheduler::finalized);
+
+        // then
+        assertThat(scheduler.delay(poll(amount, 0))).isBetween(Duration.ofSeconds(8), Duration.ofSeconds(16));
+        assertThat(scheduler.tracked()).isZero();
+    }
+
+    @Test
+    void should_hand_out_withdrawal_within_jittered_first_delay() {
+        // given
+        var id = TransactionId.random();
+        scheduler.track(id, amount);
+
+        // when
+        clock.addAndGet(400);
+        var early = scheduler.due();
+        clock.addAndGet(700);
+        var due = scheduler.due();
+
+        // then
+        assertThat(early).isEmpty();
+        assertThat(due).extracting(Poll::id).containsExactly(id);
+    }
+
+    @Test
+    void should_hand_out_recovered_withdrawal_right_away_and_track_it_once() {
+        // given
+        var id = TransactionId.random();
+        scheduler.recover(id, amount);
+        scheduler.track(id, amount);
+
+        // when
+        clock.addAndGet(100);
+        var due = scheduler.due();
+
+        // then
+        assertThat(due).extracting(Poll::id).containsExactly(id);
+        assertThat(scheduler.tracked()).isEqualTo(1);
+    }
+
+    private Poll poll(Money amount, int attempt) {
+        var id = TransactionId.random();
+        return new Poll(id, amount, List.of(id), clock.get(), true, attempt);
+    }
+}
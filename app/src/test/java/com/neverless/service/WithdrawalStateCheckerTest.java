@@ -4,19 +4,31 @@ import com.neverless.domain.Money;
 import com.neverless.domain.transaction.WithdrawalTransactionState;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.transaction.*;
+import com.neverless.exceptions.ProviderUnavailableException;
+import com.neverless.integration.RequestDeadline;
 import com.neverless.integration.WithdrawalService;
 import com.neverless.integration.WithdrawalService.WithdrawalId;
+import com.google.common.base.Ticker;
+import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.mock;
 
 class WithdrawalStateCheckerTest {
@@ -71,6 +83,142 @@ class WithdrawalStateCheckerTest {
             .hasMessage("test exception");
     }
 
+    @Nested
+    class WithdrawalStateTest {
+        AtomicLong nanos = new AtomicLong();
+        WithdrawalStateChecker cachingChecker = new WithdrawalStateChecker(withdrawalService, transactionRepository, id -> false, Hedger.none(), Duration.ofSeconds(1), 10, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+
+        @ParameterizedTest
+        @CsvSource(value = """
+            COMPLETED | COMPLETED
+            FAILED    | FAILED""", delimiter = '|')
+        void answers_finalized_transaction_locally(TransactionState state, WithdrawalTransactionState expected) {
+            // given
+            var transaction = aTransaction().state(state).build();
+            given(transactionRepository.get(transaction.id())).willReturn(transaction);
+
+            // when
+            var actual = cachingChecker.withdrawalState(transaction.id());
+
+            // then
+            assertThat(actual).contains(expected);
+            then(withdrawalService).shouldHaveNoInteractions();
+        }
+
+        @Test
+        void caches_processing_state_until_ttl_expires() {
+            // given
+            var transaction = aTransaction().build();
+            var withdrawalId = new WithdrawalId(UUID.fromString(transaction.externalRef().get().value()));
+            given(transactionRepository.get(transaction.id())).willReturn(transaction);
+            given(withdrawalService.getRequestState(withdrawalId)).willReturn(WithdrawalService.WithdrawalState.PROCESSING);
+
+            // when
+            cachingChecker.withdrawalState(transaction.id());
+            nanos.addAndGet(Duration.ofMillis(900).toNanos());
+            var cached = cachingChecker.withdrawalState(transaction.id());
+
+            // then
+            assertThat(cached).contains(WithdrawalTransactionState.PROCESSING);
+            then(withdrawalService).should(times(1)).getRequestState(withdrawalId);
+            assertThat(cachingChecker.cacheStats().hitRate()).isEqualTo(0.5);
+
+            // when
+            nanos.addAndGet(Duration.ofMillis(200).toNanos());
+            given(withdrawalService.getRequestState(withdrawalId)).willReturn(WithdrawalService.WithdrawalState.COMPLETED);
+            var expired = cachingChecker.withdrawalState(transaction.id());
+
+            // then
+            assertThat(expired).contains(WithdrawalTransactionState.COMPLETED);
+            then(withdrawalService).should(times(2)).getRequestState(withdrawalId);
+        }
+
+        @Test
+        void reports_undispatched_withdrawal_processing_without_asking_provider() {
+            // given
+            var transaction = aTransaction().build();
+            given(transactionRepository.get(transaction.id())).willReturn(transaction);
+            var outboxChecker = new WithdrawalStateChecker(withdrawalService, transactionRepository, transaction.id()::equals);
+
+            // when
+            var actual = outboxChecker.withdrawalState(transaction.id());
+
+            // then
+            assertThat(actual).contains(WithdrawalTransactionState.PROCESSING);
+            then(withdrawalService).shouldHaveNoInteractions();
+        }
+
+        @Test
+        void reports_pending_withdrawal_processing_while_provider_is_unavailable() {
+            // given
+            var transaction = aTransaction().build();
+            given(transactionRepository.get(transaction.id())).willReturn(transaction);
+            given(withdrawalService.getRequestState(new WithdrawalId(UUID.fromString(transaction.externalRef().get().value()))))
+                .willThrow(new ProviderUnavailableException("suspended"));
+
+            // when
+            var actual = cachingChecker.withdrawalState(transaction.id());
+
+            // then
+            assertThat(actual).contains(WithdrawalTransactionState.PROCESSING);
+            assertThatThrownBy(() -> cachingChecker.checkWithdrawState(transaction.id()))
+                .isInstanceOf(ProviderUnavailableException.class);
+        }
+
+        @Test
+        void check_always_asks_provider() {
+            // given
+            var transaction = aTransaction().build();
+            var withdrawalId = new WithdrawalId(UUID.fromString(transaction.externalRef().get().value()));
+            given(transactionRepository.get(transaction.id())).willReturn(transaction);
+            given(withdrawalService.getRequestState(withdrawalId)).willReturn(WithdrawalService.WithdrawalState.PROCESSING);
+
+            // when
+            cachingChecker.checkWithdrawState(transaction.id());
+            cachingChecker.checkWithdrawState(transaction.id());
+
+            // then
+            then(withdrawalService).should(times(2)).getRequestState(withdrawalId);
+        }
+    }
+
+    @Test
+    void client_read_does_not_wait_for_background_poll_of_same_withdrawal() throws Exception {
+        // given
+        var transaction = aTransaction().build();
+        var withdrawalId = new WithdrawalId(UUID.fromString(transaction.externalRef().get().value()));
+        given(transactionRepository.get(transaction.id())).willReturn(transaction);
+        var release = new CountDownLatch(1);
+        var asked = new AtomicInteger();
+        given(withdrawalService.getRequestState(withdrawalId)).willAnswer(_ -> {
+            if (asked.incrementAndGet() == 1) {
+                release.await();
+            }
+            return WithdrawalService.WithdrawalState.COMPLETED;
+        });
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var poll = executor.submit(() -> withdrawalStateChecker.checkWithdrawState(transaction.id()));
+            while (asked.get() == 0) {
+                Thread.onSpinWait();
+            }
+
+            // when
+            var actual = RequestDeadline.within(Duration.ofSeconds(5), () -> withdrawalStateChecker.withdrawalState(transaction.id()));
+
+            // then
+            assertThat(actual).contains(WithdrawalTransactionState.COMPLETED);
+            release.countDown();
+            assertThat(poll.get(5, TimeUnit.SECONDS)).contains(WithdrawalTransactionState.COMPLETED);
+        }
+        assertThat(withdrawalStateChecker.providerCalls()).isEqualTo(2);
+    }
+
     private Transaction.Builder aTransaction() {
         return transaction()
             .amount(new Money(BigDecimal.TEN))
@@ -4,10 +4,16 @@ import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
 import com.neverless.domain.account.ExternalAddress;
 import com.neverless.exceptions.NotFoundException;
+import com.neverless.storage.journal.JournalRecord;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
 import static com.neverless.domain.account.UserAccount.Builder.userAccount;
@@ -90,25 +96,123 @@ class AccountRepositoryInMemTest {
     }
 
     @Nested
-    class UpdateTest {
+    class DebitTest {
         @Test
-        void should_update_account_if_it_exists() {
+        void should_debit_account_if_balance_is_sufficient() {
             // given
-            var acc = repository.add(userAccount().build());
-            var updatedAcc = acc.add(new Money(BigDecimal.TEN));
+            var acc = repository.add(userAccount().balance(new Money(BigDecimal.TEN)).build());
 
             // when
-            var result = repository.update(updatedAcc);
+            var result = repository.debit(acc.id, new Money(BigDecimal.ONE));
 
             // then
-            assertThat(result).isEqualTo(updatedAcc);
+            assertThat(result).isTrue();
+            assertThat(repository.get(acc.id)).isEqualTo(acc.deduct(new Money(BigDecimal.ONE)));
+        }
+
+        @Test
+        void should_leave_balance_unchanged_if_it_is_insufficient() {
+            // given
+            var acc = repository.add(userAccount().balance(new Money(BigDecimal.ONE)).build());
+
+            // when
+            var result = repository.debit(acc.id, new Money(BigDecimal.TEN));
+
+            // then
+            assertThat(result).isFalse();
+            assertThat(repository.get(acc.id)).isEqualTo(acc);
+        }
+
+        @Test
+        void should_never_overdraw_when_debited_concurrently() throws Exception {
+            // given
+            var acc = repository.add(userAccount().balance(new Money(new BigDecimal(1_000))).build());
+            var succeeded = new AtomicInteger();
+
+            // when
+            try (var executor = Executors.newFixedThreadPool(8)) {
+                var tasks = IntStream.range(0, 8).mapToObj(_ -> executor.submit(() -> {
+                    for (var i = 0; i < 500; i++) {
+                        if (repository.debit(acc.id, new Money(BigDecimal.ONE))) {
+                            succeeded.incrementAndGet();
+                        }
+                    }
+                    return null;
+                })).toList();
+                for (var task : tasks) {
+                    task.get(30, TimeUnit.SECONDS);
+                }
+            }
+
+            // then
+            assertThat(succeeded.get()).isEqualTo(1_000);
+            assertThat(repository.get(acc.id).balance).isEqualTo(Money.zero());
         }
 
         @Test
         void should_throw_if_account_does_not_exists() {
             // then
-            assertThatThrownBy(() -> repository.update(userAccount().build())).isInstanceOf(NotFoundException.class);
+            assertThatThrownBy(() -> repository.debit(AccountId.random(), new Money(BigDecimal.ONE))).isInstanceOf(NotFoundException.class);
+        }
+    }
+
+    @Nested
+    class CreditTest {
+        @Test
+        void should_credit_account_if_it_exists() {
+            // given
+            var acc = repository.add(externalAccount().externalAddress(new ExternalAddress(randomAlphabetic(8))).build());
+
+            // when
+            repository.credit(acc.id, new Money(BigDecimal.TEN));
+
+            // then
+            assertThat(repository.get(acc.id)).isEqualTo(acc.add(new Money(BigDecimal.TEN)));
+        }
+
+        @Test
+        void should_throw_if_account_does_not_exists() {
+            // then
+            assertThatThrownBy(() -> repository.credit(AccountId.random(), new Money(BigDecimal.ONE))).isInstanceOf(NotFoundException.class);
+        }
+
+        @Test
+        void should_not_allocate_without_journal() {
+            // given
+            var acc = repository.add(userAccount().build());
+            var amount = new Money(BigDecimal.ONE);
+            var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            for (var i = 0; i < 100_000; i++) {
+                repository.credit(acc.id, amount);
+            }
+
+            // when
+            var before = threads.getCurrentThreadAllocatedBytes();
+            for (var i = 0; i < 100_000; i++) {
+                repository.credit(acc.id, amount);
+            }
+            var allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            // then, a record per change would take megabytes
+            assertThat(allocated).isLessThan(100_000);
+        }
+    }
+
+    @Nested
+    class RestoreTest {
+        @Test
+        void should_keep_latest_version_of_balance() {
+            // given
+            var acc = userAccount().build();
+            repository.restore(new JournalRecord.AccountWritten(acc, 0));
+
+            // when
+            repository.restore(new JournalRecord.BalanceChanged(acc.id, new Money(BigDecimal.TWO), 2));
+            repository.restore(new JournalRecord.BalanceChanged(acc.id, new Money(BigDecimal.ONE), 1));
+
+            // then
+            assertThat(repository.get(acc.id).balance).isEqualTo(new Money(BigDecimal.TWO));
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,202 @@
+package com.neverless.storage;
+
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.storage.journal.Journal;
+import com.neverless.storage.journal.JournalRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+class IdempotencyKeyRepositoryInMemTest {
+    Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    Journal journal = mock(Journal.class);
+    IdempotencyKeyRepositoryInMem repository = new IdempotencyKeyRepositoryInMem(
+        journal,
+        Duration.ofHours(1),
+        100,
+        Clock.fixed(now, ZoneOffset.UTC));
+
+    AccountId account = AccountId.random();
+
+    @Test
+    void should_return_transaction_recorded_under_key_without_creating_another() {
+        // given
+        var transactionId = repository.computeIfAbsent(account, "key", id -> id);
+
+        // when
+        var result = repository.computeIfAbsent(account, "key", _ -> {
+            throw new AssertionError("must not be called");
+        });
+
+        // then
+        assertThat(result).isEqualTo(transactionId);
+        then(journal).should().append(new JournalRecord.IdempotencyKeyRecorded(account, "key", transactionId, now));
+    }
+
+    @Test
+    void should_scope_keys_to_account() {
+        // given
+        var transactionId = repository.computeIfAbsent(account, "key", id -> id);
+
+        // when
+        var result = repository.computeIfAbsent(AccountId.random(), "key", id -> id);
+
+        // then
+        assertThat(result).isNotEqualTo(transactionId);
+    }
+
+    @Test
+    void should_make_concurrent_duplicates_wait_for_first_creation() throws Exception {
+        // given
+        var creating = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var created = new AtomicInteger();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var first = CompletableFuture.supplyAsync(() -> repository.computeIfAbsent(account, "key", id -> {
+                created.incrementAndGet();
+                creating.countDown();
+                await(release);
+                return id;
+            }), executor);
+            creating.await();
+
+            // when
+            var duplicate = CompletableFuture.supplyAsync(() -> repository.computeIfAbsent(account, "key", id -> {
+                created.incrementAndGet();
+                return id;
+            }), executor);
+            Thread.sleep(50);
+
+            // then
+            assertThat(duplicate).isNotDone();
+
+            // when
+            release.countDown();
+
+            // then
+            assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+            assertThat(created.get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void should_leave_key_free_when_creation_fails() {
+        // given
+        var failed = new AtomicReference<TransactionId>();
+        assertThatThrownBy(() -> repository.computeIfAbsent(account, "key", id -> {
+            failed.set(id);
+            throw new IllegalStateException("insufficient balance");
+        }))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("insufficient balance");
+
+        // when
+        var result = repository.computeIfAbsent(account, "key", id -> id);
+
+        // then
+        assertThat(result).isNotEqualTo(failed.get());
+        then(journal).should(times(2)).append(any());
+    }
+
+    @Test
+    void should_journal_key_before_creating_its_transaction() {
+        // when
+        var result = repository.computeIfAbsent(account, "key", id -> {
+            then(journal).should().append(new JournalRecord.IdempotencyKeyRecorded(account, "key", id, now));
+            return id;
+        });
+
+        // then
+        then(journal).should().awaitDurable(anyLong());
+        assertThat(result).isNotNull();
+    }
+
+    @Test
+    void should_reject_transaction_created_under_another_id() {
+        // then
+        assertThatThrownBy(() -> repository.computeIfAbsent(account, "key", _ -> TransactionId.random()))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void should_scan_key_whose_transaction_is_being_created() throws Exception {
+        // given
+        var creating = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var created = CompletableFuture.supplyAsync(() -> repository.computeIfAbsent(account, "key", id -> {
+                creating.countDown();
+                await(release);
+                return id;
+            }), executor);
+            creating.await();
+
+            // when
+            var scanned = new ArrayList<JournalRecord.IdempotencyKeyRecorded>();
+            repository.scan(scanned::add);
+            release.countDown();
+
+            // then
+            assertThat(scanned).singleElement().satisfies(recorded ->
+                assertThat(recorded.transactionId()).isEqualTo(created.get(5, TimeUnit.SECONDS)));
+        }
+    }
+
+    @Test
+    void should_drop_restored_keys_whose_transaction_was_never_recorded() {
+        // given
+        var recorded = TransactionId.random();
+        repository.restore(new JournalRecord.IdempotencyKeyRecorded(account, "recorded", recorded, now));
+        repository.restore(new JournalRecord.IdempotencyKeyRecorded(account, "unresolved", TransactionId.random(), now));
+
+        // when
+        repository.dropUnresolved(recorded::equals);
+
+        // then
+        assertThat(repository.size()).isEqualTo(1);
+        assertThat(repository.computeIfAbsent(account, "recorded", id -> id)).isEqualTo(recorded);
+    }
+
+    @Test
+    void should_forget_restored_key_once_expired() {
+        // given
+        var transactionId = TransactionId.random();
+        repository.restore(new JournalRecord.IdempotencyKeyRecorded(account, "fresh", transactionId, now.minus(Duration.ofMinutes(59))));
+        repository.restore(new JournalRecord.IdempotencyKeyRecorded(account, "expired", transactionId, now.minus(Duration.ofHours(1))));
+
+        // when
+        var fresh = repository.computeIfAbsent(account, "fresh", id -> id);
+        var expired = repository.computeIfAbsent(account, "expired", id -> id);
+
+        // then
+        assertThat(fresh).isEqualTo(transactionId);
+        assertThat(expired).isNotEqualTo(transactionId);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
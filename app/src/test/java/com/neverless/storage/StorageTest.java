@@ -0,0 +1,274 @@
+package com.neverless.storage;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.Account;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.TransactionId;
+import com.neverless.metrics.MemoryCensus;
+import com.neverless.service.LockManager;
+import com.neverless.service.MoneyMover;
+import com.neverless.storage.journal.FsyncPolicy;
+import com.neverless.storage.journal.JournalCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static com.neverless.domain.transaction.TransactionState.COMPLETED;
+import static com.neverless.domain.transaction.TransactionState.PENDING;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static com.neverless.domain.transaction.TransactionType.INTERNAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class StorageTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void should_restore_repositories_from_journal() {
+        // given
+        var externalAddress = new ExternalAddress("address");
+        var user = userAccount().balance(new Money(BigDecimal.TEN)).build();
+        var external = externalAccount().externalAddress(externalAddress).build();
+        var completed = transaction().from(user.id).to(external.id).amount(new Money(BigDecimal.ONE)).type(EXTERNAL).build();
+        var pending = transaction().from(user.id).to(external.id).amount(new Money(BigDecimal.ONE)).type(EXTERNAL).build();
+
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            storage.accounts.add(user);
+            storage.accounts.add(external);
+            storage.accounts.debit(user.id, new Money(BigDecimal.ONE));
+            storage.accounts.debit(user.id, new Money(BigDecimal.ONE));
+            storage.accounts.credit(external.id, new Money(BigDecimal.ONE));
+            storage.transactions.add(completed);
+            storage.transactions.update(completed.complete());
+            storage.transactions.add(pending);
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+
+            // then
+            assertThat(storage.accounts.get(user.id)).isEqualTo(user.deduct(new Money(BigDecimal.TWO)));
+            assertThat(storage.accounts.find(externalAddress)).contains(external.add(new Money(BigDecimal.ONE)));
+            assertThat(storage.transactions.find(EXTERNAL, PENDING)).containsExactly(pending);
+            assertThat(storage.transactions.find(EXTERNAL, COMPLETED)).containsExactly(completed.complete());
+        }
+    }
+
+    @Test
+    void should_report_repository_footprint_to_memory_census() {
+        // given
+        var census = new MemoryCensus(() -> 1L << 30, () -> 0);
+        var user = userAccount().balance(new Money(BigDecimal.TEN)).build();
+        var external = externalAccount().externalAddress(new ExternalAddress("address")).build();
+
+        try (var storage = Storage.inMemory()) {
+            storage.registerCensus(census);
+            storage.accounts.add(user);
+            storage.accounts.add(external);
+            for (var i = 0; i < 10; i++) {
+                storage.transactions.add(transaction().from(user.id).to(external.id).amount(new Money(BigDecimal.ONE)).type(EXTERNAL).build());
+            }
+
+            // when
+            var report = census.take(MemoryCensus.DEFAULT_SAMPLE_SIZE);
+
+            // then
+            assertThat(report.populations())
+                .extracting(MemoryCensus.PopulationReport::name, MemoryCensus.PopulationReport::entries)
+                .containsExactly(
+                    tuple("accounts.slots", 2L),
+                    tuple("accounts.slots_by_external_address", 1L),
+                    tuple("transactions.storage", 10L),
+                    tuple("transactions.state_index", 10L),
+                    tuple("transactions.ref_index", 0L),
+                    tuple("idempotency_keys", 0L));
+            assertThat(report.bytesPerAccount()).hasValueSatisfying(bytes -> assertThat(bytes).isBetween(100L, 1_000L));
+            assertThat(report.bytesPerTransaction()).hasValueSatisfying(bytes -> assertThat(bytes).isBetween(100L, 1_000L));
+            assertThat(report.transactionCapacity()).hasValueSatisfying(capacity -> assertThat(capacity).isGreaterThan(1_000_000L));
+        }
+    }
+
+    @Test
+    void should_restore_neither_debit_nor_transaction_when_journal_is_cut_after_the_debit() throws IOException {
+        // given
+        var user = userAccount().balance(new Money(BigDecimal.TEN)).build();
+        var external = externalAccount().externalAddress(new ExternalAddress("address")).build();
+        long withdrawalStart;
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            storage.accounts.add(user);
+            storage.accounts.add(external);
+            withdrawalStart = Files.size(segment());
+            new MoneyMover(storage.transactions, storage.accounts, new LockManager(LockManager.DEFAULT_STRIPES), storage.journal())
+                .moveMoney(user.id, external.id, new Money(BigDecimal.ONE));
+        }
+        // frame header, count of nested records, then the debit: kind, account id, balance and version
+        var debitEnd = withdrawalStart + JournalCodec.HEADER_SIZE + Integer.BYTES + Byte.BYTES + 16 + Long.BYTES + Long.BYTES;
+        try (var channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+            channel.truncate(debitEnd);
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+
+            // then
+            assertThat(storage.accounts.get(user.id)).isEqualTo(user);
+            assertThat(storage.transactions.size()).isZero();
+        }
+    }
+
+    @Test
+    void should_restore_from_snapshot_and_journal_tail() {
+        // given
+        var user = userAccount().balance(new Money(BigDecimal.TEN)).build();
+        var other = userAccount().build();
+        var beforeSnapshot = transaction().from(user.id).to(other.id).amount(new Money(BigDecimal.ONE)).type(INTERNAL).build();
+        var afterSnapshot = transaction().from(user.id).to(other.id).amount(new Money(BigDecimal.ONE)).type(INTERNAL).build();
+
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            storage.accounts.add(user);
+            storage.accounts.add(other);
+            storage.transactions.add(beforeSnapshot);
+            storage.snapshot();
+            storage.accounts.debit(user.id, new Money(BigDecimal.ONE));
+            storage.transactions.add(afterSnapshot);
+            storage.transactions.update(beforeSnapshot.complete());
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+
+            // then
+            assertThat(storage.restoreStats().snapshotEntries()).isEqualTo(3);
+            assertThat(storage.restoreStats().journalRecords()).isEqualTo(3);
+            assertThat(storage.accounts.get(user.id)).isEqualTo(user.deduct(new Money(BigDecimal.ONE)));
+            assertThat(storage.accounts.get(other.id)).isEqualTo(other);
+            assertThat(storage.transactions.find(INTERNAL, PENDING)).containsExactly(afterSnapshot);
+            assertThat(storage.transactions.find(INTERNAL, COMPLETED)).containsExactly(beforeSnapshot.complete());
+        }
+    }
+
+    @Test
+    void should_restore_idempotency_keys_from_snapshot_and_journal_tail() {
+        // given
+        var account = AccountId.random();
+        TransactionId beforeSnapshot;
+        TransactionId afterSnapshot;
+
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            beforeSnapshot = storage.idempotencyKeys.computeIfAbsent(account, "first", id -> addTransaction(storage, id, account));
+            storage.snapshot();
+            afterSnapshot = storage.idempotencyKeys.computeIfAbsent(account, "second", id -> addTransaction(storage, id, account));
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+
+            // then
+            assertThat(storage.idempotencyKeys.size()).isEqualTo(2);
+            assertThat(storage.idempotencyKeys.computeIfAbsent(account, "first", id -> id)).isEqualTo(beforeSnapshot);
+            assertThat(storage.idempotencyKeys.computeIfAbsent(account, "second", id -> id)).isEqualTo(afterSnapshot);
+        }
+    }
+
+    @Test
+    void should_drop_idempotency_key_whose_transaction_was_never_journaled() {
+        // given
+        var account = AccountId.random();
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            // the key is journaled ahead of the transaction, a crash before the transaction leaves the journal like this
+            try {
+                storage.idempotencyKeys.computeIfAbsent(account, "key", _ -> {
+                    throw new IllegalStateException("crashed");
+                });
+            } catch (IllegalStateException ignored) {
+            }
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.perWrite())) {
+            var retried = new AtomicInteger();
+            var result = storage.idempotencyKeys.computeIfAbsent(account, "key", id -> {
+                retried.incrementAndGet();
+                return addTransaction(storage, id, account);
+            });
+
+            // then
+            assertThat(retried).hasValue(1);
+            assertThat(storage.transactions.find(result)).isPresent();
+        }
+    }
+
+    @Test
+    void should_restore_consistent_state_when_snapshot_runs_concurrently_with_writes() throws Exception {
+        // given
+        var accounts = IntStream.range(0, 50).mapToObj(_ -> userAccount().build()).toList();
+        var expected = new ConcurrentHashMap<AccountId, Account>();
+        var written = new AtomicInteger();
+
+        try (var storage = Storage.journaled(directory, FsyncPolicy.osManaged())) {
+            accounts.forEach(storage.accounts::add);
+            try (var executor = Executors.newFixedThreadPool(4)) {
+                var writers = IntStream.range(0, 3).mapToObj(writer -> executor.submit(() -> {
+                    for (var i = 0; i < 2_000; i++) {
+                        // each writer owns a disjoint subset of accounts, so its last write is the final state
+                        var index = i % accounts.size();
+                        if (index % 3 != writer) {
+                            continue;
+                        }
+                        var account = accounts.get(index);
+                        storage.accounts.credit(account.id, new Money(BigDecimal.ONE));
+                        expected.put(account.id, storage.accounts.get(account.id));
+                        storage.transactions.add(transaction().from(account.id).to(AccountId.random()).amount(new Money(BigDecimal.ONE)).type(INTERNAL).build());
+                        written.incrementAndGet();
+                    }
+                    return null;
+                })).toList();
+                var snapshots = executor.submit(() -> {
+                    for (var i = 0; i < 5; i++) {
+                        storage.snapshot();
+                    }
+                    return null;
+                });
+                for (var writer : writers) {
+                    writer.get(30, TimeUnit.SECONDS);
+                }
+                snapshots.get(30, TimeUnit.SECONDS);
+            }
+            assertThat(storage.lastSnapshot()).isPresent();
+        }
+
+        // when
+        try (var storage = Storage.journaled(directory, FsyncPolicy.osManaged())) {
+
+            // then
+            expected.forEach((id, account) -> assertThat(storage.accounts.get(id)).isEqualTo(account));
+            assertThat(storage.transactions.size()).isEqualTo(written.get());
+        }
+    }
+
+    private Path segment() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(Files::isRegularFile).findFirst().orElseThrow();
+        }
+    }
+
+    private static TransactionId addTransaction(Storage storage, TransactionId id, AccountId from) {
+        return storage.transactions.add(transaction().id(id).from(from).to(AccountId.random()).amount(new Money(BigDecimal.ONE)).type(EXTERNAL).build()).id();
+    }
+}
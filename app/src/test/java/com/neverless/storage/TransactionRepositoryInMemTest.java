@@ -2,17 +2,28 @@ package com.neverless.storage;
 
 import com.neverless.domain.Money;
 import com.neverless.domain.account.AccountId;
+import com.neverless.domain.transaction.ExternalRef;
 import com.neverless.domain.transaction.Transaction;
 import com.neverless.domain.transaction.TransactionId;
+import com.neverless.domain.transaction.TransactionType;
 import com.neverless.exceptions.NotFoundException;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
-
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.neverless.domain.transaction.Transaction.Builder.transaction;
 import static com.neverless.domain.transaction.TransactionState.COMPLETED;
+import static com.neverless.domain.transaction.TransactionState.FAILED;
 import static com.neverless.domain.transaction.TransactionState.PENDING;
 import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
 import static com.neverless.domain.transaction.TransactionType.INTERNAL;
@@ -69,6 +80,134 @@ class TransactionRepositoryInMemTest {
             // then
             assertThat(result).isEmpty();
         }
+
+        @Test
+        void should_return_transactions_matching_any_of_given_states() {
+            // given
+            var pending = repository.add(aTransaction(EXTERNAL));
+            var completed = repository.add(aTransaction(EXTERNAL));
+            repository.update(completed.complete());
+            var internal = repository.add(aTransaction(INTERNAL));
+
+            // when
+            var result = repository.find(EXTERNAL, PENDING, COMPLETED);
+
+            // then
+            assertThat(result).containsExactlyInAnyOrder(pending, completed.complete());
+            assertThat(result).doesNotContain(internal);
+        }
+
+        @Test
+        void should_not_return_transaction_after_state_change() {
+            // given
+            var txn = repository.add(aTransaction(EXTERNAL));
+
+            // when
+            repository.update(txn.fail());
+
+            // then
+            assertThat(repository.find(EXTERNAL, PENDING)).isEmpty();
+            assertThat(repository.find(EXTERNAL, FAILED)).containsExactly(txn.fail());
+        }
+
+        @Test
+        void should_keep_index_consistent_under_concurrent_state_transitions() throws Exception {
+            // given
+            var transactions = IntStream.range(0, 10_000)
+                .mapToObj(_ -> repository.add(aTransaction(EXTERNAL)))
+                .toList();
+            var writers = 4;
+            var start = new CountDownLatch(1);
+            var writing = new AtomicBoolean(true);
+
+            // every other transaction is completed, so it's either pending or completed for the whole run
+            var completing = IntStream.range(0, transactions.size())
+                .filter(i -> i % 2 == 0)
+                .mapToObj(i -> transactions.get(i).id())
+                .toList();
+
+            try (var executor = Executors.newFixedThreadPool(writers + 2)) {
+                var readers = new ArrayList<Future<?>>();
+                for (var reader = 0; reader < 2; reader++) {
+                    readers.add(executor.submit(() -> {
+                        start.await();
+                        while (writing.get()) {
+                            var found = repository.find(EXTERNAL, PENDING, COMPLETED).stream()
+                                .map(Transaction::id)
+                                .collect(Collectors.toSet());
+                            assertThat(completing.stream().filter(id -> !found.contains(id))).isEmpty();
+                        }
+                        return null;
+                    }));
+                }
+
+                // when
+                var updates = new ArrayList<Future<?>>();
+                for (var writer = 0; writer < writers; writer++) {
+                    var offset = writer;
+                    updates.add(executor.submit(() -> {
+                        start.await();
+                        for (var i = offset; i < transactions.size(); i += writers) {
+                            var txn = transactions.get(i);
+                            repository.update(i % 2 == 0 ? txn.complete() : txn.fail());
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (var update : updates) {
+                    update.get(30, TimeUnit.SECONDS);
+                }
+                writing.set(false);
+                for (var reader : readers) {
+                    reader.get(30, TimeUnit.SECONDS);
+                }
+            }
+
+            // then
+            assertThat(repository.find(EXTERNAL, PENDING)).isEmpty();
+            assertThat(repository.find(EXTERNAL, COMPLETED)).hasSize(transactions.size() / 2);
+            assertThat(repository.find(EXTERNAL, FAILED)).hasSize(transactions.size() / 2);
+            assertThat(repository.find(EXTERNAL, PENDING, COMPLETED, FAILED)).hasSize(transactions.size());
+        }
+    }
+
+    @Nested
+    class FindByExternalRefTest {
+        @Test
+        void should_return_every_transaction_with_ref_in_its_current_state() {
+            // given
+            var ref = new ExternalRef(UUID.randomUUID().toString());
+            var first = repository.add(withRef(ref));
+            var second = repository.add(withRef(ref));
+            repository.add(withRef(new ExternalRef(UUID.randomUUID().toString())));
+            repository.update(first.complete());
+
+            // when
+            var result = repository.find(ref);
+
+            // then
+            assertThat(result).containsExactlyInAnyOrder(first.complete(), second);
+        }
+
+        @Test
+        void should_return_nothing_for_unknown_ref() {
+            // when
+            var result = repository.find(new ExternalRef(UUID.randomUUID().toString()));
+
+            // then
+            assertThat(result).isEmpty();
+        }
+
+        private Transaction withRef(ExternalRef ref) {
+            return transaction()
+                .from(AccountId.random())
+                .to(AccountId.random())
+                .amount(new Money(BigDecimal.TEN))
+                .type(EXTERNAL)
+                .externalRef(ref)
+                .build();
+        }
     }
 
     @Nested
@@ -115,11 +254,15 @@ class TransactionRepositoryInMemTest {
     }
     
     private Transaction aTransaction() {
+        return aTransaction(INTERNAL);
+    }
+
+    private Transaction aTransaction(TransactionType type) {
         return transaction()
             .from(AccountId.random())
             .to(AccountId.random())
             .amount(new Money(BigDecimal.TEN))
-            .type(INTERNAL)
+            .type(type)
             .state(PENDING)
             .build();
     }
@@ -0,0 +1,249 @@
+package com.neverless.storage.journal;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.ExternalRef;
+import com.neverless.domain.transaction.Transaction;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static com.neverless.domain.transaction.TransactionType.EXTERNAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void should_replay_appended_records_in_order() {
+        // given
+        var account = userAccount().balance(new Money(new BigDecimal("12.345"))).build();
+        var externalAccount = externalAccount().externalAddress(new ExternalAddress("address")).build();
+        var transaction = aTransaction();
+        try (var journal = FileJournal.open(directory, FsyncPolicy.perWrite())) {
+            journal.awaitDurable(journal.append(new JournalRecord.AccountWritten(account, 0)));
+            journal.awaitDurable(journal.append(new JournalRecord.AccountWritten(externalAccount, 3)));
+            journal.awaitDurable(journal.append(new JournalRecord.BalanceChanged(account.id, new Money(BigDecimal.ONE), 1)));
+            journal.awaitDurable(journal.append(new JournalRecord.TransactionWritten(transaction)));
+            journal.awaitDurable(journal.append(new JournalRecord.TransactionWritten(transaction.complete())));
+        }
+
+        // when
+        var replayed = replay(FileJournal.open(directory, FsyncPolicy.perWrite()));
+
+        // then
+        assertThat(replayed).containsExactly(
+            new JournalRecord.AccountWritten(account, 0),
+            new JournalRecord.AccountWritten(externalAccount, 3),
+            new JournalRecord.BalanceChanged(account.id, new Money(BigDecimal.ONE), 1),
+            new JournalRecord.TransactionWritten(transaction),
+            new JournalRecord.TransactionWritten(transaction.complete()));
+    }
+
+    @Test
+    void should_continue_sequence_after_reopening() {
+        // given
+        long lastSequence;
+        try (var journal = FileJournal.open(directory, FsyncPolicy.osManaged())) {
+            journal.append(new JournalRecord.TransactionWritten(aTransaction()));
+            lastSequence = journal.append(new JournalRecord.TransactionWritten(aTransaction()));
+        }
+
+        // when
+        try (var journal = FileJournal.open(directory, FsyncPolicy.osManaged())) {
+            var sequence = journal.append(new JournalRecord.TransactionWritten(aTransaction()));
+
+            // then
+            assertThat(sequence).isEqualTo(lastSequence + 1);
+        }
+    }
+
+    @Test
+    void should_drop_torn_record_at_the_tail() throws IOException {
+        // given
+        var transaction = aTransaction();
+        try (var journal = FileJournal.open(directory, FsyncPolicy.perWrite())) {
+            journal.append(new JournalRecord.TransactionWritten(transaction));
+        }
+        var segment = JournalReader.segments(directory).getFirst().path();
+        Files.write(segment, new byte[] { 0, 0, 0, 42, 1, 2, 3 }, StandardOpenOption.APPEND);
+
+        // when
+        var journal = FileJournal.open(directory, FsyncPolicy.perWrite());
+        var replayed = replay(journal);
+
+        // then
+        assertThat(replayed).containsExactly(new JournalRecord.TransactionWritten(transaction));
+        assertThat(Files.size(segment)).isLessThan(JournalCodec.HEADER_SIZE + 200);
+    }
+
+    @Test
+    void should_drop_record_with_checksum_mismatch_at_the_tail() throws IOException {
+        // given
+        var first = aTransaction();
+        try (var journal = FileJournal.open(directory, FsyncPolicy.perWrite())) {
+            journal.append(new JournalRecord.TransactionWritten(first));
+            journal.append(new JournalRecord.TransactionWritten(aTransaction()));
+        }
+        var segment = JournalReader.segments(directory).getFirst().path();
+        var bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        // when
+        var replayed = replay(FileJournal.open(directory, FsyncPolicy.perWrite()));
+
+        // then
+        assertThat(replayed).containsExactly(new JournalRecord.TransactionWritten(first));
+    }
+
+    @Test
+    void should_journal_records_appended_atomically_as_one() {
+        // given
+        var transaction = aTransaction();
+        var debit = new JournalRecord.BalanceChanged(transaction.from(), new Money(BigDecimal.ONE), 1);
+        var appended = new ArrayList<Long>();
+        long sequence;
+        try (var journal = FileJournal.open(directory, FsyncPolicy.perWrite())) {
+
+            // when
+            sequence = journal.atomically(() -> {
+                appended.add(journal.append(debit));
+                journal.atomically(() -> appended.add(journal.append(new JournalRecord.TransactionWritten(transaction))));
+            });
+            journal.awaitDurable(sequence);
+        }
+
+        // then
+        assertThat(appended).containsExactly(0L, 0L);
+        assertThat(sequence).isEqualTo(1);
+        assertThat(replay(FileJournal.open(directory, FsyncPolicy.perWrite())))
+            .containsExactly(new JournalRecord.Atomic(List.of(debit, new JournalRecord.TransactionWritten(transaction))));
+    }
+
+    @Test
+    void should_drop_every_record_of_torn_atomic_record_at_the_tail() throws IOException {
+        // given
+        var transaction = aTransaction();
+        var debit = new JournalRecord.BalanceChanged(transaction.from(), new Money(BigDecimal.ONE), 1);
+        try (var journal = FileJournal.open(directory, FsyncPolicy.perWrite())) {
+            journal.append(new JournalRecord.TransactionWritten(aTransaction()));
+            journal.atomically(() -> {
+                journal.append(debit);
+                journal.append(new JournalRecord.TransactionWritten(transaction));
+            });
+        }
+        var segment = JournalReader.segments(directory).getFirst().path();
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        // when
+        var replayed = replay(FileJournal.open(directory, FsyncPolicy.perWrite()));
+
+        // then
+        assertThat(replayed).hasSize(1).noneMatch(record -> record instanceof JournalRecord.Atomic);
+    }
+
+    @Test
+    void should_roll_segments_and_replay_across_them() {
+        // given
+        var transactions = IntStream.range(0, 100).mapToObj(_ -> aTransaction()).toList();
+        try (var journal = FileJournal.open(directory, FsyncPolicy.osManaged(), 1024)) {
+            transactions.forEach(transaction -> journal.append(new JournalRecord.TransactionWritten(transaction)));
+        }
+
+        // when
+        var replayed = replay(FileJournal.open(directory, FsyncPolicy.osManaged()));
+
+        // then
+        assertThat(JournalReader.segments(directory)).hasSizeGreaterThan(5);
+        assertThat(replayed).containsExactlyElementsOf(
+            transactions.stream().map(JournalRecord.TransactionWritten::new).toList());
+    }
+
+    @Test
+    void should_reject_appends_after_close() {
+        // given
+        var journal = FileJournal.open(directory, FsyncPolicy.osManaged());
+        journal.close();
+
+        // then
+        assertThatThrownBy(() -> journal.append(new JournalRecord.TransactionWritten(aTransaction())))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Nested
+    class GroupCommitTest {
+        @Test
+        void should_make_every_concurrent_writer_durable() throws Exception {
+            // given
+            var writers = 8;
+            var perWriter = 200;
+
+            // when
+            try (var journal = FileJournal.open(directory, FsyncPolicy.groupCommit(Duration.ofMillis(1)));
+                 var executor = Executors.newFixedThreadPool(writers)) {
+                var futures = new ArrayList<Future<?>>();
+                for (var writer = 0; writer < writers; writer++) {
+                    futures.add(executor.submit(() -> {
+                        for (var i = 0; i < perWriter; i++) {
+                            journal.awaitDurable(journal.append(new JournalRecord.TransactionWritten(aTransaction())));
+                        }
+                        return null;
+                    }));
+                }
+                for (var future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+            }
+
+            // then
+            assertThat(replay(FileJournal.open(directory, FsyncPolicy.osManaged()))).hasSize(writers * perWriter);
+        }
+
+        @Test
+        void should_reject_non_positive_interval() {
+            // then
+            assertThatThrownBy(() -> FsyncPolicy.groupCommit(Duration.ZERO)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private static List<JournalRecord> replay(FileJournal journal) {
+        try (journal) {
+            var records = new ArrayList<JournalRecord>();
+            journal.replay(records::add);
+            return records;
+        }
+    }
+
+    private static Transaction aTransaction() {
+        return transaction()
+            .from(AccountId.random())
+            .to(AccountId.random())
+            .amount(new Money(BigDecimal.TEN))
+            .type(EXTERNAL)
+            .externalRef(new ExternalRef("ref"))
+            .build();
+    }
+}
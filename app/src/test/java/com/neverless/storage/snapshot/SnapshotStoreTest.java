@@ -0,0 +1,108 @@
+package com.neverless.storage.snapshot;
+
+import com.neverless.domain.Money;
+import com.neverless.domain.account.AccountId;
+import com.neverless.domain.account.ExternalAddress;
+import com.neverless.domain.transaction.Transaction;
+import com.neverless.storage.journal.JournalRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.neverless.domain.account.ExternalAccount.Builder.externalAccount;
+import static com.neverless.domain.account.UserAccount.Builder.userAccount;
+import static com.neverless.domain.transaction.Transaction.Builder.transaction;
+import static com.neverless.domain.transaction.TransactionType.INTERNAL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void should_restore_written_snapshot_from_all_partitions() throws Exception {
+        // given
+        var store = new SnapshotStore(directory, 4);
+        var accounts = Stream.concat(
+            IntStream.range(0, 100).mapToObj(i -> new JournalRecord.AccountWritten(userAccount().balance(new Money(BigDecimal.TEN)).build(), i)),
+            Stream.of(new JournalRecord.AccountWritten(externalAccount().externalAddress(new ExternalAddress("address")).build(), 0))
+        ).toList();
+        var transactions = IntStream.range(0, 1000).mapToObj(_ -> aTransaction()).toList();
+        var idempotencyKeys = transactions.stream()
+            .limit(10)
+            .map(transaction -> new JournalRecord.IdempotencyKeyRecorded(transaction.from(), transaction.id().toString(), transaction.id(), Instant.ofEpochMilli(1)))
+            .toList();
+
+        // when
+        var stats = store.write(42, accounts::forEach, transactions::forEach, idempotencyKeys::forEach);
+
+        // then
+        assertThat(stats.coverSequence()).isEqualTo(42);
+        assertThat(stats.accounts()).isEqualTo(accounts.size());
+        assertThat(stats.transactions()).isEqualTo(transactions.size());
+        assertThat(stats.sizeBytes()).isPositive();
+        assertThat(store.latest()).contains(42L);
+
+        // when
+        var restoredAccounts = new ConcurrentLinkedQueue<JournalRecord.AccountWritten>();
+        var restoredTransactions = new ConcurrentLinkedQueue<Transaction>();
+        var restoredIdempotencyKeys = new ConcurrentLinkedQueue<JournalRecord.IdempotencyKeyRecorded>();
+        long loaded;
+        try (var executor = Executors.newFixedThreadPool(4)) {
+            loaded = store.restore(42, restoredAccounts::add, restoredTransactions::add, restoredIdempotencyKeys::add, executor);
+        }
+
+        // then
+        assertThat(loaded).isEqualTo(accounts.size() + transactions.size() + idempotencyKeys.size());
+        assertThat(restoredAccounts).containsExactlyInAnyOrderElementsOf(accounts);
+        assertThat(restoredTransactions).containsExactlyInAnyOrderElementsOf(transactions);
+        assertThat(restoredIdempotencyKeys).containsExactlyInAnyOrderElementsOf(idempotencyKeys);
+    }
+
+    @Test
+    void should_delete_older_snapshots() throws Exception {
+        // given
+        var store = new SnapshotStore(directory, 2);
+        store.write(1, _ -> { }, consumer -> consumer.accept(aTransaction()), _ -> { });
+        store.write(2, _ -> { }, consumer -> consumer.accept(aTransaction()), _ -> { });
+        Files.createDirectories(directory.resolve("snapshot-00000000000000000003.tmp"));
+
+        // when
+        store.deleteOlderThan(2);
+
+        // then
+        try (var files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString()).toList())
+                .isEqualTo(List.of("snapshot-00000000000000000002"));
+        }
+        assertThat(store.latest()).contains(2L);
+    }
+
+    @Test
+    void should_ignore_incomplete_snapshot() throws Exception {
+        // given
+        var store = new SnapshotStore(directory, 2);
+        Files.createDirectories(directory.resolve("snapshot-00000000000000000007"));
+
+        // then
+        assertThat(store.latest()).isEmpty();
+    }
+
+    private static Transaction aTransaction() {
+        return transaction()
+            .from(AccountId.random())
+            .to(AccountId.random())
+            .amount(new Money(BigDecimal.ONE))
+            .type(INTERNAL)
+            .build();
+    }
+}
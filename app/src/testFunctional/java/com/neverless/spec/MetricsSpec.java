@@ -0,0 +1,49 @@
+package com.neverless.spec;
+
+import com.neverless.domain.account.AccountId;
+import org.junit.jupiter.api.Test;
+
+import static net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricsSpec extends FunctionalSpec {
+
+    protected MetricsSpec(ApplicationContext context) {
+        super(context);
+    }
+
+    @Test
+    void should_expose_request_timings_by_route_and_status_in_prometheus_format() {
+        // given
+        when().get("/accounts/{id}", AccountId.random().value()).thenReturn();
+        when().get("/no/such/route").thenReturn();
+
+        // when
+        final var response = when().get("/metrics").thenReturn();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.contentType()).startsWith("text/plain");
+        assertThat(response.body().asString())
+            .contains("# TYPE neverless_http_request_seconds histogram")
+            .containsPattern("neverless_http_request_seconds_count\\{method=\"GET\",route=\"/accounts/\\{id}\",status=\"404\"} [1-9]")
+            .containsPattern("neverless_http_request_seconds_count\\{method=\"GET\",route=\"unmatched\",status=\"404\"} [1-9]")
+            .contains("neverless_http_request_seconds_bucket{method=\"GET\",route=\"/accounts/{id}\",status=\"404\",le=\"+Inf\"}")
+            .contains("# TYPE neverless_ledger_seconds histogram")
+            .contains("neverless_provider_call_seconds_count{operation=\"get_request_state\"}")
+            .contains("neverless_finalize_cycle_seconds_count ");
+    }
+
+    @Test
+    void should_report_memory_census() {
+        // when
+        final var response = when().get("/admin/memory?sample=16").thenReturn();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThatJson(response.body().asString())
+            .inPath("$.populations[*].name").isArray().contains("withdrawal_state_cache");
+        assertThatJson(response.body().asString())
+            .node("maxHeapBytes").isNumber().isPositive();
+    }
+}
@@ -2,6 +2,7 @@ package com.neverless.spec;
 
 import org.junit.jupiter.api.Test;
 
+import static net.javacrumbs.jsonunit.assertj.JsonAssertions.assertThatJson;
 import static org.assertj.core.api.Assertions.assertThat;
 
 
@@ -19,4 +20,15 @@ public class StartupSpec extends FunctionalSpec {
         assertThat(response.statusCode()).isEqualTo(200);
         assertThat(response.body().asString()).isEqualTo("OK");
     }
+
+    @Test
+    void should_report_ready_while_finalization_keeps_up() {
+        // when
+        final var response = when().get("/readiness").thenReturn();
+
+        // then
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThatJson(response.body().asString()).node("status").isEqualTo("READY");
+        assertThatJson(response.body().asString()).node("reasons").isArray().isEmpty();
+    }
 }
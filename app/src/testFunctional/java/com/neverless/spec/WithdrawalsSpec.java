@@ -8,6 +8,8 @@ import com.neverless.integration.WithdrawalService.WithdrawalId;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.math.BigDecimal;
 import java.util.UUID;
@@ -44,6 +46,24 @@ public class WithdrawalsSpec extends FunctionalSpec {
             validateCreatedResponse(response);
         }
 
+        @Test
+        void should_report_where_request_time_went() {
+            // given
+            final var fromAccount = setupAccount();
+            final var externalAddress = setupExternalAddress();
+
+            // when
+            final var response = when().body(requestBody(fromAccount, externalAddress))
+                .post("/withdrawal")
+                .thenReturn();
+
+            // then
+            validateCreatedResponse(response);
+            assertThat(response.header("Server-Timing"))
+                .matches("parse;dur=[0-9.]+, .*ledger;dur=[0-9.]+, .*total;dur=[0-9.]+")
+                .contains("lock;dur=", "store;dur=");
+        }
+
         @Test
         void should_request_withdrawal_and_freeze_funds_until_request_is_finalised() {
             // given
@@ -68,6 +88,7 @@ public class WithdrawalsSpec extends FunctionalSpec {
 
             // when
             final var txn = transactionRepository.get(new TransactionId(responseId));
+            awaitDispatched(responseId);
             withdrawalService.fail(new WithdrawalId(UUID.fromString(txn.externalRef().get().value())));
 
             // then
@@ -110,6 +131,29 @@ public class WithdrawalsSpec extends FunctionalSpec {
             assertThat(firstResponseId).isNotEqualTo(secondResponseId);
         }
 
+        @Test
+        void should_return_original_withdrawal_for_retry_with_same_idempotency_key() {
+            // given
+            final var fromAccount = setupAccount();
+            final var externalAddress = setupExternalAddress();
+            final var idempotencyKey = UUID.randomUUID().toString();
+            final var firstResponse = when().header("Idempotency-Key", idempotencyKey)
+                .body(requestBody(fromAccount, externalAddress, 7))
+                .post("/withdrawal")
+                .thenReturn();
+            final var firstResponseId = validateCreatedResponse(firstResponse);
+
+            // when
+            final var retryResponse = when().header("Idempotency-Key", idempotencyKey)
+                .body(requestBody(fromAccount, externalAddress, 7))
+                .post("/withdrawal")
+                .thenReturn();
+
+            // then
+            assertThat(validateCreatedResponse(retryResponse)).isEqualTo(firstResponseId);
+            assertThat(accountRepository.get(fromAccount).balance).isEqualTo(new Money(BigDecimal.valueOf(3)));
+        }
+
         @Test
         void should_return_400_when_balance_is_insufficient() {
             // given
@@ -153,6 +197,22 @@ public class WithdrawalsSpec extends FunctionalSpec {
             assertThat(response.statusCode()).isEqualTo(404);
         }
 
+        @ParameterizedTest
+        @ValueSource(strings = {"0.000000001", "1E-1000000", "1E+1000000", "100000000000"})
+        void should_return_400_when_amount_is_not_representable(String amount) {
+            // given
+            final var fromAccount = setupAccount();
+            final var externalAddress = setupExternalAddress();
+
+            // when
+            final var response = when().body(requestBody(fromAccount.value(), externalAddress.value(), amount))
+                .post("/withdrawal")
+                .thenReturn();
+
+            // then
+            assertThat(response.statusCode()).isEqualTo(400);
+        }
+
         @Test
         void should_return_400_for_malformed_input() {
             // when
@@ -167,7 +227,7 @@ public class WithdrawalsSpec extends FunctionalSpec {
         private UUID validateCreatedResponse(Response response) {
             assertThat(response.statusCode()).isEqualTo(201);
             final var responseId = responseId(response);
-            assertThat(withdrawalService.getRequestState(withdrawalId(responseId))).isNotNull();
+            awaitDispatched(responseId);
             return responseId;
         }
     }
@@ -209,6 +269,7 @@ public class WithdrawalsSpec extends FunctionalSpec {
             final var txnId = responseId(creationResponse);
 
             // when
+            awaitDispatched(txnId);
             withdrawalService.complete(withdrawalId(txnId));
 
             final var response = when().get("/withdrawal/{id}/state", txnId.toString()).thenReturn();
@@ -235,6 +296,7 @@ public class WithdrawalsSpec extends FunctionalSpec {
             final var txnId = responseId(creationResponse);
 
             // when
+            awaitDispatched(txnId);
             withdrawalService.fail(withdrawalId(txnId));
 
             final var response = when().get("/withdrawal/{id}/state", txnId.toString()).thenReturn();
@@ -270,6 +332,27 @@ public class WithdrawalsSpec extends FunctionalSpec {
             // then
             assertThat(response.statusCode()).isEqualTo(400);
         }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"0", "-1", "xyz"})
+        void should_return_400_for_invalid_request_timeout(String timeout) {
+            // given
+            final var id = TransactionId.random();
+
+            // when
+            final var response = when().header("X-Request-Timeout-Ms", timeout)
+                .get("/withdrawal/{id}/state", id.value())
+                .thenReturn();
+
+            // then
+            assertThat(response.statusCode()).isEqualTo(400);
+        }
+    }
+
+    private void awaitDispatched(UUID id) {
+        // the provider is sent the withdrawal by the outbox, after the response
+        await().atMost(5, TimeUnit.SECONDS).ignoreExceptions()
+            .untilAsserted(() -> assertThat(withdrawalService.getRequestState(withdrawalId(id))).isNotNull());
     }
 
     private WithdrawalId withdrawalId(UUID id) {
@@ -286,6 +369,10 @@ public class WithdrawalsSpec extends FunctionalSpec {
     }
 
     private String requestBody(UUID from, String to, int amount) {
+        return requestBody(from, to, String.valueOf(amount));
+    }
+
+    private String requestBody(UUID from, String to, String amount) {
         return """
                 {
                     "amount" : %s,